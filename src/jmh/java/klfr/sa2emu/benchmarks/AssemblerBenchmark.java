@@ -0,0 +1,35 @@
+package klfr.sa2emu.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import klfr.sa2emu.cpuemulator.SA2_Assembler;
+import klfr.sa2emu.cpuemulator.exceptions.AssemblyError;
+
+/**
+ * Erzeugen eines {@link SA2_Assembler} für einen kleinen und einen großen
+ * Quelltext.
+ *
+ * @author kleines Filmröllchen
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AssemblerBenchmark {
+
+	@Param({ "small", "large" })
+	public String size;
+
+	private String source;
+
+	@Setup
+	public void setup() {
+		source = size.equals("small") ? Programs.SMALL_SOURCE : Programs.LARGE_SOURCE;
+	}
+
+	@Benchmark
+	public byte[] assemble() throws AssemblyError {
+		return new SA2_Assembler(source).getMachineCode();
+	}
+}
@@ -0,0 +1,63 @@
+package klfr.sa2emu.benchmarks;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import klfr.sa2emu.cpuemulator.SA2_Assembler;
+import klfr.sa2emu.cpuemulator.SA2_CPU;
+import klfr.sa2emu.cpuemulator.SA2_Image;
+import klfr.sa2emu.cpuemulator.exceptions.AssemblyError;
+
+/**
+ * Laden eines Programms aus einem {@link SA2_Image} und aus einem
+ * Speicherabbild aus Hexadezimalzahlen.
+ *
+ * @author kleines Filmröllchen
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ImageBenchmark {
+
+	private final SA2_CPU cpu = new SA2_CPU();
+	private Path image, hex;
+
+	@Setup
+	public void setup() throws IOException, AssemblyError {
+		SA2_Assembler assembler = new SA2_Assembler(Programs.SMALL_SOURCE);
+		image = Files.createTempFile("sa2", ".sa2img");
+		SA2_Image.of(assembler).write(image);
+		hex = Files.createTempFile("sa2", ".ram");
+		cpu.setMemory(assembler.getMachineCode(), (byte) 0);
+		try (PrintStream out = new PrintStream(hex.toFile())) {
+			cpu.RAM.printMemory(out);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.delete(image);
+		Files.delete(hex);
+	}
+
+	@Benchmark
+	public SA2_CPU loadImage() throws IOException {
+		cpu.loadImage(SA2_Image.read(image));
+		return cpu;
+	}
+
+	@Benchmark
+	public SA2_CPU loadHexText() throws IOException {
+		try (Scanner scan = new Scanner(hex)) {
+			for (int address = 0; address < cpu.RAM.size() && scan.hasNextInt(16); ++address)
+				cpu.RAM.write(address, (byte) scan.nextInt(16));
+		}
+		return cpu;
+	}
+}
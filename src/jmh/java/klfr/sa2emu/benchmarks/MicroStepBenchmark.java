@@ -0,0 +1,34 @@
+package klfr.sa2emu.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import klfr.sa2emu.cpuemulator.SA2_CPU;
+import klfr.sa2emu.cpuemulator.exceptions.CPUException;
+
+/**
+ * Ein einzelner Mikrobefehl ({@link SA2_CPU#setControlLines()} und
+ * {@link SA2_CPU#clock()}) in einer Endlosschleife.
+ *
+ * @author kleines Filmröllchen
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MicroStepBenchmark {
+
+	private SA2_CPU cpu;
+
+	@Setup
+	public void setup() {
+		cpu = Programs.load(Programs.ENDLESS);
+	}
+
+	@Benchmark
+	public byte microStep() throws CPUException {
+		cpu.setControlLines();
+		cpu.clock();
+		return cpu.lastBusVal();
+	}
+}
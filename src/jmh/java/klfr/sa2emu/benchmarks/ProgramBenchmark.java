@@ -0,0 +1,68 @@
+package klfr.sa2emu.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import klfr.sa2emu.cpuemulator.SA2_BlockTranslator;
+import klfr.sa2emu.cpuemulator.SA2_CPU;
+import klfr.sa2emu.cpuemulator.SA2_FastEngine;
+import klfr.sa2emu.cpuemulator.SA2_Snapshot;
+import klfr.sa2emu.cpuemulator.exceptions.CPUException;
+
+/**
+ * Ganze Programme bis zum Halt, mit jeder Ausführungsart. Vor jedem Durchlauf
+ * wird der Anfangszustand aus einer Momentaufnahme wiederhergestellt; die
+ * übersetzten Blöcke bleiben dabei erhalten, weil sich der Code nicht ändert.
+ *
+ * @author kleines Filmröllchen
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProgramBenchmark {
+
+	/** Höchstens so viele Taktzyklen, falls ein Programm nicht anhält. */
+	private static final long MAX_CYCLES = 10_000_000L;
+
+	@Param({ "countdown", "nested", "calls" })
+	public String program;
+
+	@Param({ "micro", "fast", "jit" })
+	public String engine;
+
+	private SA2_CPU cpu;
+	private SA2_Snapshot start;
+	private SA2_FastEngine fastEngine;
+	private SA2_BlockTranslator translator;
+
+	@Setup
+	public void setup() {
+		switch (program) {
+			case "countdown":
+				cpu = Programs.load(Programs.COUNTDOWN);
+				break;
+			case "nested":
+				cpu = Programs.load(Programs.NESTED);
+				break;
+			default:
+				cpu = Programs.load(Programs.CALLS);
+		}
+		start = cpu.snapshot();
+		fastEngine = new SA2_FastEngine(cpu);
+		translator = new SA2_BlockTranslator(cpu);
+	}
+
+	@Benchmark
+	public long runToHalt() throws CPUException {
+		cpu.restore(start);
+		switch (engine) {
+			case "micro":
+				return cpu.run(MAX_CYCLES);
+			case "fast":
+				return fastEngine.run(MAX_CYCLES);
+			default:
+				return translator.run(MAX_CYCLES);
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package klfr.sa2emu.benchmarks;
+
+import java.util.Arrays;
+
+import klfr.sa2emu.cpuemulator.SA2_Assembler;
+import klfr.sa2emu.cpuemulator.SA2_CPU;
+import klfr.sa2emu.cpuemulator.exceptions.AssemblyError;
+
+/**
+ * Programme für die Benchmarks. Sprünge verwenden feste Adressen, damit die
+ * Programme nicht von der Auflösung der Sprunglabels abhängen.
+ *
+ * @author kleines Filmröllchen
+ */
+final class Programs {
+
+	/** Endlosschleife aus Arithmetik, Speicherzugriffen und einem Sprung. */
+	static final String ENDLESS = String.join("\n",
+			"load 1,a",
+			"load 3,b",
+			"add b",
+			"store a,$128",
+			"load $128,a",
+			"jmp $4");
+
+	/** Zählt A von 255 auf 0 herunter. */
+	static final String COUNTDOWN = String.join("\n",
+			"load 255,a",
+			"load 1,b",
+			"sub b",
+			"jmpnz $4",
+			"halt");
+
+	/** Zwei verschachtelte Schleifen, der äußere Zähler liegt im Speicher. */
+	static final String NESTED = String.join("\n",
+			"load 40,b",
+			"store b,$200",
+			"load 255,a",
+			"load 1,b",
+			"sub b",
+			"jmpnz $8",
+			"load $200,a",
+			"load 1,b",
+			"sub b",
+			"store a,$200",
+			"jmpnz $4",
+			"halt");
+
+	/** Ruft 200-mal ein Unterprogramm auf, das A erhöht und ausgibt. */
+	static final String CALLS = String.join("\n",
+			"load 200,a",
+			"store a,$250",
+			"call $18",
+			"load $250,a",
+			"load 1,b",
+			"sub b",
+			"store a,$250",
+			"jmpnz $4",
+			"halt",
+			"inc",
+			"out",
+			"return");
+
+	/** Ein kleines Programm, wie es in der Oberfläche eingegeben wird. */
+	static final String SMALL_SOURCE = String.join("\n",
+			"load 30,a",
+			"load 50,b",
+			"add b",
+			"out",
+			"halt");
+
+	/** Ein Programm, das den Arbeitsspeicher fast vollständig füllt. */
+	static final String LARGE_SOURCE = largeSource();
+
+	private static String largeSource() {
+		String[] lines = { "load $20 -> A /Kommentar", "load $50, b", "store a > $29", "store b , $30+4", "add b",
+				"add $B", "sub x", "sub $50", "or $x", "xor b", "and $50", "not", "bitsl", "inc", "out",
+				"out cmd 30-2", "out addr 10", "out dat 24", "jmpnz $20", "call $25", "push a", "move a,b",
+				"move sp,x", "swap", "noop" };
+		StringBuilder source = new StringBuilder("/ Kommentarzeile\n");
+		for (int i = 0; i < 124; ++i)
+			source.append(lines[i % lines.length]).append('\n');
+		return source.append("halt").toString();
+	}
+
+	/**
+	 * @return Den Maschinencode des Programms, auf die Speichergröße aufgefüllt.
+	 */
+	static byte[] assemble(String source) {
+		try {
+			return Arrays.copyOf(new SA2_Assembler(source).getMachineCode(), 256);
+		} catch (AssemblyError e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return Eine frisch zurückgesetzte CPU mit dem Programm im Speicher.
+	 */
+	static SA2_CPU load(String source) {
+		SA2_CPU cpu = new SA2_CPU();
+		cpu.setMemory(assemble(source));
+		return cpu;
+	}
+
+	private Programs() {
+	}
+}
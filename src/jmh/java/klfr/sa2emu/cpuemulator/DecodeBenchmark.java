@@ -0,0 +1,34 @@
+package klfr.sa2emu.cpuemulator;
+
+import static klfr.sa2emu.cpuemulator.SA2_CPU.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Dekodierung aller Befehle mit allen Flaggenkombinationen so, wie sie die
+ * Ausführungsarten vornehmen: Zeile im Mikrocode-ROM mit
+ * {@link SA2_CPU#microcodeRow(byte, byte)}, Länge und letzter Mikrobefehl aus
+ * {@link SA2_CPU#MICROCODE_LENGTH} und {@link SA2_CPU#MICROCODE}. Liegt im Paket
+ * der CPU, weil das ROM nicht öffentlich ist.
+ *
+ * @author kleines Filmröllchen
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DecodeBenchmark {
+
+	@Benchmark
+	public void decodeAll(Blackhole blackhole) {
+		for (int instruction = 0; instruction < 256; ++instruction)
+			for (int flags = 0; flags < 8; ++flags) {
+				int row = microcodeRow((byte) instruction, (byte) flags);
+				int length = MICROCODE_LENGTH[row / MICROSTEPS];
+				blackhole.consume(MICROSTEPS / 2 + length);
+				blackhole.consume(MICROCODE[row | (MICROSTEPS / 2 - 1 + length)]);
+			}
+	}
+}
@@ -55,43 +55,57 @@ public class ALURegister extends Register {
 	 *         Operationen und deren Ergebnis ergibt.
 	 */
 	public byte setValue(Register reg1, Register reg2) {
+		int result = compute(operation, reg1.getValue(), reg2.getValue());
+		this.val = (byte) result;
+		return (byte) (result >> 8);
+	}
+
+	/**
+	 * Führt die angegebene Rechenoperation mit den beiden Operanden aus, ohne ein
+	 * Register zu verändern.
+	 * 
+	 * @return Das Ergebnis in den unteren acht Bits und den Zustand des
+	 *         Flaggenregisters in den acht Bits darüber.
+	 */
+	public static int compute(int operation, byte val1, byte val2) {
 		byte flags = 0x00;
+		byte val = 0x00;
 
 		switch (operation) {
 			case ADDITION:
-				if (reg1.getValue() + reg2.getValue() > 0xff)
+				if (val1 + val2 > 0xff)
 					flags |= 0b00000010;
-				this.val = (byte) (reg1.getValue() + reg2.getValue());
+				val = (byte) (val1 + val2);
 				break;
 			case SUBTRACTION:
-				this.val = (byte) (reg1.getValue() - reg2.getValue());
+				val = (byte) (val1 - val2);
 				break;
 			case OR:
-				this.val = (byte) (reg1.getValue() | reg2.getValue());
+				val = (byte) (val1 | val2);
 				break;
 			case XOR:
-				this.val = (byte) (reg1.getValue() ^ reg2.getValue());
+				val = (byte) (val1 ^ val2);
 				break;
 			case AND:
-				this.val = (byte) (reg1.getValue() & reg2.getValue());
+				val = (byte) (val1 & val2);
 				break;
 			case NOT:
-				this.val = (byte) ~reg1.getValue();
+				val = (byte) ~val1;
 				break;
 			case BITSHIFTLEFT:
-				this.val = (byte) (reg1.getValue() << 1);
+				val = (byte) (val1 << 1);
 				break;
 			case BITSHIFTRIGHT:
-				this.val = (byte) (reg1.getValue() >>> 1);
+				val = (byte) (val1 >>> 1);
 				break;
 		}
 
-		if (this.val == 0)
+		if (val == 0)
 			flags |= 0b00000001;
-		if ((this.val & 0x01) == 1)
+		if ((val & 0x01) == 1)
 			flags |= 0b00000100;
 
-		return flags;
+		return (flags & 0xff) << 8 | (val & 0xff);
 	}
 
 	public void clock() throws CPUException {
@@ -0,0 +1,149 @@
+package klfr.sa2emu.cpuemulator;
+
+import java.util.Arrays;
+
+/**
+ * Seiten des Hintergrundspeichers eines {@link RandomAccessMemory}, indiziert
+ * mit Bank * Seiten pro Bank + Seite. Die Seiten liegen in einer zweistufigen
+ * Tabelle aus Abschnitten zu {@link #CHUNK_PAGES} Seiten, die auf jeder Stufe
+ * copy-on-write geteilt wird: {@link #share()} kostet unabhängig von der
+ * Anzahl der Bänke gleich wenig, und der erste Schreibzugriff danach kopiert
+ * nur die Tabelle der Abschnitte, den betroffenen Abschnitt und die Seite.
+ * Momentaufnahmen und abgespaltene CPUs teilen sich so alle unveränderten
+ * Bänke.
+ *
+ * @author kleines Filmröllchen
+ */
+final class BankStorage {
+
+	/** Anzahl der Seiten eines Abschnitts. */
+	static final int CHUNK_PAGES = 256;
+	private static final int CHUNK_SHIFT = 8;
+	/** Ein Abschnitt aus leeren Seiten, den sich alle leeren Speicher teilen. */
+	private static final byte[][] ZERO_CHUNK = new byte[CHUNK_PAGES][];
+
+	static {
+		Arrays.fill(ZERO_CHUNK, RandomAccessMemory.ZERO_PAGE);
+	}
+
+	private final int pageCount;
+	/** Die Abschnitte. */
+	private byte[][][] chunks;
+	/**
+	 * Je Abschnitt, welche seiner Seiten nur diesem Hintergrundspeicher gehören;
+	 * {@code null} für einen geteilten Abschnitt. Ist die Tabelle selbst geteilt,
+	 * ist das ganze Array {@code null}.
+	 */
+	private boolean[][] owned;
+
+	/**
+	 * Erzeugt einen leeren Hintergrundspeicher mit der gegebenen Anzahl an
+	 * Seiten.
+	 */
+	BankStorage(int pageCount) {
+		this.pageCount = pageCount;
+		chunks = new byte[(pageCount + CHUNK_PAGES - 1) >> CHUNK_SHIFT][][];
+		clear();
+	}
+
+	/** Teilt die Tabelle eines anderen Hintergrundspeichers. */
+	private BankStorage(int pageCount, byte[][][] chunks) {
+		this.pageCount = pageCount;
+		this.chunks = chunks;
+	}
+
+	/** @return Die Anzahl der Seiten. */
+	int pageCount() {
+		return pageCount;
+	}
+
+	/** @return Eine Seite, nur zum Lesen. */
+	byte[] page(int index) {
+		return chunks[index >> CHUNK_SHIFT][index & (CHUNK_PAGES - 1)];
+	}
+
+	/**
+	 * @return Ob die Seite möglicherweise noch von einem anderen Speicher benutzt
+	 *         wird und vor dem Schreiben kopiert werden muss.
+	 */
+	boolean isShared(int index) {
+		boolean[] chunk = owned == null ? null : owned[index >> CHUNK_SHIFT];
+		return chunk == null || !chunk[index & (CHUNK_PAGES - 1)];
+	}
+
+	/**
+	 * Legt eine Seite ab. Liegt sie schon dort und ist mindestens so geteilt wie
+	 * angegeben, bleibt die Tabelle unverändert und wird auch nicht kopiert.
+	 */
+	void setPage(int index, byte[] page, boolean shared) {
+		if (page(index) == page && (isShared(index) || !shared))
+			return;
+		int chunk = index >> CHUNK_SHIFT;
+		ownChunk(chunk)[index & (CHUNK_PAGES - 1)] = page;
+		owned[chunk][index & (CHUNK_PAGES - 1)] = !shared;
+	}
+
+	/**
+	 * @return Die Seite zum Beschreiben; ist sie geteilt, wird sie vorher kopiert.
+	 */
+	byte[] writablePage(int index) {
+		int chunk = index >> CHUNK_SHIFT, inChunk = index & (CHUNK_PAGES - 1);
+		byte[][] pages = ownChunk(chunk);
+		if (!owned[chunk][inChunk]) {
+			pages[inChunk] = pages[inChunk].clone();
+			owned[chunk][inChunk] = true;
+		}
+		return pages[inChunk];
+	}
+
+	/**
+	 * @return Die Seiten eines Abschnitts zum Verändern; sind er oder die Tabelle
+	 *         geteilt, werden sie vorher kopiert.
+	 */
+	private byte[][] ownChunk(int chunk) {
+		if (owned == null) {
+			chunks = chunks.clone();
+			owned = new boolean[chunks.length][];
+		}
+		if (owned[chunk] == null) {
+			chunks[chunk] = chunks[chunk].clone();
+			owned[chunk] = new boolean[CHUNK_PAGES];
+		}
+		return chunks[chunk];
+	}
+
+	/**
+	 * @return Einen Hintergrundspeicher mit demselben Inhalt, der sich alle Seiten
+	 *         mit diesem teilt.
+	 */
+	BankStorage share() {
+		owned = null;
+		return new BankStorage(pageCount, chunks);
+	}
+
+	/**
+	 * @return Einen Hintergrundspeicher mit der gegebenen Anzahl an Seiten, der
+	 *         sich die vorhandenen Seiten mit diesem teilt; neue Seiten sind leer.
+	 */
+	BankStorage resize(int newPageCount) {
+		byte[][][] resized = Arrays.copyOf(chunks, (newPageCount + CHUNK_PAGES - 1) >> CHUNK_SHIFT);
+		for (int chunk = chunks.length; chunk < resized.length; ++chunk)
+			resized[chunk] = ZERO_CHUNK;
+		owned = null;
+		BankStorage storage = new BankStorage(newPageCount, resized);
+		// hinter dem alten Ende können noch Seiten früherer Bänke stehen
+		int end = Math.min(newPageCount, chunks.length << CHUNK_SHIFT);
+		for (int index = pageCount; index < end; ++index)
+			storage.setPage(index, RandomAccessMemory.ZERO_PAGE, true);
+		return storage;
+	}
+
+	/**
+	 * Setzt alle Seiten auf die gemeinsame leere Seite.
+	 */
+	void clear() {
+		chunks = new byte[chunks.length][][];
+		Arrays.fill(chunks, ZERO_CHUNK);
+		owned = new boolean[chunks.length][];
+	}
+}
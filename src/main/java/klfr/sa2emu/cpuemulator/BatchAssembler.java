@@ -0,0 +1,202 @@
+package klfr.sa2emu.cpuemulator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import klfr.sa2emu.cpuemulator.exceptions.AssemblyError;
+
+/**
+ * Assembliert alle Quelltexte in einem Verzeichnisbaum parallel. Jede Datei
+ * mit der Endung {@code .sa2} oder {@code .asm} wird mit einem eigenen
+ * {@link SA2_Assembler} übersetzt und als {@link SA2_Image} mit der Endung
+ * {@value #IMAGE_EXTENSION} an derselben relativen Stelle im Zielbaum
+ * gespeichert. Die Dateien werden auf einem {@link ForkJoinPool} rekursiv
+ * halbiert verteilt; die Aufträge teilen sich keinen veränderlichen Zustand.
+ *
+ * @author kleines Filmröllchen
+ */
+public class BatchAssembler implements AutoCloseable {
+
+	/** Endungen der Quelltexte. */
+	private static final String[] SOURCE_EXTENSIONS = { ".sa2", ".asm" };
+	/** Endung der erzeugten Programmabbilder. */
+	public static final String IMAGE_EXTENSION = ".sa2img";
+	/** Höchstens so viele Dateien assembliert ein Auftrag selbst. */
+	private static final int FILES_PER_TASK = 8;
+
+	/**
+	 * Ein Quelltext, der nicht assembliert werden konnte.
+	 */
+	public static class Failure {
+		/** Die Datei, relativ zum Quellverzeichnis. */
+		public final Path source;
+		/** Zeile des Fehlers ab 1, oder 0 bei Fehlern in Eingabe/Ausgabe. */
+		public final int line;
+		/** Die Fehlermeldung. */
+		public final String message;
+
+		Failure(Path source, int line, String message) {
+			this.source = source;
+			this.line = line;
+			this.message = message;
+		}
+
+		@Override
+		public String toString() {
+			return source + ":" + line + ": " + message;
+		}
+	}
+
+	/**
+	 * Ergebnis eines Durchgangs.
+	 */
+	public static class Result {
+		/** Anzahl der gefundenen Quelltexte. */
+		public final int sources;
+		/** Die fehlgeschlagenen Quelltexte, nach Pfad sortiert. */
+		public final List<Failure> failures;
+
+		Result(int sources, List<Failure> failures) {
+			this.sources = sources;
+			this.failures = failures;
+		}
+
+		/** @return Die Anzahl der erfolgreich assemblierten Quelltexte. */
+		public int assembled() {
+			return sources - failures.size();
+		}
+	}
+
+	private final ForkJoinPool pool;
+	/** Ob der Pool von diesem Assembler erzeugt wurde und mit ihm beendet wird. */
+	private final boolean ownsPool;
+
+	/**
+	 * Erzeugt einen Assembler, der alle verfügbaren Kerne benutzt.
+	 */
+	public BatchAssembler() {
+		this(new ForkJoinPool(Runtime.getRuntime().availableProcessors()), true);
+	}
+
+	/**
+	 * Erzeugt einen Assembler, der den gegebenen Pool benutzt. Der Pool wird von
+	 * {@link #close()} nicht beendet.
+	 */
+	public BatchAssembler(ForkJoinPool pool) {
+		this(pool, false);
+	}
+
+	private BatchAssembler(ForkJoinPool pool, boolean ownsPool) {
+		this.pool = pool;
+		this.ownsPool = ownsPool;
+	}
+
+	/**
+	 * Assembliert alle Quelltexte unter dem Quellverzeichnis.
+	 *
+	 * @param sourceRoot Das Quellverzeichnis oder ein einzelner Quelltext.
+	 * @param targetRoot Das Zielverzeichnis; fehlende Verzeichnisse werden
+	 *                   angelegt.
+	 * @throws IOException falls das Quellverzeichnis nicht gelesen werden kann.
+	 */
+	public Result assemble(Path sourceRoot, Path targetRoot) throws IOException {
+		Path root = sourceRoot.toAbsolutePath();
+		Path base = Files.isDirectory(root) ? root : root.getParent();
+		List<Path> sources;
+		try (Stream<Path> files = Files.walk(root)) {
+			sources = files.filter(file -> isSource(file) && Files.isRegularFile(file))
+					.map(base::relativize).sorted().collect(Collectors.toList());
+		}
+
+		List<Failure> failures = pool.invoke(new Part(sources, 0, sources.size(), base, targetRoot));
+		failures.sort(Comparator.comparing(failure -> failure.source));
+		return new Result(sources.size(), failures);
+	}
+
+	/**
+	 * Assembliert die Dateien eines Bereichs oder teilt ihn in zwei Hälften.
+	 */
+	private static class Part extends RecursiveTask<List<Failure>> {
+		private static final long serialVersionUID = 1L;
+
+		private final List<Path> sources;
+		private final int from, to;
+		private final Path sourceRoot, targetRoot;
+
+		Part(List<Path> sources, int from, int to, Path sourceRoot, Path targetRoot) {
+			this.sources = sources;
+			this.from = from;
+			this.to = to;
+			this.sourceRoot = sourceRoot;
+			this.targetRoot = targetRoot;
+		}
+
+		@Override
+		protected List<Failure> compute() {
+			if (to - from > FILES_PER_TASK) {
+				int middle = (from + to) >>> 1;
+				Part upper = new Part(sources, middle, to, sourceRoot, targetRoot);
+				upper.fork();
+				List<Failure> failures = new Part(sources, from, middle, sourceRoot, targetRoot).compute();
+				failures.addAll(upper.join());
+				return failures;
+			}
+			List<Failure> failures = new ArrayList<>();
+			for (int i = from; i < to; ++i) {
+				Failure failure = assembleFile(sources.get(i), sourceRoot, targetRoot);
+				if (failure != null)
+					failures.add(failure);
+			}
+			return failures;
+		}
+	}
+
+	/**
+	 * Assembliert eine einzelne Datei.
+	 *
+	 * @param source Die Datei relativ zum Quellverzeichnis.
+	 * @return Der Fehler oder {@code null}.
+	 */
+	static Failure assembleFile(Path source, Path sourceRoot, Path targetRoot) {
+		try {
+			SA2_Assembler assembler = new SA2_Assembler(sourceRoot.resolve(source).toFile());
+			if (!assembler.getBankCode().isEmpty())
+				return new Failure(source, 0, "Programm mit Bänken kann nicht als Abbild gespeichert werden.");
+			String name = source.getFileName().toString();
+			Path target = targetRoot.resolve(source)
+					.resolveSibling(name.substring(0, name.lastIndexOf('.')) + IMAGE_EXTENSION);
+			Files.createDirectories(target.toAbsolutePath().getParent());
+			SA2_Image.of(assembler).write(target);
+			return null;
+		} catch (AssemblyError e) {
+			return new Failure(source, e.getLine(), e.getMessage());
+		} catch (IOException e) {
+			return new Failure(source, 0, "Fehler in Eingabe/Ausgabe: " + e.getMessage());
+		}
+	}
+
+	private static boolean isSource(Path file) {
+		String name = file.getFileName().toString();
+		for (String extension : SOURCE_EXTENSIONS)
+			if (name.endsWith(extension))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Beendet den Pool, falls er von diesem Assembler erzeugt wurde.
+	 */
+	@Override
+	public void close() {
+		if (ownsPool)
+			pool.shutdown();
+	}
+}
@@ -0,0 +1,691 @@
+package klfr.sa2emu.cpuemulator;
+
+import static klfr.sa2emu.cpuemulator.SA2_CPU.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Übersetzt einen Grundblock von SA2-Maschinencode in eine versteckte
+ * JVM-Klasse, die {@link CompiledBlock} implementiert. Ein Grundblock ist eine
+ * Folge von Befehlen, die mit dem ersten Sprung, Aufruf oder Rücksprung
+ * ({@code 0xa0}-{@code 0xa8}) endet. Er endet schon vorher vor dem ersten
+ * Befehl, den die übersetzte Klasse nicht selbst ausführt (Halt, Ausgabebus,
+ * Stackschreibzugriffe und Speicherbefehle, die in den Block selbst
+ * schreiben). Solche Befehle führt dann wieder {@link SA2_FastEngine} aus.<br>
+ * <br>
+ * Der erzeugte Bytecode enthält keine Verzweigungen und verändert die Register
+ * genau so, wie es {@link SA2_FastEngine} tun würde; auch ein bedingter Sprung
+ * am Ende berechnet den neuen Programmzähler aus den Flaggen, sodass die
+ * Klasse keine StackMapTable braucht. Die Register werden dem
+ * Block als {@code byte[]} in der Reihenfolge der Konstanten {@link #A} bis
+ * {@link #BUS} übergeben.
+ *
+ * @author kleines Filmröllchen
+ */
+class BlockCompiler {
+
+	//// Anordnung der Register im übergebenen Array
+	static final int A = 0;
+	static final int B = 1;
+	static final int X = 2;
+	static final int SP = 3;
+	static final int PC = 4;
+	static final int IP = 5;
+	static final int OP = 6;
+	static final int FR = 7;
+	static final int ALU = 8;
+	static final int MAR = 9;
+	static final int OUT = 10;
+	/** Letzter Wert auf dem Bus */
+	static final int BUS = 11;
+	/** Flaggen vor dem letzten Befehl, für dessen Zeile im Mikrocode-ROM */
+	static final int LAST_FLAGS = 12;
+	static final int REGISTER_COUNT = 13;
+
+	/** Maximale Anzahl an Befehlen in einem Block. */
+	static final int MAX_BLOCK_LENGTH = 32;
+
+	//// JVM-Opcodes
+	private static final int ICONST_0 = 0x03;
+	private static final int BIPUSH = 0x10;
+	private static final int SIPUSH = 0x11;
+	private static final int ILOAD = 0x15;
+	private static final int ISTORE = 0x36;
+	private static final int ALOAD_0 = 0x2a;
+	private static final int ALOAD_1 = 0x2b;
+	private static final int ALOAD_2 = 0x2c;
+	private static final int BALOAD = 0x33;
+	private static final int BASTORE = 0x54;
+	private static final int IADD = 0x60;
+	private static final int IMUL = 0x68;
+	private static final int ISHR = 0x7a;
+	private static final int IAND = 0x7e;
+	private static final int IXOR = 0x82;
+	private static final int INVOKEVIRTUAL = 0xb6;
+	private static final int INVOKESPECIAL = 0xb7;
+	private static final int INVOKESTATIC = 0xb8;
+	private static final int RETURN = 0xb1;
+
+	/** Lokale Variable für das Ergebnis der ALU. */
+	private static final int LOCAL_ALU = 3;
+	/** Lokale Variable für den Wert auf dem Bus. */
+	private static final int LOCAL_BUS = 4;
+	/** Lokale Variable, 1 falls der bedingte Sprung ausgeführt wird, sonst 0. */
+	private static final int LOCAL_TAKEN = 5;
+
+	private static final String RAM_CLASS = "klfr/sa2emu/cpuemulator/RandomAccessMemory";
+
+	/**
+	 * Ergebnis einer Übersetzung.
+	 */
+	static class Block {
+		/** Erste Adresse des Blocks. */
+		final int start;
+		/** Adresse nach dem letzten Befehl des Blocks. */
+		final int end;
+		/** Der übersetzte Code; {@code null}, falls der Block leer ist. */
+		final CompiledBlock code;
+		/** Anzahl der Befehle. */
+		final int instructions;
+		/**
+		 * Anzahl der Taktzyklen, die die Befehle zusammen benötigen; ohne einen
+		 * bedingten Sprung am Ende.
+		 */
+		final int cycles;
+		/** Letzter Mikrobefehl des letzten Befehls, außer bei bedingtem Sprung. */
+		final long lastMicroinstruction;
+		/** Zeilen der Befehle im Mikrocode-ROM, für die {@link PerformanceCounters}. */
+		final int[] rows;
+		/**
+		 * Ob der Block mit einem bedingten Sprung endet. Dessen Zeile im
+		 * Mikrocode-ROM und damit seine Taktzyklen hängen von den Flaggen ab und
+		 * stehen erst nach der Ausführung fest.
+		 */
+		final boolean conditional;
+
+		Block(int start, int end, CompiledBlock code, int instructions, int cycles, long lastMicroinstruction,
+				int[] rows, boolean conditional) {
+			this.start = start;
+			this.end = end;
+			this.code = code;
+			this.instructions = instructions;
+			this.cycles = cycles;
+			this.lastMicroinstruction = lastMicroinstruction;
+			this.rows = rows;
+			this.conditional = conditional;
+		}
+
+		/** @return Ob die gegebene Adresse zum Code dieses Blocks gehört. */
+		boolean covers(int address) {
+			return address >= start && address < end;
+		}
+	}
+
+	private final RandomAccessMemory ram;
+	private final int start;
+
+	// Konstantenpool
+	private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+	private final DataOutputStream pool = new DataOutputStream(poolBytes);
+	private final Map<String, Integer> poolEntries = new HashMap<>();
+	private int poolCount = 1;
+
+	// Code der execute-Methode
+	private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+
+	/**
+	 * Bereitet die Übersetzung des Blocks vor, der an der gegebenen Adresse
+	 * beginnt.
+	 */
+	BlockCompiler(RandomAccessMemory ram, int start) {
+		this.ram = ram;
+		this.start = start;
+	}
+
+	/**
+	 * Übersetzt den Block und lädt ihn als versteckte Klasse.
+	 */
+	Block compile() {
+		// Ausdehnung des Blocks bestimmen
+		int end = start, instructions = 0;
+		while ((end - start) / 2 < MAX_BLOCK_LENGTH && end + 1 < ram.size() && isTranslatable(ram.read(end))) {
+			end += 2;
+			if (isJump(ram.read(end - 2)))
+				break;
+		}
+		// Speicherbefehle, die in den Block selbst schreiben, beenden ihn
+		for (int address = start; address < end; address += 2) {
+			byte ip = ram.read(address);
+			int target = ram.read(address + 1) & 0xff;
+			if ((ip == 0x20 || ip == 0x21) && target >= start && target < end) {
+				end = address;
+				break;
+			}
+		}
+		if (end == start)
+			return new Block(start, Math.min(start + 2, ram.size()), null, 0, 0, 0, new int[0], false);
+
+		// Nur Sprünge hängen von den Flaggen ab, die Zeile ohne Flaggen genügt daher
+		// für die Länge; die Zeile des letzten Befehls bestimmt SA2_BlockTranslator
+		// nach der Ausführung mit den Flaggen davor
+		byte last = ram.read(end - 2);
+		boolean conditional = (last & 0xff) >= 0xa1 && (last & 0xff) <= 0xa6;
+		int cycles = 0, row = 0;
+		int[] rows = new int[(end - start) / 2];
+		for (int address = start; address < end; address += 2) {
+			byte ip = ram.read(address), op = ram.read(address + 1);
+			row = microcodeRow(ip, (byte) 0);
+			rows[instructions] = row;
+			int length = MICROCODE_LENGTH[row / MICROSTEPS];
+			if (!conditional || address + 2 < end)
+				cycles += MICROSTEPS / 2 + length;
+			++instructions;
+			emitInstruction(address, ip, op, MICROCODE[row | (MICROSTEPS / 2 - 1 + length)], address + 2 == end);
+		}
+		long lastMicroinstruction = MICROCODE[row | (MICROSTEPS / 2 - 1 + MICROCODE_LENGTH[row / MICROSTEPS])];
+
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile(), true);
+			CompiledBlock compiled = (CompiledBlock) lookup
+					.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+			return new Block(start, end, compiled, instructions, cycles, lastMicroinstruction, rows, conditional);
+		} catch (Throwable e) {
+			throw new IllegalStateException("Could not load translated block at " + start, e);
+		}
+	}
+
+	/**
+	 * @return Ob der Befehl innerhalb eines übersetzten Blocks ausgeführt werden
+	 *         kann.
+	 */
+	static boolean isTranslatable(byte instruction) {
+		switch (instruction) {
+			case 0x01:
+			case (byte) 0x91:
+			case (byte) 0x92:
+			case (byte) 0x93:
+			case (byte) 0xb0:
+			case (byte) 0xb2:
+				return false;
+			default:
+				return true;
+		}
+	}
+
+	/**
+	 * @return Ob der Befehl ein Sprung, Aufruf oder Rücksprung ist und damit den
+	 *         Block beendet.
+	 */
+	static boolean isJump(byte instruction) {
+		return (instruction & 0xf0) == 0xa0 && (instruction & 0xff) <= 0xa8;
+	}
+
+	/**
+	 * Erzeugt den Bytecode für einen Befehl, entsprechend
+	 * {@link SA2_FastEngine#step()}.
+	 */
+	private void emitInstruction(int address, byte ip, byte op, long lastMicroinstruction, boolean isLast) {
+		boolean eo = (lastMicroinstruction & EO) != 0;
+		int mode = aluOperation(lastMicroinstruction);
+		if (isLast) {
+			storeRegister(LAST_FLAGS, FR);
+			// Zustand nach dem Von-Neumann-Zyklus; nur beim letzten Befehl sichtbar
+			storeConst(PC, address + 2);
+			storeConst(IP, ip);
+			storeConst(OP, op);
+			storeConst(MAR, address + 1);
+		}
+		// Die ALU rechnet bei jedem Befehl, aber nur bei EO oder am Blockende ist das
+		// Ergebnis sichtbar
+		boolean alu = eo || isLast;
+		// ob ein Wert über den Bus übertragen wird
+		boolean bus = true;
+
+		switch (ip) {
+			case 0x10:
+			case 0x11:
+				storeConst(MAR, op);
+				if (alu)
+					emitAlu(mode, eo);
+				readMemoryConst(op);
+				storeBus(ip == 0x10 ? A : B);
+				break;
+			case 0x12:
+			case 0x13:
+				if (alu)
+					emitAlu(mode, eo);
+				pushInt(op);
+				storeBus(ip == 0x12 ? A : B);
+				break;
+
+			case 0x20:
+			case 0x21:
+				storeConst(MAR, op);
+				if (alu)
+					emitAlu(mode, eo);
+				loadRegister(ip == 0x20 ? A : B);
+				code.write(ISTORE);
+				code.write(LOCAL_BUS);
+				code.write(ALOAD_2);
+				pushInt(op & 0xff);
+				loadLocal(LOCAL_BUS);
+				invoke(INVOKEVIRTUAL, RAM_CLASS, "write", "(IB)V");
+				break;
+
+			case 0x30:
+			case 0x40:
+			case 0x50:
+			case 0x60:
+			case 0x70:
+				storeRegister(X, B);
+				emitAlu(mode, eo);
+				loadLocal(LOCAL_ALU);
+				storeBus(A);
+				break;
+			case 0x31:
+			case 0x41:
+			case 0x51:
+			case 0x61:
+			case 0x71:
+			case (byte) 0x81:
+			case (byte) 0x82:
+			case (byte) 0x83:
+				emitAlu(mode, eo);
+				loadLocal(LOCAL_ALU);
+				storeBus(A);
+				break;
+			case 0x32:
+			case 0x42:
+			case 0x52:
+			case 0x62:
+			case 0x72:
+				storeConst(MAR, op);
+				code.write(ALOAD_1);
+				pushInt(X);
+				readMemoryConst(op);
+				code.write(BASTORE);
+				emitAlu(mode, eo);
+				loadLocal(LOCAL_ALU);
+				storeBus(A);
+				break;
+			case 0x33:
+			case 0x43:
+			case 0x53:
+			case 0x63:
+			case 0x73:
+			case 0x34:
+			case 0x44:
+			case 0x54:
+			case 0x64:
+			case 0x74:
+				int addressRegister = (ip & 0x0f) == 0x03 ? B : X;
+				storeRegister(MAR, addressRegister);
+				code.write(ALOAD_1);
+				pushInt(X);
+				readMemoryRegister(addressRegister);
+				code.write(BASTORE);
+				emitAlu(mode, eo);
+				loadLocal(LOCAL_ALU);
+				storeBus(A);
+				break;
+			case (byte) 0x84:
+			case (byte) 0x85:
+				storeConst(X, 0x01);
+				emitAlu(mode, eo);
+				loadLocal(LOCAL_ALU);
+				storeBus(A);
+				break;
+
+			case (byte) 0x90:
+				if (alu)
+					emitAlu(mode, eo);
+				loadRegister(A);
+				storeBus(OUT);
+				break;
+
+			case (byte) 0xa0:
+				emitAlu(mode, eo);
+				pushInt(op);
+				storeBus(PC);
+				break;
+			case (byte) 0xa1:
+			case (byte) 0xa2:
+			case (byte) 0xa3:
+			case (byte) 0xa4:
+			case (byte) 0xa5:
+			case (byte) 0xa6:
+				// Bit der Flagge aus der Bedingung; die geraden Befehle springen, falls
+				// es nicht gesetzt ist
+				loadRegister(FR);
+				pushInt((ip & 0xff) <= 0xa2 ? 1 : (ip & 0xff) <= 0xa4 ? 0 : 2);
+				code.write(ISHR);
+				pushInt(1);
+				code.write(IAND);
+				if ((ip & 1) == 0) {
+					pushInt(1);
+					code.write(IXOR);
+				}
+				code.write(ISTORE);
+				code.write(LOCAL_TAKEN);
+				emitAlu(mode, eo);
+				// Bus = Operand oder 0, PC = Operand oder Adresse des nächsten Befehls
+				loadLocal(LOCAL_TAKEN);
+				pushInt(op);
+				code.write(IMUL);
+				code.write(ISTORE);
+				code.write(LOCAL_BUS);
+				code.write(ALOAD_1);
+				pushInt(PC);
+				pushInt(address + 2);
+				loadLocal(LOCAL_TAKEN);
+				pushInt(op - (address + 2));
+				code.write(IMUL);
+				code.write(IADD);
+				code.write(BASTORE);
+				break;
+			case (byte) 0xa7:
+				// Rücksprungadresse auf den Stack, dann zum Operanden
+				storeRegister(MAR, SP);
+				code.write(ALOAD_2);
+				loadRegister(SP);
+				pushInt(0xff);
+				code.write(IAND);
+				pushInt((byte) (address + 2));
+				invoke(INVOKEVIRTUAL, RAM_CLASS, "write", "(IB)V");
+				code.write(ALOAD_1);
+				pushInt(SP);
+				loadRegister(SP);
+				pushInt(-1);
+				code.write(IADD);
+				code.write(BASTORE);
+				emitAlu(mode, eo);
+				pushInt(op);
+				storeBus(PC);
+				break;
+			case (byte) 0xa8:
+				code.write(ALOAD_1);
+				pushInt(SP);
+				loadRegister(SP);
+				pushInt(1);
+				code.write(IADD);
+				code.write(BASTORE);
+				storeRegister(MAR, SP);
+				emitAlu(mode, eo);
+				readMemoryRegister(SP);
+				storeBus(PC);
+				break;
+
+			case (byte) 0xb1:
+			case (byte) 0xb3:
+				code.write(ALOAD_1);
+				pushInt(SP);
+				loadRegister(SP);
+				pushInt(1);
+				code.write(IADD);
+				code.write(BASTORE);
+				if (alu)
+					emitAlu(mode, eo);
+				loadRegister(SP);
+				storeBus(ip == (byte) 0xb1 ? A : B);
+				break;
+			case (byte) 0xb4:
+				if (alu)
+					emitAlu(mode, eo);
+				pushInt(op);
+				storeBus(SP);
+				break;
+
+			case 0x23:
+			case 0x24:
+			case 0x25:
+			case 0x27:
+			case 0x28:
+			case 0x29:
+			case 0x2a:
+				if (alu)
+					emitAlu(mode, eo);
+				loadRegister(ip <= 0x24 ? A : ip <= 0x27 ? B : SP);
+				storeBus(ip == 0x23 || ip == 0x29 ? B : ip == 0x24 || ip == 0x27 || ip == 0x2a ? X : A);
+				break;
+			case 0x2b:
+				storeRegister(X, A);
+				storeRegister(A, B);
+				if (alu)
+					emitAlu(mode, eo);
+				loadRegister(X);
+				storeBus(B);
+				break;
+
+			default:
+				if (alu)
+					emitAlu(mode, eo);
+				bus = false;
+		}
+
+		if (isLast) {
+			if (bus) {
+				code.write(ALOAD_1);
+				pushInt(BUS);
+				loadLocal(LOCAL_BUS);
+				code.write(BASTORE);
+			} else {
+				storeConst(BUS, 0);
+			}
+		}
+	}
+
+	/**
+	 * Berechnet die ALU aus A und X, speichert das Ergebnis in der ALU und in
+	 * {@link #LOCAL_ALU} und setzt bei EO die Flaggen.
+	 */
+	private void emitAlu(int mode, boolean eo) {
+		pushInt(mode);
+		loadRegister(A);
+		loadRegister(X);
+		invoke(INVOKESTATIC, "klfr/sa2emu/cpuemulator/ALURegister", "compute", "(IBB)I");
+		code.write(ISTORE);
+		code.write(LOCAL_ALU);
+		code.write(ALOAD_1);
+		pushInt(ALU);
+		loadLocal(LOCAL_ALU);
+		code.write(BASTORE);
+		if (eo) {
+			code.write(ALOAD_1);
+			pushInt(FR);
+			loadLocal(LOCAL_ALU);
+			pushInt(8);
+			code.write(ISHR);
+			code.write(BASTORE);
+		}
+	}
+
+	/**
+	 * Speichert den Wert oben auf dem Stack als Buswert und schreibt ihn in das
+	 * gegebene Register.
+	 */
+	private void storeBus(int register) {
+		code.write(ISTORE);
+		code.write(LOCAL_BUS);
+		code.write(ALOAD_1);
+		pushInt(register);
+		loadLocal(LOCAL_BUS);
+		code.write(BASTORE);
+	}
+
+	private void storeConst(int register, int value) {
+		code.write(ALOAD_1);
+		pushInt(register);
+		pushInt((byte) value);
+		code.write(BASTORE);
+	}
+
+	private void storeRegister(int register, int source) {
+		code.write(ALOAD_1);
+		pushInt(register);
+		loadRegister(source);
+		code.write(BASTORE);
+	}
+
+	private void loadRegister(int register) {
+		code.write(ALOAD_1);
+		pushInt(register);
+		code.write(BALOAD);
+	}
+
+	private void loadLocal(int local) {
+		code.write(ILOAD);
+		code.write(local);
+	}
+
+	private void readMemoryConst(byte address) {
+		code.write(ALOAD_2);
+		pushInt(address & 0xff);
+		invoke(INVOKEVIRTUAL, RAM_CLASS, "read", "(I)B");
+	}
+
+	private void readMemoryRegister(int register) {
+		code.write(ALOAD_2);
+		loadRegister(register);
+		pushInt(0xff);
+		code.write(IAND);
+		invoke(INVOKEVIRTUAL, RAM_CLASS, "read", "(I)B");
+	}
+
+	private void pushInt(int value) {
+		if (value >= -1 && value <= 5) {
+			code.write(ICONST_0 + value);
+		} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+			code.write(BIPUSH);
+			code.write(value);
+		} else {
+			code.write(SIPUSH);
+			code.write(value >> 8);
+			code.write(value);
+		}
+	}
+
+	private void invoke(int opcode, String owner, String name, String descriptor) {
+		int index = methodRef(owner, name, descriptor);
+		code.write(opcode);
+		code.write(index >> 8);
+		code.write(index);
+	}
+
+	//// Klassendatei
+
+	/**
+	 * Setzt die Klassendatei aus Konstantenpool, Konstruktor und execute-Methode
+	 * zusammen.
+	 */
+	private byte[] classFile() throws IOException {
+		int thisClass = classRef("klfr/sa2emu/cpuemulator/CompiledBlock$Translated");
+		int superClass = classRef("java/lang/Object");
+		int blockInterface = classRef("klfr/sa2emu/cpuemulator/CompiledBlock");
+		int objectInit = methodRef("java/lang/Object", "<init>", "()V");
+		int codeName = utf8("Code");
+		int initName = utf8("<init>"), initDescriptor = utf8("()V");
+		int executeName = utf8("execute"),
+				executeDescriptor = utf8("([BLklfr/sa2emu/cpuemulator/RandomAccessMemory;)V");
+		code.write(RETURN);
+
+		ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(classBytes);
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0);
+		out.writeShort(61);
+		out.writeShort(poolCount);
+		pool.flush();
+		poolBytes.writeTo(out);
+		// final, super
+		out.writeShort(0x0030);
+		out.writeShort(thisClass);
+		out.writeShort(superClass);
+		out.writeShort(1);
+		out.writeShort(blockInterface);
+		// keine Felder
+		out.writeShort(0);
+		out.writeShort(2);
+
+		// public <init>()V
+		byte[] init = { ALOAD_0, (byte) INVOKESPECIAL, (byte) (objectInit >> 8), (byte) objectInit, (byte) RETURN };
+		writeMethod(out, initName, initDescriptor, codeName, 1, 1, init);
+		// public execute([BLRandomAccessMemory;)V
+		writeMethod(out, executeName, executeDescriptor, codeName, 8, 6, code.toByteArray());
+
+		// keine Attribute
+		out.writeShort(0);
+		out.flush();
+		return classBytes.toByteArray();
+	}
+
+	private static void writeMethod(DataOutputStream out, int name, int descriptor, int codeName, int maxStack,
+			int maxLocals, byte[] code) throws IOException {
+		out.writeShort(0x0001);
+		out.writeShort(name);
+		out.writeShort(descriptor);
+		out.writeShort(1);
+		out.writeShort(codeName);
+		out.writeInt(12 + code.length);
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(code.length);
+		out.write(code);
+		// keine Ausnahmetabelle und keine Attribute
+		out.writeShort(0);
+		out.writeShort(0);
+	}
+
+	private int utf8(String value) {
+		return poolEntry("U" + value, () -> {
+			pool.writeByte(1);
+			pool.writeUTF(value);
+		});
+	}
+
+	private int classRef(String name) {
+		int nameIndex = utf8(name);
+		return poolEntry("C" + name, () -> {
+			pool.writeByte(7);
+			pool.writeShort(nameIndex);
+		});
+	}
+
+	private int methodRef(String owner, String name, String descriptor) {
+		int ownerIndex = classRef(owner);
+		int nameIndex = utf8(name), descriptorIndex = utf8(descriptor);
+		int nameAndType = poolEntry("N" + name + descriptor, () -> {
+			pool.writeByte(12);
+			pool.writeShort(nameIndex);
+			pool.writeShort(descriptorIndex);
+		});
+		return poolEntry("M" + owner + "." + name + descriptor, () -> {
+			pool.writeByte(10);
+			pool.writeShort(ownerIndex);
+			pool.writeShort(nameAndType);
+		});
+	}
+
+	/** Schreibt einen Eintrag in den Konstantenpool. */
+	private interface PoolWriter {
+		void write() throws IOException;
+	}
+
+	private int poolEntry(String key, PoolWriter writer) {
+		Integer index = poolEntries.get(key);
+		if (index != null)
+			return index;
+		try {
+			writer.write();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		poolEntries.put(key, poolCount);
+		return poolCount++;
+	}
+}
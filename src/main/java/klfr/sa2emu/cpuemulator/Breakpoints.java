@@ -0,0 +1,202 @@
+package klfr.sa2emu.cpuemulator;
+
+/**
+ * Haltepunkte und Beobachtungspunkte einer {@link SA2_CPU}, je Speicheradresse
+ * ein Bit. Ein Haltepunkt hält die Ausführung an, bevor der Befehl an seiner
+ * Adresse geholt wird; ein Beobachtungspunkt hält sie nach dem Taktzyklus bzw.
+ * Befehl an, der die Adresse liest oder beschreibt. Das Holen der Befehle
+ * selbst zählt dabei nicht als Lesezugriff.<br>
+ * <br>
+ * Geprüft wird nur beim Holen eines Befehls und bei Speicherzugriffen und auch
+ * nur, falls überhaupt ein Punkt gesetzt ist. Alle Ausführungsarten halten in
+ * {@code run(long)} genau beim Treffer an; beim nächsten Aufruf wird der
+ * Haltepunkt an der aktuellen Adresse übergangen, damit die Ausführung
+ * fortgesetzt werden kann.
+ *
+ * @author kleines Filmröllchen
+ */
+public class Breakpoints {
+
+	/** Art des letzten Treffers: keiner. */
+	public static final int NONE = 0;
+	/** Art des letzten Treffers: Haltepunkt vor dem Holen eines Befehls. */
+	public static final int EXECUTE = 1;
+	/** Art des letzten Treffers: Lesezugriff auf den Arbeitsspeicher. */
+	public static final int READ = 2;
+	/** Art des letzten Treffers: Schreibzugriff auf den Arbeitsspeicher. */
+	public static final int WRITE = 3;
+
+	private final long[] execute, read, write;
+
+	/** Ob mindestens ein Punkt gesetzt ist. */
+	boolean active = false;
+	/** Art und Adresse des letzten Treffers. */
+	int hitKind = NONE;
+	private int hitAddress = 0;
+
+	/**
+	 * Erzeugt leere Haltepunkte für einen Speicher der gegebenen Größe.
+	 */
+	public Breakpoints(int size) {
+		execute = new long[(size + 63) / 64];
+		read = new long[execute.length];
+		write = new long[execute.length];
+	}
+
+	/**
+	 * Setzt oder entfernt einen Haltepunkt vor dem Befehl an der Adresse.
+	 */
+	public void setExecute(int address, boolean set) {
+		set(execute, address, set);
+	}
+
+	/**
+	 * Setzt oder entfernt einen Beobachtungspunkt für Lesezugriffe auf die
+	 * Adresse.
+	 */
+	public void setRead(int address, boolean set) {
+		set(read, address, set);
+	}
+
+	/**
+	 * Setzt oder entfernt einen Beobachtungspunkt für Schreibzugriffe auf die
+	 * Adresse.
+	 */
+	public void setWrite(int address, boolean set) {
+		set(write, address, set);
+	}
+
+	public boolean isExecute(int address) {
+		return (execute[address >> 6] & 1L << address) != 0;
+	}
+
+	public boolean isRead(int address) {
+		return (read[address >> 6] & 1L << address) != 0;
+	}
+
+	public boolean isWrite(int address) {
+		return (write[address >> 6] & 1L << address) != 0;
+	}
+
+	/**
+	 * Entfernt alle Halte- und Beobachtungspunkte.
+	 */
+	public void clear() {
+		for (int i = 0; i < execute.length; ++i)
+			execute[i] = read[i] = write[i] = 0;
+		active = false;
+	}
+
+	private void set(long[] bits, int address, boolean set) {
+		if (set)
+			bits[address >> 6] |= 1L << address;
+		else
+			bits[address >> 6] &= ~(1L << address);
+		active = false;
+		for (int i = 0; i < execute.length; ++i)
+			active |= (execute[i] | read[i] | write[i]) != 0;
+	}
+
+	/**
+	 * Übernimmt Punkte aus einem Text. Einträge werden durch Leerzeichen oder
+	 * Kommata getrennt und sind hexadezimale Adressen, optional mit {@code 0x};
+	 * ein vorangestelltes {@code r} oder {@code w} macht daraus einen
+	 * Beobachtungspunkt für Lese- bzw. Schreibzugriffe. Beispiel:
+	 * {@code "10 1c r80 w0x81"}.
+	 *
+	 * @throws IllegalArgumentException falls ein Eintrag ungültig ist; es werden
+	 *                                  dann keine Punkte übernommen.
+	 */
+	public void parse(String text) throws IllegalArgumentException {
+		String[] entries = text.trim().split("[\\s,]+");
+		int[] kinds = new int[entries.length], addresses = new int[entries.length];
+		int count = 0;
+		for (String entry : entries) {
+			if (entry.isEmpty())
+				continue;
+			String address = entry.toLowerCase();
+			int kind = EXECUTE;
+			if (address.startsWith("r") || address.startsWith("w")) {
+				kind = address.charAt(0) == 'r' ? READ : WRITE;
+				address = address.substring(1);
+			}
+			if (address.startsWith("0x"))
+				address = address.substring(2);
+			try {
+				addresses[count] = Integer.parseInt(address, 16);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid breakpoint: " + entry);
+			}
+			if (addresses[count] < 0 || addresses[count] >= execute.length * 64)
+				throw new IllegalArgumentException("Breakpoint address out of range: " + entry);
+			kinds[count++] = kind;
+		}
+		for (int i = 0; i < count; ++i)
+			set(kinds[i] == EXECUTE ? execute : kinds[i] == READ ? read : write, addresses[i], true);
+	}
+
+	/**
+	 * @return Alle Punkte im Format von {@link #parse(String)}.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder();
+		for (int address = 0; address < execute.length * 64; ++address) {
+			if (isExecute(address))
+				text.append(String.format("%02x ", address));
+			if (isRead(address))
+				text.append(String.format("r%02x ", address));
+			if (isWrite(address))
+				text.append(String.format("w%02x ", address));
+		}
+		return text.toString().trim();
+	}
+
+	/**
+	 * @return Die Art des letzten Treffers, etwa {@link #EXECUTE}; {@link #NONE},
+	 *         falls die letzte Ausführung nicht an einem Punkt angehalten hat.
+	 */
+	public int hitKind() {
+		return hitKind;
+	}
+
+	/**
+	 * @return Die Adresse des letzten Treffers.
+	 */
+	public int hitAddress() {
+		return hitAddress;
+	}
+
+	/** Vergisst den letzten Treffer; zu Beginn jeder Ausführung aufgerufen. */
+	public void clearHit() {
+		hitKind = NONE;
+	}
+
+	/**
+	 * Prüft den Haltepunkt vor dem Befehl an der Adresse und merkt sich einen
+	 * Treffer; für Ausführungen, die nicht über {@code run(long)} laufen.
+	 *
+	 * @return Ob vor dem Befehl an der Adresse angehalten werden muss.
+	 */
+	public boolean checkExecute(int address) {
+		if (!isExecute(address))
+			return false;
+		hit(EXECUTE, address);
+		return true;
+	}
+
+	void checkRead(int address) {
+		if (isRead(address))
+			hit(READ, address);
+	}
+
+	void checkWrite(int address) {
+		if (isWrite(address))
+			hit(WRITE, address);
+	}
+
+	private void hit(int kind, int address) {
+		hitKind = kind;
+		hitAddress = address;
+	}
+}
@@ -0,0 +1,227 @@
+package klfr.sa2emu.cpuemulator;
+
+import static klfr.sa2emu.cpuemulator.SA2_CPU.*;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stichprobenprofiler für die Aufrufstapel eines Programms. Der Stapel der
+ * Unterprogramme wird über die Befehle {@code call} (0xa7) und {@code return}
+ * (0xa8) verfolgt; alle {@code interval} Taktzyklen wird eine Stichprobe für
+ * den aktuellen Stapel gezählt. {@link #writeFolded(PrintStream, SA2_Assembler)}
+ * schreibt das Ergebnis im gefalteten Format ("main;sub;inner 42") für
+ * übliche Flame-Graph-Werkzeuge.<br>
+ * <br>
+ * Jeder Stapel ist ein Knoten in einem Baum aus Aufrufen, der in einer Tabelle
+ * mit offener Adressierung aus primitiven Arrays liegt. Der aktuelle Stapel
+ * selbst ist ein {@code int[]} fester Größe mit den Knoten; eine Stichprobe
+ * erhöht nur den Zähler des obersten Knotens und legt nichts an. Neue Knoten
+ * entstehen nur bei Aufrufen, die Tabelle wird dann höchstens verdoppelt.<br>
+ * <br>
+ * Wie {@link SA2_History} wird der Profiler bei der CPU angemeldet, sobald er
+ * erzeugt wird, und mit {@link #close()} wieder abgemeldet; alle
+ * Ausführungsarten melden ihm ihre Befehle.
+ *
+ * @author kleines Filmröllchen
+ */
+public class CallProfiler implements AutoCloseable {
+
+	/** Standardmäßiger Abstand der Stichproben in Taktzyklen. */
+	public static final int DEFAULT_INTERVAL = 97;
+	/** Standardmäßige anfängliche Größe der Knotentabelle. */
+	public static final int DEFAULT_CAPACITY = 1 << 12;
+	/** Höchste verfolgte Tiefe; der Stack der SA2 fasst nicht mehr Adressen. */
+	private static final int MAX_DEPTH = 256;
+
+	private static final int CALL = 0xa7, RETURN = 0xa8;
+	/** Kein Knoten, Elternknoten der Wurzel. */
+	private static final int NONE = -1;
+
+	private final SA2_CPU cpu;
+	private final int interval;
+	/** Taktzyklen bis zur nächsten Stichprobe. */
+	private long untilSample;
+
+	//// Knotentabelle, indiziert mit der Knotennummer
+	/** Elternknoten und Startadresse des Unterprogramms. */
+	private int[] parents, addresses;
+	private long[] samples;
+	private int nodes = 0;
+	/** Hashtabelle (Elternknoten, Adresse) -> Knotennummer + 1; 0 ist leer. */
+	private int[] slots;
+
+	/** Der aktuelle Stapel als Knoten, die Wurzel unten. */
+	private final int[] stack = new int[MAX_DEPTH];
+	private int depth = 0;
+	/** Aufrufe über {@link #MAX_DEPTH} hinaus, die nicht verfolgt werden. */
+	private int overflow = 0;
+
+	/**
+	 * Profiliert die CPU mit den Standardeinstellungen.
+	 */
+	public CallProfiler(SA2_CPU cpu) {
+		this(cpu, DEFAULT_INTERVAL, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Profiliert die CPU. Der Stapel beginnt mit einem Knoten für das
+	 * Hauptprogramm an der aktuellen Adresse.
+	 *
+	 * @param interval Abstand der Stichproben in Taktzyklen.
+	 * @param capacity Anfängliche Größe der Knotentabelle, eine Zweierpotenz.
+	 * @throws IllegalStateException falls die CPU schon profiliert wird.
+	 */
+	public CallProfiler(SA2_CPU cpu, int interval, int capacity) {
+		if (interval < 1 || Integer.bitCount(capacity) != 1)
+			throw new IllegalArgumentException("Invalid profiler interval or capacity.");
+		this.cpu = cpu;
+		this.interval = interval;
+		this.untilSample = interval;
+		parents = new int[capacity / 2];
+		addresses = new int[capacity / 2];
+		samples = new long[capacity / 2];
+		slots = new int[capacity];
+		stack[depth++] = node(NONE, cpu.PC.getValue() & 0xff);
+		cpu.setProfiler(this);
+	}
+
+	/**
+	 * Zählt einen abgeschlossenen Befehl. Seine Taktzyklen gehören noch zum
+	 * aufrufenden Unterprogramm.
+	 *
+	 * @param microcodeRow Seine Zeile im Mikrocode-ROM.
+	 * @param pc           Der Programmzähler nach dem Befehl.
+	 */
+	void retire(int microcodeRow, int pc) {
+		untilSample -= MICROSTEPS / 2 + MICROCODE_LENGTH[microcodeRow / MICROSTEPS];
+		while (untilSample <= 0) {
+			++samples[stack[depth - 1]];
+			untilSample += interval;
+		}
+		int opcode = microcodeRow / MICROSTEPS >> 3;
+		if (opcode == CALL) {
+			if (depth < MAX_DEPTH) {
+				int caller = stack[depth - 1];
+				stack[depth++] = node(caller, pc);
+			} else
+				++overflow;
+		} else if (opcode == RETURN) {
+			if (overflow > 0)
+				--overflow;
+			else if (depth > 1)
+				--depth;
+		}
+	}
+
+	/**
+	 * Zählt die Befehle eines übersetzten Blocks; nur der letzte kann ein Aufruf
+	 * oder Rücksprung sein.
+	 *
+	 * @param pc Der Programmzähler nach dem Block.
+	 */
+	void retire(int[] microcodeRows, int pc) {
+		for (int row : microcodeRows)
+			retire(row, pc);
+	}
+
+	/**
+	 * @return Der Knoten für den Aufruf der Adresse aus dem gegebenen Knoten;
+	 *         wird bei Bedarf angelegt.
+	 */
+	private int node(int parent, int address) {
+		int mask = slots.length - 1;
+		int slot = hash(parent, address) & mask;
+		while (slots[slot] != 0) {
+			int node = slots[slot] - 1;
+			if (parents[node] == parent && addresses[node] == address)
+				return node;
+			slot = (slot + 1) & mask;
+		}
+		if (nodes == parents.length) {
+			grow();
+			return node(parent, address);
+		}
+		parents[nodes] = parent;
+		addresses[nodes] = address;
+		slots[slot] = ++nodes;
+		return nodes - 1;
+	}
+
+	/** Verdoppelt die Knotentabelle; höchstens halb voll. */
+	private void grow() {
+		parents = Arrays.copyOf(parents, parents.length * 2);
+		addresses = Arrays.copyOf(addresses, addresses.length * 2);
+		samples = Arrays.copyOf(samples, samples.length * 2);
+		slots = new int[slots.length * 2];
+		int mask = slots.length - 1;
+		for (int node = 0; node < nodes; ++node) {
+			int slot = hash(parents[node], addresses[node]) & mask;
+			while (slots[slot] != 0)
+				slot = (slot + 1) & mask;
+			slots[slot] = node + 1;
+		}
+	}
+
+	private static int hash(int parent, int address) {
+		int h = parent * 0x9e3779b1 + address;
+		return h ^ h >>> 16;
+	}
+
+	/**
+	 * @return Die Anzahl der bisher gezählten Stichproben.
+	 */
+	public long sampleCount() {
+		long count = 0;
+		for (int node = 0; node < nodes; ++node)
+			count += samples[node];
+		return count;
+	}
+
+	/**
+	 * @return Die Tiefe des aktuellen Aufrufstapels einschließlich
+	 *         Hauptprogramm.
+	 */
+	public int depth() {
+		return depth + overflow;
+	}
+
+	/**
+	 * Schreibt alle Stapel mit mindestens einer Stichprobe im gefalteten Format,
+	 * eine Zeile pro Stapel, die Wurzel zuerst. Die Unterprogramme werden nach
+	 * den Labels benannt, auf die ihre Aufrufe zeigen, sonst nach ihrer Adresse.
+	 *
+	 * @param assembler Der Assembler, der das Programm übersetzt hat, oder
+	 *                  {@code null}.
+	 */
+	public void writeFolded(PrintStream out, SA2_Assembler assembler) {
+		List<String> frames = new ArrayList<>();
+		for (int node = 0; node < nodes; ++node) {
+			if (samples[node] == 0)
+				continue;
+			frames.clear();
+			for (int frame = node; frame != NONE; frame = parents[frame])
+				frames.add(frameName(addresses[frame], assembler));
+			StringBuilder line = new StringBuilder();
+			for (int i = frames.size() - 1; i >= 0; --i)
+				line.append(frames.get(i)).append(i > 0 ? ";" : " ");
+			out.println(line.append(samples[node]));
+		}
+	}
+
+	private static String frameName(int address, SA2_Assembler assembler) {
+		String label = assembler == null ? null : assembler.labelOfTarget(address);
+		// Trennzeichen des Formats dürfen nicht im Namen vorkommen
+		return label != null ? label.replace(';', '_').replace(' ', '_') : String.format("0x%02x", address);
+	}
+
+	/**
+	 * Beendet das Profilieren; die Ergebnisse bleiben erhalten.
+	 */
+	@Override
+	public void close() {
+		cpu.setProfiler(null);
+	}
+}
@@ -0,0 +1,19 @@
+package klfr.sa2emu.cpuemulator;
+
+/**
+ * Ein in JVM-Bytecode übersetzter Grundblock von SA2-Maschinencode. Wird von
+ * {@link BlockCompiler} als versteckte Klasse erzeugt.
+ * 
+ * @author kleines Filmröllchen
+ */
+interface CompiledBlock {
+
+	/**
+	 * Führt den Grundblock aus.
+	 * 
+	 * @param registers Die Register der CPU, angeordnet wie in
+	 *                  {@link BlockCompiler} beschrieben.
+	 * @param ram       Der Arbeitsspeicher der CPU.
+	 */
+	void execute(byte[] registers, RandomAccessMemory ram);
+}
@@ -0,0 +1,151 @@
+package klfr.sa2emu.cpuemulator;
+
+import static klfr.sa2emu.cpuemulator.SA2_CPU.*;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Zählt für jede Speicheradresse die Taktzyklen der Befehle, die von dieser
+ * Adresse geholt wurden, also wie viel Zeit ein Programm an welcher Stelle
+ * verbringt. Maßgeblich ist der Programmzähler beim Holen des Befehls; ein
+ * Befehl zählt mit allen seinen Taktzyklen einschließlich Von-Neumann-Zyklus,
+ * sobald er abgeschlossen ist.<br>
+ * <br>
+ * Wie die {@link PerformanceCounters} zählen alle Ausführungsarten, solange
+ * die Heatmap {@linkplain #setEnabled(boolean) eingeschaltet} ist, und sie
+ * gehört nicht zum Zustand der CPU. Auch ihr Speicher wird erst beim ersten
+ * Einschalten angelegt.
+ *
+ * @author kleines Filmröllchen
+ */
+public class Heatmap {
+
+	/** Ob gezählt wird. */
+	boolean enabled = false;
+	/** Größe des Speichers. */
+	private final int size;
+	/**
+	 * Taktzyklen je Adresse; {@code null}, bis das Zählen zum ersten Mal
+	 * eingeschaltet wird.
+	 */
+	private long[] cycles = null;
+
+	/**
+	 * Erzeugt eine leere Heatmap für einen Speicher der gegebenen Größe.
+	 */
+	public Heatmap(int size) {
+		this.size = size;
+	}
+
+	/**
+	 * Schaltet das Zählen ein oder aus; die bisherigen Werte bleiben erhalten.
+	 */
+	public void setEnabled(boolean enabled) {
+		if (enabled && cycles == null)
+			cycles = new long[size];
+		this.enabled = enabled;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Setzt alle Zähler auf 0.
+	 */
+	public void reset() {
+		if (cycles != null)
+			Arrays.fill(cycles, 0);
+	}
+
+	/**
+	 * Zählt einen abgeschlossenen Befehl.
+	 *
+	 * @param address      Die Adresse, von der er geholt wurde.
+	 * @param microcodeRow Seine Zeile im Mikrocode-ROM.
+	 */
+	void retire(int address, int microcodeRow) {
+		cycles[address] += MICROSTEPS / 2 + MICROCODE_LENGTH[microcodeRow / MICROSTEPS];
+	}
+
+	/**
+	 * Zählt die Befehle eines übersetzten Blocks, die ab der gegebenen Adresse
+	 * hintereinander liegen.
+	 */
+	void retire(int start, int[] microcodeRows) {
+		for (int i = 0; i < microcodeRows.length; ++i)
+			retire(start + 2 * i, microcodeRows[i]);
+	}
+
+	/**
+	 * @return Die Taktzyklen der Befehle an der Adresse.
+	 */
+	public long cycles(int address) {
+		return cycles == null ? 0 : cycles[address];
+	}
+
+	/**
+	 * @return Die Taktzyklen aller gezählten Befehle.
+	 */
+	public long total() {
+		long total = 0;
+		if (cycles == null)
+			return total;
+		for (long count : cycles)
+			total += count;
+		return total;
+	}
+
+	/**
+	 * @return Die höchste Anzahl an Taktzyklen einer Adresse.
+	 */
+	public long maximum() {
+		long maximum = 0;
+		if (cycles == null)
+			return maximum;
+		for (long count : cycles)
+			maximum = Math.max(maximum, count);
+		return maximum;
+	}
+
+	/**
+	 * @return Alle Adressen mit mindestens einem Taktzyklus, die meistbenutzte
+	 *         zuerst.
+	 */
+	public int[] hottestAddresses() {
+		if (cycles == null)
+			return new int[0];
+		return IntStream.range(0, cycles.length).filter(address -> cycles[address] != 0).boxed()
+				.sorted((a, b) -> Long.compare(cycles[b], cycles[a])).mapToInt(Integer::intValue).toArray();
+	}
+
+	/**
+	 * Gibt die meistbenutzten Adressen mit ihrem Anteil an allen Taktzyklen aus.
+	 * Ist ein Assembler angegeben, wird zu jeder Adresse die Zeile im Quelltext
+	 * genannt, und, falls auch der Quelltext selbst angegeben ist, diese Zeile.
+	 *
+	 * @param limit     Höchstzahl der ausgegebenen Adressen.
+	 * @param assembler Der Assembler, der das Programm übersetzt hat, oder
+	 *                  {@code null}.
+	 * @param source    Die Zeilen des Quelltexts oder {@code null}.
+	 */
+	public void printReport(PrintStream out, int limit, SA2_Assembler assembler, List<String> source) {
+		long total = total();
+		int[] addresses = hottestAddresses();
+		out.println("Adresse  Taktzyklen  Anteil  Zeile");
+		for (int i = 0; i < Math.min(limit, addresses.length); ++i) {
+			int address = addresses[i];
+			out.printf("0x%02x %14d %6.2f %%", address, cycles[address], cycles[address] * 100d / total);
+			int line = assembler == null ? 0 : assembler.sourceLine(address);
+			if (line > 0) {
+				out.printf("  %4d", line);
+				if (source != null && line <= source.size())
+					out.print("  " + source.get(line - 1).trim());
+			}
+			out.println();
+		}
+	}
+}
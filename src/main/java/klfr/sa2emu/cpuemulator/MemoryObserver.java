@@ -0,0 +1,33 @@
+package klfr.sa2emu.cpuemulator;
+
+/**
+ * Beobachter eines {@link RandomAccessMemory}, der über Schreibzugriffe
+ * informiert wird. Wird etwa benutzt, um übersetzten Code ungültig zu machen,
+ * wenn das Programm sich selbst verändert.
+ * 
+ * @author kleines Filmröllchen
+ * @see RandomAccessMemory#addObserver(MemoryObserver)
+ */
+public interface MemoryObserver {
+
+	/**
+	 * Wird aufgerufen, nachdem der Speicher im Bereich {@code [from, to)}
+	 * beschrieben wurde.
+	 * 
+	 * @param from Erste veränderte Adresse.
+	 * @param to   Adresse nach der letzten veränderten Adresse.
+	 */
+	void memoryChanged(int from, int to);
+
+	/**
+	 * Wird aufgerufen, nachdem eine andere Bank in das Fenster
+	 * {@code [from, to)} eingeblendet wurde. Standardmäßig wie ein Schreibzugriff
+	 * auf das ganze Fenster.
+	 * 
+	 * @param previousBank Die vorher eingeblendete Bank.
+	 * @see RandomAccessMemory#selectBank(int)
+	 */
+	default void bankSwitched(int previousBank, int from, int to) {
+		memoryChanged(from, to);
+	}
+}
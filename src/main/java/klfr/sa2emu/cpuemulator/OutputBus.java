@@ -12,7 +12,6 @@ import javafx.scene.canvas.*;
 
 public interface OutputBus extends BusConnectable {
 
-	public Register address = new Register(true, "Virtuelles Ausgabebusaddressregister");
 
 	// Anfang Methoden
 	/**
@@ -21,6 +20,48 @@ public interface OutputBus extends BusConnectable {
 	 */
 	public void processCommand(byte command);
 
+	/**
+	 * Gibt das Adressregister dieses Ausgabebus zurück, das mit dem Befehl
+	 * {@code out addr} beschrieben wird. Jeder Ausgabebus hat sein eigenes
+	 * Adressregister, damit mehrere CPUs unabhängig voneinander laufen können.
+	 */
+	public Register getAddressRegister();
+
+	/**
+	 * @return Die Anzahl der Bytes, die {@link #saveState(byte[], int)} schreibt.
+	 *         Standardmäßig wird nur das Adressregister gespeichert.
+	 */
+	public default int stateSize() {
+		return 1;
+	}
+
+	/**
+	 * Schreibt den Zustand des Bus an die gegebene Stelle des Arrays.
+	 */
+	public default void saveState(byte[] dst, int offset) {
+		dst[offset] = getAddressRegister().getValue();
+	}
+
+	/**
+	 * Stellt einen mit {@link #saveState(byte[], int)} gespeicherten Zustand
+	 * wieder her.
+	 */
+	public default void restoreState(byte[] src, int offset) {
+		getAddressRegister().setValue(src[offset]);
+	}
+
+	/**
+	 * Erzeugt einen neuen Ausgabebus derselben Art mit demselben Zustand, der an
+	 * den gegebenen Bus angeschlossen ist. Wird von {@link SA2_CPU#fork()}
+	 * benutzt.
+	 * 
+	 * @throws UnsupportedOperationException falls dieser Ausgabebus nicht kopiert
+	 *                                       werden kann.
+	 */
+	public default OutputBus fork(RegisterBus bus) {
+		throw new UnsupportedOperationException(getClass().getSimpleName() + " cannot be forked.");
+	}
+
 	/**
 	 * Setzt den Bus zurück auf seinen "leeren" Ausgangszustand.
 	 */
@@ -0,0 +1,244 @@
+package klfr.sa2emu.cpuemulator;
+
+import static klfr.sa2emu.cpuemulator.SA2_CPU.*;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Leistungszähler einer {@link SA2_CPU}. Gezählt werden abgeschlossene
+ * Maschinenbefehle, und zwar je Zeile im Mikrocode-ROM, also je Befehl und
+ * Flaggen. Da eine Zeile genau festlegt, welche Mikrobefehle, Busübertragungen
+ * und ALU-Operationen ausgeführt werden, lassen sich daraus beim Abfragen
+ * Befehle und Taktzyklen je Befehl, Busübertragungen je Buseinheit,
+ * ALU-Operationen je Rechenart und genommene bzw. nicht genommene bedingte
+ * Sprünge berechnen. Während der Ausführung kostet das Zählen nur eine
+ * Erhöhung in einem {@code long[]} pro Befehl.<br>
+ * <br>
+ * Alle Ausführungsarten zählen, solange die Zähler
+ * {@linkplain #setEnabled(boolean) eingeschaltet} sind. Die Zähler gehören
+ * nicht zum Zustand der CPU: {@link SA2_CPU#reset()}, das Wiederherstellen
+ * einer Momentaufnahme und die Rückwärtsausführung setzen sie nicht zurück.
+ * Der Speicher für die Zähler wird erst beim ersten Einschalten angelegt, damit
+ * jede CPU und jede Abspaltung ohne Zähler klein bleibt.
+ *
+ * @author kleines Filmröllchen
+ */
+public class PerformanceCounters {
+
+	/** Anzahl der Buseinheiten, siehe {@link SA2_CPU#UNIT_IP} usw. */
+	public static final int UNITS = UNIT_OUTPUT_BUS + 1;
+	/** Anzahl der Rechenarten der ALU, von {@link ALURegister#ADDITION} an. */
+	public static final int ALU_OPERATIONS = ALURegister.BITSHIFTRIGHT - ALURegister.ADDITION + 1;
+	/** Erster bedingter Sprungbefehl. */
+	public static final int FIRST_CONDITIONAL_JUMP = 0xa1;
+	/** Anzahl der bedingten Sprungbefehle. */
+	public static final int CONDITIONAL_JUMPS = 6;
+
+	/** Ob gezählt wird. */
+	boolean enabled = false;
+	/**
+	 * Abgeschlossene Befehle je Zeile im Mikrocode-ROM; {@code null}, bis das
+	 * Zählen zum ersten Mal eingeschaltet wird.
+	 */
+	private long[] rows = null;
+
+	/**
+	 * Schaltet das Zählen ein oder aus; die bisherigen Werte bleiben erhalten.
+	 */
+	public void setEnabled(boolean enabled) {
+		if (enabled && rows == null)
+			rows = new long[MICROCODE_LENGTH.length];
+		this.enabled = enabled;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Setzt alle Zähler auf 0.
+	 */
+	public void reset() {
+		if (rows != null)
+			Arrays.fill(rows, 0);
+	}
+
+	/**
+	 * Zählt einen abgeschlossenen Befehl.
+	 *
+	 * @param microcodeRow Seine Zeile im Mikrocode-ROM, siehe
+	 *                     {@link SA2_CPU#microcodeRow(byte, byte)}.
+	 */
+	void retire(int microcodeRow) {
+		++rows[microcodeRow / MICROSTEPS];
+	}
+
+	/**
+	 * Zählt mehrere abgeschlossene Befehle, etwa die eines übersetzten Blocks.
+	 */
+	void retire(int[] microcodeRows) {
+		for (int row : microcodeRows)
+			++rows[row / MICROSTEPS];
+	}
+
+	/**
+	 * @return Die Anzahl abgeschlossener Befehle, indiziert mit dem Befehlsbyte.
+	 */
+	public long[] instructionsPerOpcode() {
+		long[] counts = new long[256];
+		if (rows == null)
+			return counts;
+		for (int row = 0; row < rows.length; ++row)
+			counts[opcodeOf(row)] += rows[row];
+		return counts;
+	}
+
+	/**
+	 * @return Die Anzahl der Taktzyklen einschließlich Von-Neumann-Zyklus,
+	 *         indiziert mit dem Befehlsbyte.
+	 */
+	public long[] cyclesPerOpcode() {
+		long[] counts = new long[256];
+		if (rows == null)
+			return counts;
+		for (int row = 0; row < rows.length; ++row)
+			counts[opcodeOf(row)] += rows[row] * cyclesOf(row);
+		return counts;
+	}
+
+	/**
+	 * @return Wie oft jede Buseinheit auf den Bus gesendet hat, indiziert mit den
+	 *         Buseinheiten.
+	 */
+	public long[] transmissionsPerUnit() {
+		long[] counts = new long[UNITS];
+		if (rows == null)
+			return counts;
+		for (int row = 0; row < rows.length; ++row) {
+			if (rows[row] == 0)
+				continue;
+			for (int step = 0; step < cyclesOf(row); ++step) {
+				int source = TRANSFERS[row * MICROSTEPS + step] & SOURCE_MASK;
+				if (source != NO_SOURCE)
+					counts[source] += rows[row];
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * @return Wie oft jede Buseinheit vom Bus empfangen hat, indiziert mit den
+	 *         Buseinheiten. Ausgabebusbefehle zählen als Empfang des
+	 *         Ausgabebus.
+	 */
+	public long[] receptionsPerUnit() {
+		long[] counts = new long[UNITS];
+		if (rows == null)
+			return counts;
+		for (int row = 0; row < rows.length; ++row) {
+			if (rows[row] == 0)
+				continue;
+			for (int step = 0; step < cyclesOf(row); ++step) {
+				int index = row * MICROSTEPS + step;
+				int targets = TRANSFERS[index] >>> TARGET_SHIFT & (1 << UNITS) - 1;
+				if ((MICROCODE[index] & OCI) != 0)
+					targets |= 1 << UNIT_OUTPUT_BUS;
+				for (; targets != 0; targets &= targets - 1)
+					counts[Integer.numberOfTrailingZeros(targets)] += rows[row];
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * @return Wie oft die ALU mit jeder Rechenart ein Ergebnis ausgegeben hat,
+	 *         indiziert mit {@code operation - ALURegister.ADDITION}.
+	 */
+	public long[] aluOperations() {
+		long[] counts = new long[ALU_OPERATIONS];
+		if (rows == null)
+			return counts;
+		for (int row = 0; row < rows.length; ++row) {
+			if (rows[row] == 0)
+				continue;
+			for (int step = 0; step < cyclesOf(row); ++step) {
+				long microinstruction = MICROCODE[row * MICROSTEPS + step];
+				if ((microinstruction & EO) != 0)
+					counts[aluOperation(microinstruction) - ALURegister.ADDITION] += rows[row];
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * @return Wie oft jeder bedingte Sprung genommen wurde, indiziert mit
+	 *         {@code befehl - FIRST_CONDITIONAL_JUMP}.
+	 */
+	public long[] jumpsTaken() {
+		return jumps(true);
+	}
+
+	/**
+	 * @return Wie oft jeder bedingte Sprung nicht genommen wurde, indiziert mit
+	 *         {@code befehl - FIRST_CONDITIONAL_JUMP}.
+	 */
+	public long[] jumpsNotTaken() {
+		return jumps(false);
+	}
+
+	private long[] jumps(boolean taken) {
+		long[] counts = new long[CONDITIONAL_JUMPS];
+		if (rows == null)
+			return counts;
+		for (int jump = 0; jump < CONDITIONAL_JUMPS; ++jump) {
+			for (int flags = 0; flags < 8; ++flags) {
+				int row = microcodeRow((byte) (FIRST_CONDITIONAL_JUMP + jump), (byte) flags);
+				if (((MICROCODE[row | MICROSTEPS / 2] & CI) != 0) == taken)
+					counts[jump] += rows[row / MICROSTEPS];
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Gibt alle von 0 verschiedenen Zähler als Tabelle aus.
+	 */
+	public void printReport(PrintStream out) {
+		long[] instructions = instructionsPerOpcode(), cycles = cyclesPerOpcode();
+		out.println("Befehl   Anzahl     Taktzyklen");
+		for (int opcode = 0; opcode < 256; ++opcode)
+			if (instructions[opcode] != 0)
+				out.printf("0x%02x %10d %14d%n", opcode, instructions[opcode], cycles[opcode]);
+
+		long[] transmissions = transmissionsPerUnit(), receptions = receptionsPerUnit();
+		out.println("Einheit  gesendet   empfangen");
+		for (int unit = 0; unit < UNITS; ++unit)
+			if (transmissions[unit] != 0 || receptions[unit] != 0)
+				out.printf("%-4s %12d %11d%n", UNIT_NAMES[unit], transmissions[unit], receptions[unit]);
+
+		final String[] operations = { "ADD", "SUB", "OR", "XOR", "AND", "NOT", "BSL", "BSR" };
+		long[] alu = aluOperations();
+		out.print("ALU:");
+		for (int operation = 0; operation < ALU_OPERATIONS; ++operation)
+			if (alu[operation] != 0)
+				out.printf(" %s %d", operations[operation], alu[operation]);
+		out.println();
+
+		long[] taken = jumpsTaken(), notTaken = jumpsNotTaken();
+		out.println("Sprung   genommen   nicht genommen");
+		for (int jump = 0; jump < CONDITIONAL_JUMPS; ++jump)
+			if (taken[jump] != 0 || notTaken[jump] != 0)
+				out.printf("0x%02x %12d %16d%n", FIRST_CONDITIONAL_JUMP + jump, taken[jump], notTaken[jump]);
+	}
+
+	/** @return Das Befehlsbyte einer Zeile. */
+	private static int opcodeOf(int row) {
+		return row >> 3;
+	}
+
+	/** @return Die Taktzyklen eines Befehls der Zeile. */
+	private static int cyclesOf(int row) {
+		return MICROSTEPS / 2 + MICROCODE_LENGTH[row];
+	}
+}
@@ -0,0 +1,53 @@
+package klfr.sa2emu.cpuemulator;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+
+/**
+ * Ablaufverfolgung in einen {@link PrintStream}, etwa die Konsole oder eine
+ * gepufferte Datei.
+ * 
+ * @author kleines Filmröllchen
+ */
+public class PrintStreamTraceSink implements TraceSink, AutoCloseable {
+
+	private final PrintStream out;
+
+	/**
+	 * Erzeugt eine Ablaufverfolgung in den gegebenen Stream.
+	 */
+	public PrintStreamTraceSink(PrintStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * Erzeugt eine gepufferte Ablaufverfolgung in die gegebene Datei. Die Datei
+	 * wird überschrieben.
+	 * 
+	 * @throws FileNotFoundException falls die Datei nicht geöffnet werden kann.
+	 */
+	public PrintStreamTraceSink(File file) throws FileNotFoundException {
+		this(new PrintStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16), false));
+	}
+
+	@Override
+	public void trace(String message) {
+		out.println(message);
+	}
+
+	@Override
+	public void flush() {
+		out.flush();
+	}
+
+	/**
+	 * Schließt den zugrundeliegenden Stream.
+	 */
+	@Override
+	public void close() {
+		out.close();
+	}
+}
@@ -1,12 +1,29 @@
 package klfr.sa2emu.cpuemulator;
 
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
 
 import klfr.sa2emu.cpuemulator.exceptions.CPUException;
 import klfr.sa2emu.cpuemulator.exceptions.ReadForbiddenException;
 
 /**
- * Darstellung des Arbeitsspeichers.
+ * Darstellung des Arbeitsspeichers.<br>
+ * <br>
+ * Der Speicher ist in Seiten zu {@link #PAGE_SIZE} Bytes aufgeteilt, die sich
+ * mehrere Arbeitsspeicher nach {@link #share(RandomAccessMemory)} teilen
+ * können. Eine geteilte Seite wird erst beim ersten Schreibzugriff kopiert
+ * (copy-on-write), sodass {@link SA2_CPU#fork()} und {@link #clear()} keinen
+ * ganzen Speicherinhalt kopieren müssen.<br>
+ * <br>
+ * Mit {@link #setBankCount(int)} bekommt der Speicher einen Hintergrundspeicher
+ * aus bis zu 65536 Bänken zu {@link #BANK_SIZE} Bytes, von denen immer eine im
+ * Fenster ab {@link #BANK_WINDOW} eingeblendet ist. Das Programm wählt die Bank
+ * über das Bankregister, das unter den Adressen {@link #BANK_REGISTER_LOW} und
+ * {@link #BANK_REGISTER_HIGH} am Ausgabebus liegt. Beim Umschalten werden nur
+ * die Seiten des Fensters ausgetauscht, es wird nichts kopiert. Auch der
+ * Hintergrundspeicher wird copy-on-write geteilt, siehe {@link BankStorage}.
  * 
  * @version 1.0 vom 15.06.2018
  * @author kleines Filmröllchen
@@ -14,12 +31,44 @@ import klfr.sa2emu.cpuemulator.exceptions.ReadForbiddenException;
 
 public class RandomAccessMemory implements BusConnectable {
 
+	/** Größe einer Speicherseite in Bytes. */
+	public static final int PAGE_SIZE = 32;
+	private static final int PAGE_SHIFT = 5;
+	/** Eine leere Seite, die sich alle gelöschten Speicher teilen. */
+	static final byte[] ZERO_PAGE = new byte[PAGE_SIZE];
+
+	/** Erste Adresse des Fensters, in das die Bänke eingeblendet werden. */
+	public static final int BANK_WINDOW = 0x80;
+	/** Größe einer Bank und des Fensters in Bytes. */
+	public static final int BANK_SIZE = 0x40;
+	/** Höchstzahl an Bänken, so viele wie das Bankregister wählen kann. */
+	public static final int MAX_BANKS = 1 << 16;
+	/** Adressen des Ausgabebus für das niedrige und das hohe Byte des Bankregisters. */
+	public static final byte BANK_REGISTER_LOW = 0x40, BANK_REGISTER_HIGH = 0x41;
+	private static final int WINDOW_PAGE = BANK_WINDOW >> PAGE_SHIFT, BANK_PAGES = BANK_SIZE >> PAGE_SHIFT;
+
 	// Anfang Attribute
-	private byte[] mem;
+	private final int capacity;
+	/** Die Seiten des Speichers. */
+	private final byte[][] pages;
+	/**
+	 * Ob eine Seite möglicherweise noch von einem anderen Speicher benutzt wird
+	 * und vor dem Schreiben kopiert werden muss.
+	 */
+	private final boolean[] shared;
+	/** Anzahl der Bänke, 0 ohne Bänke, und die eingeblendete Bank. */
+	private int banks = 0, bank = 0;
+	/**
+	 * Seiten aller Bänke. Für die eingeblendete Bank gelten stattdessen die Seiten
+	 * des Fensters.
+	 */
+	private BankStorage storage = new BankStorage(0);
 	public Register AddressPointer;
 
 	private int busaction = NONE;
 	private RegisterBus bus;
+	/** Beobachter, die über Schreibzugriffe informiert werden. */
+	private MemoryObserver[] observers = new MemoryObserver[0];
 	// Ende Attribute
 
 	// Anfang Methoden
@@ -29,7 +78,11 @@ public class RandomAccessMemory implements BusConnectable {
 	 * @param capacity
 	 */
 	public RandomAccessMemory(int capacity, RegisterBus bus) {
-		mem = new byte[capacity];
+		this.capacity = capacity;
+		pages = new byte[(capacity + PAGE_SIZE - 1) >> PAGE_SHIFT][];
+		shared = new boolean[pages.length];
+		for (int page = 0; page < pages.length; ++page)
+			pages[page] = new byte[pageLength(page)];
 		AddressPointer = new Register(true, bus, "MemoryAddressPointer");
 		this.bus = bus;
 	}
@@ -43,20 +96,21 @@ public class RandomAccessMemory implements BusConnectable {
 
 	/**
 	 * Übernimmt für den gesamten Arbeitsspeicher den angegebenen Inhalt. Eine
-	 * solche Operation ist im Computer nicht möglich!
+	 * solche Operation ist im Computer nicht möglich! Der Inhalt wird kopiert,
+	 * spätere Änderungen am Array wirken sich nicht auf den Speicher aus.
 	 * 
-	 * @param mem Der neue, direkt zugewiesene Arbeitsspeicher.
+	 * @param mem Der neue Inhalt des Arbeitsspeichers.
 	 * @throws IllegalArgumentException Falls der neue Speicherinhalt eine andere
 	 *                                  Größe aufweist als der aktuelle Speicher.
 	 *                                  für Größenänderungen sollte ein
 	 *                                  neuer RandomAccessMemory verwendet werden.
 	 */
 	public void setCompleteMemory(byte[] mem) throws IllegalArgumentException {
-		if (mem.length != this.mem.length) {
+		if (mem.length != capacity) {
 			throw new IllegalArgumentException(
 					"Different-sized new memory content. Make sure the new memory content has the same size (array length).");
 		}
-		this.mem = mem;
+		copyFrom(mem, 0);
 	}
 
 	/**
@@ -65,7 +119,7 @@ public class RandomAccessMemory implements BusConnectable {
 	 * @return Das Byte der entsprechenden Stelle.
 	 */
 	public byte readMemory() {
-		return mem[Byte.toUnsignedInt(AddressPointer.getValue())];
+		return read(Byte.toUnsignedInt(AddressPointer.getValue()));
 	}
 
 	/**
@@ -73,18 +127,485 @@ public class RandomAccessMemory implements BusConnectable {
 	 * zeigt.
 	 */
 	public void writeMemory(byte val) {
-		mem[(int) AddressPointer.getValue()] = val;
+		write(Byte.toUnsignedInt(AddressPointer.getValue()), val);
+	}
+
+	/**
+	 * Liest das Byte an der gegebenen Adresse, ohne das Adressregister zu
+	 * verändern.
+	 */
+	public byte read(int address) {
+		return pages[address >> PAGE_SHIFT][address & (PAGE_SIZE - 1)];
+	}
+
+	/**
+	 * Schreibt das Byte an die gegebene Adresse, ohne das Adressregister zu
+	 * verändern.
+	 */
+	public void write(int address, byte val) {
+		writablePage(address >> PAGE_SHIFT)[address & (PAGE_SIZE - 1)] = val;
+		notifyObservers(address, address + 1);
+	}
+
+	/**
+	 * Liest {@code length} Bytes ab der Adresse in das Array, Seite für Seite und
+	 * ohne das Adressregister zu verändern.
+	 * 
+	 * @throws IndexOutOfBoundsException falls der Bereich nicht in den Speicher
+	 *                                   oder das Array passt.
+	 */
+	public void read(int address, byte[] dst, int offset, int length) {
+		Objects.checkFromIndexSize(address, length, capacity);
+		Objects.checkFromIndexSize(offset, length, dst.length);
+		while (length > 0) {
+			int page = address >> PAGE_SHIFT, inPage = address & (PAGE_SIZE - 1);
+			int chunk = Math.min(length, pages[page].length - inPage);
+			System.arraycopy(pages[page], inPage, dst, offset, chunk);
+			address += chunk;
+			offset += chunk;
+			length -= chunk;
+		}
+	}
+
+	/**
+	 * Schreibt {@code length} Bytes ab der gegebenen Stelle des Arrays an die
+	 * Adresse, Seite für Seite und ohne das Adressregister zu verändern.
+	 * Beobachter werden einmal über den ganzen Bereich informiert.
+	 * 
+	 * @throws IndexOutOfBoundsException falls der Bereich nicht in den Speicher
+	 *                                   oder das Array passt.
+	 */
+	public void write(int address, byte[] src, int offset, int length) {
+		Objects.checkFromIndexSize(address, length, capacity);
+		Objects.checkFromIndexSize(offset, length, src.length);
+		for (int at = address, end = address + length; at < end;) {
+			int page = at >> PAGE_SHIFT, inPage = at & (PAGE_SIZE - 1);
+			int chunk = Math.min(end - at, pages[page].length - inPage);
+			System.arraycopy(src, offset, writablePage(page), inPage, chunk);
+			at += chunk;
+			offset += chunk;
+		}
+		if (length > 0)
+			notifyObservers(address, address + length);
+	}
+
+	/**
+	 * Setzt {@code length} Bytes ab der Adresse auf den Wert, ohne das
+	 * Adressregister zu verändern. Vollständig mit 0 gefüllte Seiten verweisen
+	 * wie bei {@link #clear()} auf die gemeinsame leere Seite.
+	 * 
+	 * @throws IndexOutOfBoundsException falls der Bereich nicht in den Speicher
+	 *                                   passt.
+	 */
+	public void fill(int address, int length, byte value) {
+		Objects.checkFromIndexSize(address, length, capacity);
+		for (int at = address, end = address + length; at < end;) {
+			int page = at >> PAGE_SHIFT, inPage = at & (PAGE_SIZE - 1);
+			int chunk = Math.min(end - at, pages[page].length - inPage);
+			if (value == 0 && chunk == PAGE_SIZE) {
+				pages[page] = ZERO_PAGE;
+				shared[page] = true;
+			} else {
+				Arrays.fill(writablePage(page), inPage, inPage + chunk, value);
+			}
+			at += chunk;
+		}
+		if (length > 0)
+			notifyObservers(address, address + length);
+	}
+
+	/**
+	 * Vergleicht {@code length} Bytes ab der Adresse mit dem Array.
+	 * 
+	 * @return Die erste Adresse, an der sich Speicher und Array unterscheiden,
+	 *         oder -1, falls der Bereich gleich ist.
+	 * @throws IndexOutOfBoundsException falls der Bereich nicht in den Speicher
+	 *                                   oder das Array passt.
+	 */
+	public int mismatch(int address, byte[] other, int offset, int length) {
+		Objects.checkFromIndexSize(address, length, capacity);
+		Objects.checkFromIndexSize(offset, length, other.length);
+		for (int at = address, end = address + length; at < end;) {
+			int page = at >> PAGE_SHIFT, inPage = at & (PAGE_SIZE - 1);
+			int chunk = Math.min(end - at, pages[page].length - inPage);
+			int index = Arrays.mismatch(pages[page], inPage, inPage + chunk, other, offset, offset + chunk);
+			if (index >= 0)
+				return at + index;
+			at += chunk;
+			offset += chunk;
+		}
+		return -1;
+	}
+
+	/**
+	 * Vergleicht diesen Speicher mit einem anderen; geteilte Seiten werden dabei
+	 * nicht verglichen.
+	 * 
+	 * @return Die erste Adresse, an der sich die Speicher unterscheiden, oder -1,
+	 *         falls beide gleich sind. Ist ein Speicher kürzer, aber bis zu seinem
+	 *         Ende gleich, ist es seine Größe.
+	 */
+	public int mismatch(RandomAccessMemory other) {
+		int length = Math.min(capacity, other.capacity);
+		for (int page = 0; page << PAGE_SHIFT < length; ++page) {
+			if (pages[page] == other.pages[page])
+				continue;
+			int chunk = Math.min(pages[page].length, other.pages[page].length);
+			int index = Arrays.mismatch(pages[page], 0, chunk, other.pages[page], 0, chunk);
+			if (index >= 0)
+				return (page << PAGE_SHIFT) + index;
+		}
+		return capacity == other.capacity ? -1 : length;
+	}
+
+	/**
+	 * Gibt einen Bereich des Speichers als nur lesbaren Puffer zurück. Weil sich
+	 * Speicher ihre Seiten bis zum ersten Schreibzugriff teilen, liegt der Inhalt
+	 * nicht an einem Stück; der Puffer ist daher eine Kopie zum Zeitpunkt des
+	 * Aufrufs und ändert sich nicht mit dem Speicher.
+	 * 
+	 * @throws IndexOutOfBoundsException falls der Bereich nicht in den Speicher
+	 *                                   passt.
+	 */
+	public ByteBuffer asReadOnlyBuffer(int address, int length) {
+		byte[] copy = new byte[length];
+		read(address, copy, 0, length);
+		return ByteBuffer.wrap(copy).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Gibt den gesamten Speicher als nur lesbaren Puffer zurück, siehe
+	 * {@link #asReadOnlyBuffer(int, int)}.
+	 */
+	public ByteBuffer asReadOnlyBuffer() {
+		return asReadOnlyBuffer(0, capacity);
+	}
+
+	/**
+	 * Überschreibt den gesamten Speicher mit den Bytes ab der gegebenen Stelle des
+	 * Arrays. Beobachter werden nur über Seiten informiert, die sich tatsächlich
+	 * ändern, damit etwa übersetzte Blöcke beim Wiederherstellen einer
+	 * Momentaufnahme erhalten bleiben.
+	 */
+	void copyFrom(byte[] src, int offset) {
+		for (int page = 0; page < pages.length; ++page) {
+			int from = offset + (page << PAGE_SHIFT), length = pages[page].length;
+			if (Arrays.mismatch(pages[page], 0, length, src, from, from + length) < 0)
+				continue;
+			if (shared[page]) {
+				// wird ohnehin vollständig überschrieben
+				pages[page] = new byte[length];
+				shared[page] = false;
+			}
+			System.arraycopy(src, from, pages[page], 0, length);
+			notifyObservers(page << PAGE_SHIFT, (page << PAGE_SHIFT) + length);
+		}
+	}
+
+	/**
+	 * Setzt den gesamten Speicher auf 0. Alle vollständigen Seiten verweisen danach
+	 * auf eine gemeinsame leere Seite, es wird also nichts kopiert.
+	 */
+	void clear() {
+		for (int page = 0; page < pages.length; ++page) {
+			if (pages[page].length == PAGE_SIZE) {
+				pages[page] = ZERO_PAGE;
+				shared[page] = true;
+			} else {
+				Arrays.fill(writablePage(page), (byte) 0);
+			}
+		}
+		storage.clear();
+		bank = 0;
+		notifyObservers(0, capacity);
+	}
+
+	/**
+	 * Übernimmt den Inhalt eines anderen, gleich großen Arbeitsspeichers
+	 * einschließlich seiner Bänke, indem beide sich alle Seiten teilen. Erst
+	 * Schreibzugriffe auf einen der beiden Speicher kopieren die betroffene Seite.
+	 */
+	void share(RandomAccessMemory other) {
+		if (other.capacity != capacity)
+			throw new IllegalArgumentException("Different-sized memory cannot be shared.");
+		for (int page = 0; page < pages.length; ++page) {
+			pages[page] = other.pages[page];
+			shared[page] = other.shared[page] = true;
+		}
+		other.storeWindow();
+		banks = other.banks;
+		bank = other.bank;
+		storage = other.storage.share();
+		notifyObservers(0, capacity);
+	}
+
+	/**
+	 * Gibt dem Speicher einen Hintergrundspeicher mit der gegebenen Anzahl an
+	 * Bänken oder entfernt ihn mit 0. Vorhandene Bänke behalten ihren Inhalt,
+	 * neue sind leer; fällt die eingeblendete Bank weg, wird Bank 0 eingeblendet.
+	 * Ohne Bänke bleibt im Fenster der zuletzt eingeblendete Inhalt stehen.
+	 * 
+	 * @throws IllegalArgumentException falls die Anzahl nicht zwischen 0 und
+	 *                                  {@link #MAX_BANKS} liegt oder das Fenster
+	 *                                  nicht in den Speicher passt.
+	 */
+	public void setBankCount(int count) {
+		if (count < 0 || count > MAX_BANKS)
+			throw new IllegalArgumentException("Bank count must be between 0 and " + MAX_BANKS + ".");
+		if (count > 0 && capacity < BANK_WINDOW + BANK_SIZE)
+			throw new IllegalArgumentException("Memory is too small for the bank window.");
+		storeWindow();
+		storage = storage.resize(count * BANK_PAGES);
+		banks = count;
+		if (count > 0 && bank >= count) {
+			bank = 0;
+			loadWindow();
+			notifyObservers(BANK_WINDOW, BANK_WINDOW + BANK_SIZE);
+		} else if (count == 0) {
+			bank = 0;
+		}
+	}
+
+	/** @return Die Anzahl der Bänke, 0 ohne Bänke. */
+	public int bankCount() {
+		return banks;
+	}
+
+	/** @return Die eingeblendete Bank. */
+	public int bank() {
+		return bank;
+	}
+
+	/**
+	 * Blendet eine andere Bank in das Fenster ein. Dabei werden nur die Seiten des
+	 * Fensters ausgetauscht; die Beobachter werden mit
+	 * {@link MemoryObserver#bankSwitched(int, int, int)} informiert.
+	 * 
+	 * @throws IndexOutOfBoundsException falls es die Bank nicht gibt.
+	 */
+	public void selectBank(int newBank) {
+		Objects.checkIndex(newBank, banks);
+		if (newBank == bank)
+			return;
+		int previous = bank;
+		storeWindow();
+		bank = newBank;
+		loadWindow();
+		for (MemoryObserver observer : observers)
+			observer.bankSwitched(previous, BANK_WINDOW, BANK_WINDOW + BANK_SIZE);
+	}
+
+	/**
+	 * @return Ob ein Datenbyte an diese Adresse des Ausgabebus in das Bankregister
+	 *         geschrieben wird; nur bei Speicher mit Bänken.
+	 */
+	public boolean isBankRegister(byte outputAddress) {
+		return banks > 0 && (outputAddress == BANK_REGISTER_LOW || outputAddress == BANK_REGISTER_HIGH);
+	}
+
+	/**
+	 * Schreibt ein Byte des Bankregisters und blendet die gewählte Bank ein.
+	 * Nummern ab der Anzahl der Bänke werden wie Adressen umgebrochen.
+	 * 
+	 * @param outputAddress {@link #BANK_REGISTER_LOW} oder
+	 *                      {@link #BANK_REGISTER_HIGH}.
+	 * @throws IllegalStateException falls der Speicher keine Bänke hat.
+	 */
+	public void writeBankRegister(byte outputAddress, byte value) {
+		if (banks == 0)
+			throw new IllegalStateException("Memory has no banks.");
+		int register = outputAddress == BANK_REGISTER_LOW ? bank & 0xff00 | value & 0xff
+				: (value & 0xff) << 8 | bank & 0xff;
+		selectBank(register % banks);
+	}
+
+	/** @return Die Größe des Hintergrundspeichers in Bytes. */
+	public int storageSize() {
+		return banks * BANK_SIZE;
+	}
+
+	/**
+	 * Liest {@code length} Bytes aus dem Hintergrundspeicher, in dem die Bänke
+	 * hintereinander liegen; Bank b beginnt bei {@code b * BANK_SIZE}.
+	 * 
+	 * @throws IndexOutOfBoundsException falls der Bereich nicht in den
+	 *                                   Hintergrundspeicher oder das Array passt.
+	 */
+	public void readStorage(int address, byte[] dst, int offset, int length) {
+		Objects.checkFromIndexSize(address, length, storageSize());
+		Objects.checkFromIndexSize(offset, length, dst.length);
+		while (length > 0) {
+			int inPage = address & (PAGE_SIZE - 1), chunk = Math.min(length, PAGE_SIZE - inPage);
+			System.arraycopy(storagePage(address >> PAGE_SHIFT), inPage, dst, offset, chunk);
+			address += chunk;
+			offset += chunk;
+			length -= chunk;
+		}
+	}
+
+	/**
+	 * Schreibt {@code length} Bytes in den Hintergrundspeicher, ohne die
+	 * eingeblendete Bank zu wechseln, siehe
+	 * {@link #readStorage(int, byte[], int, int)}. Beobachter werden nur über
+	 * Änderungen der eingeblendeten Bank informiert.
+	 * 
+	 * @throws IndexOutOfBoundsException falls der Bereich nicht in den
+	 *                                   Hintergrundspeicher oder das Array passt.
+	 */
+	public void writeStorage(int address, byte[] src, int offset, int length) {
+		Objects.checkFromIndexSize(address, length, storageSize());
+		Objects.checkFromIndexSize(offset, length, src.length);
+		boolean window = false;
+		for (int at = address, end = address + length; at < end;) {
+			int index = at >> PAGE_SHIFT, inPage = at & (PAGE_SIZE - 1), chunk = Math.min(end - at, PAGE_SIZE - inPage);
+			if (index / BANK_PAGES == bank) {
+				System.arraycopy(src, offset, writablePage(WINDOW_PAGE + index % BANK_PAGES), inPage, chunk);
+				window = true;
+			} else {
+				if (chunk == PAGE_SIZE && storage.isShared(index))
+					// wird ohnehin vollständig überschrieben
+					storage.setPage(index, new byte[PAGE_SIZE], false);
+				System.arraycopy(src, offset, storage.writablePage(index), inPage, chunk);
+			}
+			at += chunk;
+			offset += chunk;
+		}
+		if (window)
+			notifyObservers(BANK_WINDOW, BANK_WINDOW + BANK_SIZE);
+	}
+
+	/**
+	 * @return Die Anzahl der Bytes, die {@link #saveState(byte[], int)} schreibt:
+	 *         der Speicher und bei Speicher mit Bänken die Nummer der
+	 *         eingeblendeten Bank.
+	 */
+	int stateSize() {
+		return banks == 0 ? capacity : capacity + 2;
+	}
+
+	/**
+	 * Schreibt den Inhalt des Speichers und die eingeblendete Bank an die
+	 * gegebene Stelle des Arrays. Der Hintergrundspeicher gehört nicht dazu, siehe
+	 * {@link #saveStorage()}.
+	 */
+	void saveState(byte[] dst, int offset) {
+		read(0, dst, offset, capacity);
+		if (banks == 0)
+			return;
+		dst[offset + capacity] = (byte) (bank >> 8);
+		dst[offset + capacity + 1] = (byte) bank;
+	}
+
+	/**
+	 * @return Der Hintergrundspeicher zum Zeitpunkt des Aufrufs, der sich alle
+	 *         Seiten mit diesem Speicher teilt, sodass nichts kopiert wird; ohne
+	 *         Bänke {@code null}.
+	 */
+	BankStorage saveStorage() {
+		if (banks == 0)
+			return null;
+		storeWindow();
+		// die Seiten des Fensters liegen jetzt auch im geteilten Hintergrundspeicher
+		for (int i = 0; i < BANK_PAGES; ++i)
+			shared[WINDOW_PAGE + i] = true;
+		return storage.share();
+	}
+
+	/**
+	 * Stellt einen mit {@link #saveState(byte[], int)} und {@link #saveStorage()}
+	 * gespeicherten Zustand bei gleicher Anzahl an Bänken wieder her. Ist kein
+	 * Hintergrundspeicher angegeben, folgt er im Array auf den Zustand, Bank für
+	 * Bank. Wie bei {@link #copyFrom(byte[], int)} werden Beobachter nur über
+	 * Änderungen informiert.
+	 */
+	void restoreState(byte[] src, int offset, BankStorage saved) {
+		if (banks > 0) {
+			byte[][] before = Arrays.copyOfRange(pages, WINDOW_PAGE, WINDOW_PAGE + BANK_PAGES);
+			if (saved != null) {
+				storage = saved.share();
+			} else {
+				storeWindow();
+				int from = offset + capacity + 2;
+				for (int index = 0; index < storage.pageCount(); ++index) {
+					int at = from + (index << PAGE_SHIFT);
+					if (Arrays.mismatch(storage.page(index), 0, PAGE_SIZE, src, at, at + PAGE_SIZE) >= 0)
+						storage.setPage(index, Arrays.copyOfRange(src, at, at + PAGE_SIZE), false);
+				}
+			}
+			bank = ((src[offset + capacity] & 0xff) << 8 | src[offset + capacity + 1] & 0xff) % banks;
+			loadWindow();
+			for (int i = 0; i < BANK_PAGES; ++i) {
+				if (!Arrays.equals(before[i], pages[WINDOW_PAGE + i])) {
+					notifyObservers(BANK_WINDOW, BANK_WINDOW + BANK_SIZE);
+					break;
+				}
+			}
+		}
+		copyFrom(src, offset);
+	}
+
+	/** Legt die Seiten des Fensters bei der eingeblendeten Bank ab. */
+	private void storeWindow() {
+		if (banks == 0)
+			return;
+		for (int i = 0; i < BANK_PAGES; ++i)
+			storage.setPage(bank * BANK_PAGES + i, pages[WINDOW_PAGE + i], shared[WINDOW_PAGE + i]);
+	}
+
+	/** Blendet die Seiten der eingeblendeten Bank in das Fenster ein. */
+	private void loadWindow() {
+		for (int i = 0; i < BANK_PAGES; ++i) {
+			pages[WINDOW_PAGE + i] = storage.page(bank * BANK_PAGES + i);
+			shared[WINDOW_PAGE + i] = storage.isShared(bank * BANK_PAGES + i);
+		}
+	}
+
+	/** @return Eine Seite des Hintergrundspeichers, nur zum Lesen. */
+	private byte[] storagePage(int index) {
+		return index / BANK_PAGES == bank ? pages[WINDOW_PAGE + index % BANK_PAGES] : storage.page(index);
+	}
+
+	/**
+	 * @return Die Seite zum Beschreiben; ist sie geteilt, wird sie vorher kopiert.
+	 */
+	private byte[] writablePage(int page) {
+		if (shared[page]) {
+			pages[page] = pages[page].clone();
+			shared[page] = false;
+		}
+		return pages[page];
+	}
+
+	private int pageLength(int page) {
+		return Math.min(PAGE_SIZE, capacity - (page << PAGE_SHIFT));
+	}
+
+	/**
+	 * Meldet einen Beobachter an, der über alle Schreibzugriffe informiert wird.
+	 */
+	public void addObserver(MemoryObserver observer) {
+		observers = Arrays.copyOf(observers, observers.length + 1);
+		observers[observers.length - 1] = observer;
+	}
+
+	/**
+	 * Meldet einen Beobachter wieder ab.
+	 */
+	public void removeObserver(MemoryObserver observer) {
+		observers = Arrays.stream(observers).filter(o -> o != observer).toArray(MemoryObserver[]::new);
+	}
+
+	private void notifyObservers(int from, int to) {
+		for (MemoryObserver observer : observers)
+			observer.memoryChanged(from, to);
 	}
 
 	public void clock() throws CPUException {
 		if (busaction == TRANSMIT) {
-			System.out.println(
-					"Memory@" + this.hashCode() + " at " + Byte.toUnsignedInt(AddressPointer.getValue()) + " transmits.");
-			bus.transmitTo(mem[Byte.toUnsignedInt(AddressPointer.getValue())]);
+			bus.transmitTo(readMemory());
 		}
 		if (busaction == RECIEVE) {
-			System.out.println("Memory@" + this.hashCode() + " at " + AddressPointer.getValue() + " recieves.");
-			mem[AddressPointer.getValue()] = bus.recieveFrom();
+			write(Byte.toUnsignedInt(AddressPointer.getValue()), bus.recieveFrom());
 		}
 		busaction = NONE;
 	}
@@ -93,7 +614,7 @@ public class RandomAccessMemory implements BusConnectable {
 	 * @return Die Größe (Anzahl der Bits) des Speichers.
 	 */
 	public int size() {
-		return mem.length;
+		return capacity;
 	}
 
 	public boolean isActing() {
@@ -117,8 +638,8 @@ public class RandomAccessMemory implements BusConnectable {
 
 	public void printMemory(PrintStream out) {
 		int i = 0;
-		for (byte b : mem) {
-			out.print(SA2_Assembler.stringifyHex(b) + " ");
+		for (int address = 0; address < capacity; ++address) {
+			out.print(SA2_Assembler.stringifyHex(read(address)) + " ");
 			if (++i == 8)
 				out.println();
 			i %= 8;
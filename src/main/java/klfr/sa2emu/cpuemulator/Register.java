@@ -111,10 +111,8 @@ public class Register implements BusConnectable {
 	 */
 	public void clock() throws CPUException {
 		if (busaction == TRANSMIT) {
-			System.out.println("Register " + this.toString() + " clocks and transmits.");
 			bus.transmitTo(val);
 		} else if (busaction == RECIEVE) {
-			System.out.println("Register " + this.toString() + " clocks and recieves.");
 			val = bus.recieveFrom();
 		}
 		this.busaction = NONE;
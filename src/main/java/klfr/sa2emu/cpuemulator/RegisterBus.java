@@ -34,6 +34,18 @@ public class RegisterBus {
 		return value;
 	}
 
+	/**
+	 * Liest den Wert des Busses, ohne einen Fehler zu werfen. Gedacht für Anzeige
+	 * und für Takte, in denen der Bus nicht beschrieben sein muss.
+	 * 
+	 * @param absent Der Wert, der zurückgegeben wird, falls der Bus nicht
+	 *               beschrieben ist.
+	 * @return Der Wert des Busses oder {@code absent}.
+	 */
+	public byte recieveOr(byte absent) {
+		return hasValue ? value : absent;
+	}
+
 	/**
 	 * Simuliert einen Taktzyklus auf diesem Bus. <b>Achtung: muss als letzter Takt
 	 * geschehen!</b>
@@ -0,0 +1,56 @@
+package klfr.sa2emu.cpuemulator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ablaufverfolgung in einen Ringpuffer fester Größe, der nur die letzten
+ * Meldungen behält. Eignet sich, um nach einem Fehler nachzusehen, was die CPU
+ * zuletzt getan hat.
+ * 
+ * @author kleines Filmröllchen
+ */
+public class RingBufferTraceSink implements TraceSink {
+
+	private final String[] messages;
+	/** Position der nächsten Meldung. */
+	private int next = 0;
+	/** Anzahl der gespeicherten Meldungen. */
+	private int count = 0;
+
+	/**
+	 * Erzeugt einen Ringpuffer, der die gegebene Anzahl an Meldungen behält.
+	 */
+	public RingBufferTraceSink(int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		messages = new String[capacity];
+	}
+
+	@Override
+	public void trace(String message) {
+		messages[next] = message;
+		next = (next + 1) % messages.length;
+		if (count < messages.length)
+			++count;
+	}
+
+	/**
+	 * @return Die gespeicherten Meldungen, die älteste zuerst.
+	 */
+	public List<String> messages() {
+		List<String> result = new ArrayList<>(count);
+		int start = (next - count + messages.length) % messages.length;
+		for (int i = 0; i < count; ++i)
+			result.add(messages[(start + i) % messages.length]);
+		return result;
+	}
+
+	/**
+	 * Verwirft alle gespeicherten Meldungen.
+	 */
+	public void clear() {
+		next = 0;
+		count = 0;
+	}
+}
@@ -0,0 +1,100 @@
+package klfr.sa2emu.cpuemulator;
+
+import klfr.sa2emu.cpuemulator.events.RunEvent;
+import klfr.sa2emu.cpuemulator.events.ThroughputEvent;
+
+/**
+ * Meldet einen Aufruf von {@code run(long)} einer Ausführungsart als
+ * {@link RunEvent} und währenddessen alle {@link #SAMPLE_INTERVAL}
+ * Taktzyklen ein {@link ThroughputEvent} an den Java Flight Recorder. Ist das
+ * Durchsatzereignis beim Start nicht eingeschaltet, liefert
+ * {@link #nextSample()} {@link Long#MAX_VALUE}, sodass die Ausführung in
+ * ihrer Schleife nur einen Vergleich braucht, der nie zutrifft.
+ *
+ * @author kleines Filmröllchen
+ */
+final class RunRecorder {
+
+	/** Abstand der Durchsatzmessungen in Taktzyklen. */
+	static final long SAMPLE_INTERVAL = 1 << 22;
+
+	private final String engine;
+	private final long startInstructions;
+	private final RunEvent run = new RunEvent();
+
+	private ThroughputEvent sample;
+	/** Taktzyklen und Zeit zu Beginn der laufenden Durchsatzmessung. */
+	private long sampleCycles = 0, sampleNanos;
+	private long nextSample = Long.MAX_VALUE;
+
+	/**
+	 * Beginnt die Aufzeichnung einer Ausführung.
+	 *
+	 * @param engine            Name der Ausführungsart: "micro", "fast" oder
+	 *                          "jit".
+	 * @param startInstructions Zahl der Befehle der Ausführungsart beim Start.
+	 */
+	RunRecorder(String engine, long startInstructions) {
+		this.engine = engine;
+		this.startInstructions = startInstructions;
+		run.begin();
+		ThroughputEvent first = new ThroughputEvent();
+		if (first.isEnabled())
+			beginSample(first, 0);
+	}
+
+	/**
+	 * @return Die Zahl der ausgeführten Taktzyklen, bei der {@link #sample(long)}
+	 *         aufzurufen ist.
+	 */
+	long nextSample() {
+		return nextSample;
+	}
+
+	/**
+	 * Meldet den Durchsatz seit der letzten Messung und beginnt die nächste.
+	 *
+	 * @param executed Die bisher ausgeführten Taktzyklen.
+	 * @return Der neue Wert von {@link #nextSample()}.
+	 */
+	long sample(long executed) {
+		commitSample(executed);
+		beginSample(new ThroughputEvent(), executed);
+		return nextSample;
+	}
+
+	/**
+	 * Meldet das Ende der Ausführung.
+	 */
+	void finish(long executed, long instructions, boolean halted) {
+		if (sample != null)
+			commitSample(executed);
+		run.end();
+		if (run.shouldCommit()) {
+			run.engine = engine;
+			run.cycles = executed;
+			run.instructions = instructions - startInstructions;
+			run.halted = halted;
+			run.commit();
+		}
+	}
+
+	private void beginSample(ThroughputEvent event, long executed) {
+		sample = event;
+		sampleCycles = executed;
+		sampleNanos = System.nanoTime();
+		nextSample = executed + SAMPLE_INTERVAL;
+		event.begin();
+	}
+
+	private void commitSample(long executed) {
+		sample.end();
+		if (sample.shouldCommit() && executed > sampleCycles) {
+			long nanos = Math.max(1, System.nanoTime() - sampleNanos);
+			sample.engine = engine;
+			sample.cycles = executed - sampleCycles;
+			sample.cyclesPerSecond = sample.cycles * 1e9 / nanos;
+			sample.commit();
+		}
+	}
+}
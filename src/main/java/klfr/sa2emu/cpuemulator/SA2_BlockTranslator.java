@@ -0,0 +1,241 @@
+package klfr.sa2emu.cpuemulator;
+
+import static klfr.sa2emu.cpuemulator.BlockCompiler.*;
+
+import klfr.sa2emu.cpuemulator.exceptions.CPUException;
+
+/**
+ * Ausführung einer {@link SA2_CPU} mit Übersetzung häufig ausgeführter
+ * Grundblöcke in JVM-Bytecode. Zunächst wird jeder Befehl mit
+ * {@link SA2_FastEngine} ausgeführt; wurde ein Block öfter als die
+ * Übersetzungsschwelle angesprungen, übersetzt ihn {@link BlockCompiler} in
+ * eine eigene Klasse, die der JIT-Compiler der JVM dann weiter optimieren
+ * kann.<br>
+ * <br>
+ * Der Zustand der CPU ist nach jedem Block genau derselbe wie nach der
+ * Ausführung mit {@link SA2_FastEngine}. Schreibzugriffe auf den
+ * Arbeitsspeicher verwerfen alle übersetzten Blöcke, deren Code sie verändern,
+ * sodass auch selbstmodifizierender Code richtig ausgeführt wird.
+ *
+ * @author kleines Filmröllchen
+ */
+public class SA2_BlockTranslator implements MemoryObserver {
+
+	/** Standardmäßige Anzahl an Ausführungen, bevor ein Block übersetzt wird. */
+	public static final int DEFAULT_THRESHOLD = 50;
+
+	private final SA2_CPU cpu;
+	private final SA2_FastEngine interpreter;
+	private final int threshold;
+
+	/** Übersetzte Blöcke nach Startadresse. */
+	private final Block[] blocks;
+	/** Wie oft ein noch nicht übersetzter Block angesprungen wurde. */
+	private final int[] executionCounts;
+	/** Adressen, die zum Code eines übersetzten Blocks gehören, als Bitmaske. */
+	private final long[] covered;
+
+	/** Register für die übersetzten Blöcke. */
+	private final byte[] registers = new byte[REGISTER_COUNT];
+
+	/** Taktzyklen und Befehle, die in übersetzten Blöcken ausgeführt wurden. */
+	private long cycles = 0, instructions = 0;
+
+	/**
+	 * Erzeugt eine Ausführung mit Übersetzung für die gegebene CPU und der
+	 * Standardschwelle.
+	 */
+	public SA2_BlockTranslator(SA2_CPU cpu) {
+		this(cpu, DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * Erzeugt eine Ausführung mit Übersetzung für die gegebene CPU.
+	 *
+	 * @param threshold Wie oft ein Block angesprungen werden muss, bevor er
+	 *                  übersetzt wird.
+	 */
+	public SA2_BlockTranslator(SA2_CPU cpu, int threshold) {
+		this.cpu = cpu;
+		this.interpreter = new SA2_FastEngine(cpu);
+		this.threshold = threshold;
+		int size = cpu.RAM.size();
+		blocks = new Block[size];
+		executionCounts = new int[size];
+		covered = new long[(size + 63) / 64];
+		cpu.RAM.addObserver(this);
+	}
+
+	/**
+	 * Führt Befehle aus, bis die CPU anhält, einen ihrer
+	 * {@link SA2_CPU#breakpoints} trifft oder mindestens die gegebene Anzahl an
+	 * Taktzyklen verbraucht ist.
+	 *
+	 * @return Die Anzahl der ausgeführten Taktzyklen.
+	 */
+	public long run(long maxCycles) throws CPUException {
+		final Breakpoints breakpoints = cpu.breakpoints;
+		final RunRecorder recorder = new RunRecorder("jit", instructions());
+		long executed = 0, nextSample = recorder.nextSample();
+		breakpoints.clearHit();
+		try {
+			while (!cpu.halted && executed < maxCycles) {
+				if (breakpoints.active && executed > 0 && cpu.microInstructionCounter() == 0
+						&& breakpoints.checkExecute(cpu.PC.getValue() & 0xff))
+					break;
+				executed += step();
+				if (breakpoints.hitKind != Breakpoints.NONE)
+					break;
+				if (executed >= nextSample)
+					nextSample = recorder.sample(executed);
+			}
+		} finally {
+			recorder.finish(executed, instructions(), cpu.halted);
+		}
+		return executed;
+	}
+
+	/**
+	 * Führt einen übersetzten Block oder, falls es für die aktuelle Adresse keinen
+	 * gibt, einen einzelnen Befehl aus. Solange Halte- oder Beobachtungspunkte
+	 * gesetzt sind, werden nur einzelne Befehle ausgeführt, damit jeder Treffer
+	 * genau erkannt wird.
+	 *
+	 * @return Die Anzahl der ausgeführten Taktzyklen; 0, falls die CPU angehalten
+	 *         ist.
+	 */
+	public int step() throws CPUException {
+		if (cpu.halted || cpu.microInstructionCounter() != 0 || cpu.breakpoints.active)
+			return interpreter.step();
+
+		int pc = cpu.PC.getValue() & 0xff;
+		Block block = blocks[pc];
+		if (block == null) {
+			if (++executionCounts[pc] < threshold)
+				return interpreter.step();
+			block = blocks[pc] = new BlockCompiler(cpu.RAM, pc).compile();
+			for (int address = block.start; address < block.end; ++address)
+				covered[address >> 6] |= 1L << address;
+		}
+		if (block.code == null)
+			return interpreter.step();
+
+		final byte[] r = registers;
+		r[A] = cpu.A.getValue();
+		r[B] = cpu.B.getValue();
+		r[X] = cpu.X.getValue();
+		r[SP] = cpu.SP.getValue();
+		r[PC] = cpu.PC.getValue();
+		r[IP] = cpu.IP.getValue();
+		r[OP] = cpu.OP.getValue();
+		r[FR] = cpu.FR.getValue();
+		r[ALU] = cpu.ALU.getValue();
+		r[MAR] = cpu.RAM.AddressPointer.getValue();
+		r[OUT] = cpu.OUT.getValue();
+
+		block.code.execute(r, cpu.RAM);
+
+		cpu.A.setValue(r[A]);
+		cpu.B.setValue(r[B]);
+		cpu.X.setValue(r[X]);
+		cpu.SP.setValue(r[SP]);
+		cpu.PC.setValue(r[PC]);
+		cpu.IP.setValue(r[IP]);
+		cpu.OP.setValue(r[OP]);
+		cpu.FR.setValue(r[FR]);
+		cpu.ALU.setValue(r[ALU]);
+		cpu.RAM.AddressPointer.setValue(r[MAR]);
+		cpu.OUT.setValue(r[OUT]);
+		// Zeile des letzten Befehls mit den Flaggen vor seiner Ausführung, wie bei
+		// SA2_FastEngine; bei einem bedingten Sprung hängt auch seine Länge davon ab
+		int row = SA2_CPU.microcodeRow(r[IP], r[LAST_FLAGS]);
+		block.rows[block.rows.length - 1] = row;
+		int cycleCount = block.cycles;
+		long lastMicroinstruction = block.lastMicroinstruction;
+		if (block.conditional) {
+			int length = SA2_CPU.MICROCODE_LENGTH[row / SA2_CPU.MICROSTEPS];
+			cycleCount += SA2_CPU.MICROSTEPS / 2 + length;
+			lastMicroinstruction = SA2_CPU.MICROCODE[row | (SA2_CPU.MICROSTEPS / 2 - 1 + length)];
+		}
+		cpu.setMicrocodeState(row, (byte) 0, lastMicroinstruction, r[BUS]);
+
+		if (cpu.counters.enabled)
+			cpu.counters.retire(block.rows);
+		if (cpu.heatmap.enabled)
+			cpu.heatmap.retire(block.start, block.rows);
+		if (cpu.profiler != null)
+			cpu.profiler.retire(block.rows, r[PC] & 0xff);
+		cycles += cycleCount;
+		instructions += block.instructions;
+		cpu.retired(cycleCount, block.instructions);
+		return cycleCount;
+	}
+
+	/**
+	 * Verwirft alle übersetzten Blöcke, deren Code im veränderten Bereich liegt.
+	 */
+	@Override
+	public void memoryChanged(int from, int to) {
+		boolean affected = false;
+		for (int address = from; address < to && !affected; ++address)
+			affected = (covered[address >> 6] & 1L << address) != 0;
+		if (!affected)
+			return;
+
+		for (int i = 0; i < covered.length; ++i)
+			covered[i] = 0;
+		for (int start = 0; start < blocks.length; ++start) {
+			Block block = blocks[start];
+			if (block == null)
+				continue;
+			if (block.start < to && from < block.end) {
+				blocks[start] = null;
+				executionCounts[start] = 0;
+			} else {
+				for (int address = block.start; address < block.end; ++address)
+					covered[address >> 6] |= 1L << address;
+			}
+		}
+	}
+
+	/**
+	 * Verwirft alle übersetzten Blöcke und meldet die Ausführung vom
+	 * Arbeitsspeicher ab.
+	 */
+	public void close() {
+		cpu.RAM.removeObserver(this);
+		memoryChanged(0, blocks.length);
+	}
+
+	/**
+	 * @return Die Anzahl der insgesamt ausgeführten Taktzyklen.
+	 */
+	public long cycles() {
+		return cycles + interpreter.cycles();
+	}
+
+	/**
+	 * @return Die Anzahl der insgesamt ausgeführten Maschinenbefehle.
+	 */
+	public long instructions() {
+		return instructions + interpreter.instructions();
+	}
+
+	/**
+	 * @return Die Anzahl der momentan übersetzten Blöcke.
+	 */
+	public int translatedBlocks() {
+		int count = 0;
+		for (Block block : blocks)
+			if (block != null && block.code != null)
+				++count;
+		return count;
+	}
+
+	/**
+	 * @return Die CPU, auf der diese Ausführung arbeitet.
+	 */
+	public SA2_CPU cpu() {
+		return cpu;
+	}
+}
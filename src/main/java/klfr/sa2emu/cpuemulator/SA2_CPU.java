@@ -1,9 +1,14 @@
 package klfr.sa2emu.cpuemulator;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
+import klfr.sa2emu.cpuemulator.events.ProgramLoadEvent;
 import klfr.sa2emu.cpuemulator.exceptions.*;
 
 /**
@@ -15,66 +20,6 @@ import klfr.sa2emu.cpuemulator.exceptions.*;
  */
 public class SA2_CPU {
 
-	/**
-	 * Koordinator der Buskommunikation; übernimmt die damit zusammenhängenden
-	 * Aufgaben.
-	 * 
-	 * @author kleines Filmröllchen
-	 */
-	private class TransmissionCoordinator {
-		private List<BusConnectable> transmitters;
-		private List<BusConnectable> recievers;
-
-		public TransmissionCoordinator() {
-			transmitters = new ArrayList<>();
-			recievers = new ArrayList<>();
-		}
-
-		/**
-		 * Speichert das Register als auf den Bus übertragendes Register.
-		 * 
-		 * @throws ReadForbiddenException falls das Register nicht übertragen kann / aus
-		 *                                ihm nicht gelesen werden kann.
-		 */
-		public void noteForTransmission(BusConnectable r) throws ReadForbiddenException {
-			r.setToTransmit();
-			transmitters.add(r);
-		}
-
-		/**
-		 * Speichert das Register als vom Bus empfangendes BusConnectable.
-		 */
-		public void noteForReception(BusConnectable r) {
-			r.setToRecieve();
-			recievers.add(r);
-		}
-
-		/**
-		 * Führt Lesen und Schreiben der Register aus.
-		 * 
-		 * @throws CPUException falls der Bus schon beschrieben wird.
-		 */
-		public void execute() throws CPUException {
-			for (BusConnectable r : transmitters) {
-				// System.out.println(r + " is a transmitter");
-				r.clock();
-			}
-			for (BusConnectable r : recievers) {
-				// System.out.println(r + " is a reciever");
-				r.clock();
-			}
-			recievers.clear();
-			transmitters.clear();
-		}
-
-		/**
-		 * @return Ob gespeichert ist, ob der Bus benutzt wird.
-		 */
-		public boolean busIsUsed() {
-			return !(recievers.isEmpty() && transmitters.isEmpty());
-		}
-	}
-
 	//// Steuerlinien
 
 	/** Befehlsregister aus */
@@ -148,6 +93,99 @@ public class SA2_CPU {
 	/** Mikrobefehlszähler zurücksetzen */
 	public static final long MSR = 0b0000000000000000000000000000000000010000000000000000000000000000L;
 
+	//// Buseinheiten
+
+	/** Befehlsregister */
+	public static final int UNIT_IP = 0;
+	/** Programmzähler */
+	public static final int UNIT_PC = 1;
+	/** Register A */
+	public static final int UNIT_A = 2;
+	/** Register B */
+	public static final int UNIT_B = 3;
+	/** Register X */
+	public static final int UNIT_X = 4;
+	/** Operandenregister */
+	public static final int UNIT_OP = 5;
+	/** Stackzeiger */
+	public static final int UNIT_SP = 6;
+	/** ALU-Register */
+	public static final int UNIT_ALU = 7;
+	/** Ausgaberegister */
+	public static final int UNIT_OUT = 8;
+	/** Speicheradressregister */
+	public static final int UNIT_MAR = 9;
+	/** Arbeitsspeicher */
+	public static final int UNIT_RAM = 10;
+	/** Adressregister des Ausgabebus */
+	public static final int UNIT_OUTPUT_ADDRESS = 11;
+	/** Ausgabebus */
+	public static final int UNIT_OUTPUT_BUS = 12;
+	/** Namen der Buseinheiten für die Ablaufverfolgung. */
+	static final String[] UNIT_NAMES = { "IP", "PC", "A", "B", "X", "OP", "SP", "ALU", "OUT", "MAR", "RAM",
+			"OBA", "OB" };
+
+	//// Busübertragungen
+	// Eine Übertragung ist ein int: Bits 0-3 sendende Einheit, Bits 4-16
+	// empfangende Einheiten als Bitmaske, darüber Fehler.
+
+	/** Keine sendende Einheit. */
+	static final int NO_SOURCE = 0xf;
+	static final int SOURCE_MASK = 0xf;
+	static final int TARGET_SHIFT = 4;
+	/** Mehr als eine Einheit sendet auf den Bus. */
+	private static final int SHORT_CIRCUIT = 1 << 17;
+	/** Eine nicht lesbare Einheit soll senden. */
+	private static final int READ_FORBIDDEN = 1 << 18;
+	/** Übertragung ohne sendende oder empfangende Einheiten. */
+	private static final int NO_TRANSFER = NO_SOURCE;
+
+	//// Aufbau einer Momentaufnahme
+	// Die Register stehen in der Reihenfolge der Buseinheiten bis UNIT_MAR am
+	// Anfang, der Ausgabebus am Ende.
+
+	private static final int SNAPSHOT_FR = UNIT_MAR + 1;
+	private static final int SNAPSHOT_COUNTER = SNAPSHOT_FR + 1;
+	private static final int SNAPSHOT_BUS = SNAPSHOT_COUNTER + 1;
+	private static final int SNAPSHOT_HALTED = SNAPSHOT_BUS + 1;
+	private static final int SNAPSHOT_ROW = SNAPSHOT_HALTED + 1;
+	private static final int SNAPSHOT_TRANSFER = SNAPSHOT_ROW + Integer.BYTES;
+	private static final int SNAPSHOT_MICROINSTRUCTION = SNAPSHOT_TRANSFER + Integer.BYTES;
+	private static final int SNAPSHOT_CYCLES = SNAPSHOT_MICROINSTRUCTION + Long.BYTES;
+	private static final int SNAPSHOT_INSTRUCTIONS = SNAPSHOT_CYCLES + Long.BYTES;
+	private static final int SNAPSHOT_RAM = SNAPSHOT_INSTRUCTIONS + Long.BYTES;
+	/** Größe des Zustands ohne Arbeitsspeicher und Ausgabebus. */
+	static final int REGISTER_STATE = SNAPSHOT_RAM;
+
+	private static final VarHandle INT_VIEW = MethodHandles.byteArrayViewVarHandle(int[].class,
+			ByteOrder.BIG_ENDIAN);
+	private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class,
+			ByteOrder.BIG_ENDIAN);
+
+	//// Mikrocode
+
+	/** Anzahl der Mikrobefehle pro Maschinenbefehl einschließlich Von-Neumann-Zyklus. */
+	static final int MICROSTEPS = 8;
+	/** Der Von-Neumann-Zyklus, der jedem Befehl vorangeht. */
+	private static final long[] VON_NEUMANN_CYCLE = { CO | MAI, MO | II | CE, CO | MAI, MO | OPI | CE };
+	/**
+	 * Mikrocode-ROM, einmalig beim Laden der Klasse aufgebaut. Indiziert mit
+	 * (Befehl, drei Flaggenbits, Mikrobefehlszähler), siehe
+	 * {@link #microcodeRow(byte, byte)}. Jede Zeile beginnt mit dem
+	 * Von-Neumann-Zyklus.
+	 */
+	static final long[] MICROCODE = buildMicrocode();
+	/**
+	 * Anzahl der Mikrobefehle jeder Zeile im Mikrocode-ROM ohne
+	 * Von-Neumann-Zyklus, indiziert mit {@code microcodeRow(..) / MICROSTEPS}.
+	 */
+	static final byte[] MICROCODE_LENGTH = measureMicrocode();
+	/**
+	 * Busübertragung jedes Eintrags im Mikrocode-ROM, genauso indiziert wie
+	 * {@link #MICROCODE}.
+	 */
+	static final int[] TRANSFERS = planTransfers();
+
 	/**
 	 * Zeigt an, ob die CPU momentan angehalten wird.
 	 */
@@ -175,15 +213,36 @@ public class SA2_CPU {
 	public OutputRegister OUT = new OutputRegister(false, bus, "OUT");
 	public OutputBus OB;
 	public RandomAccessMemory RAM = new RandomAccessMemory(bus);
+	/** Halte- und Beobachtungspunkte, die bei jeder Ausführungsart gelten. */
+	public final Breakpoints breakpoints = new Breakpoints(RAM.size());
+	/** Leistungszähler, die bei jeder Ausführungsart gelten; anfangs ausgeschaltet. */
+	public final PerformanceCounters counters = new PerformanceCounters();
+	/** Taktzyklen je Befehlsadresse, anfangs ausgeschaltet. */
+	public final Heatmap heatmap = new Heatmap(RAM.size());
 
 	/** Der Zähler der Mikrobefehle, kann zwischen 0 und 7 liegen. */
 	private byte microInstructionCounter = 0x00;
-	/** Die momentanen Mikrobefehle, die die CPU abarbeitet. */
-	private List<Long> currentMicroInstructions;
+	/** Die Zeile im Mikrocode-ROM des Befehls, den die CPU momentan abarbeitet. */
+	private int currentMicrocodeRow;
 	/** Der momentan verarbeitete Mikrobefehl */
-	private Long curMicroInstruction;
-
-	private TransmissionCoordinator busController = new TransmissionCoordinator();
+	private long curMicroInstruction;
+
+	/** Die Adresse, von der der aktuelle Befehl geholt wurde. */
+	private int instructionAddress;
+	/** Die Busübertragung des momentan verarbeiteten Mikrobefehls. */
+	private int curTransfer = NO_TRANSFER;
+	/** Ausgeführte Taktzyklen und Maschinenbefehle. */
+	private long cycles = 0, instructions = 0;
+	/** Ziel der Ablaufverfolgung, nur benutzt falls traceLevel nicht OFF ist. */
+	private TraceSink trace = null;
+	/** Stufe der Ablaufverfolgung, siehe {@link TraceSink}. */
+	private int traceLevel = TraceSink.OFF;
+	/** Aufzeichnung für die Rückwärtsausführung, siehe {@link SA2_History}. */
+	private SA2_History history = null;
+	/** Profiler der Aufrufstapel, siehe {@link CallProfiler}. */
+	CallProfiler profiler = null;
+	/** Die Register, indiziert mit den Buseinheiten bis {@link #UNIT_MAR}. */
+	private final Register[] units = { IP, PC, A, B, X, OP, SP, ALU, OUT, RAM.AddressPointer };
 	/**
 	 * Der letzte gespeicherte Zustand des Bus. Kann für Anzeige und Debugging
 	 * genutzt werden.
@@ -211,7 +270,6 @@ public class SA2_CPU {
 	/**
 	 * Setzt die gesamte CPU zurück (einschließlich Arbeitsspeicher).
 	 */
-	@SuppressWarnings("static-access")
 	public void reset() {
 		final byte zero = 0;
 		microInstructionCounter = zero;
@@ -228,50 +286,171 @@ public class SA2_CPU {
 		OUT.setValue(zero);
 
 		// Arbeitsspeicher
-		byte[] newram = new byte[256];
-		Arrays.fill(newram, zero);
-		RAM.setCompleteMemory(newram);
+		RAM.clear();
 		RAM.AddressPointer.setValue(zero);
 
 		// Ausgabebus
 		OB.reset();
-		OB.address.setValue(zero);
+		OB.getAddressRegister().setValue(zero);
 		OB.processCommand(zero);
 
 		// Kein Halt
 		halted = false;
+		cycles = 0;
+		instructions = 0;
 		curMicroInstruction = 0l;
+		curTransfer = NO_TRANSFER;
+		currentMicrocodeRow = 0;
+	}
+
+	/**
+	 * Erzeugt eine Momentaufnahme des gesamten Zustands der CPU einschließlich
+	 * Arbeitsspeicher und Ausgabebus. Den Hintergrundspeicher der Bänke teilt sie
+	 * sich seitenweise mit dem Arbeitsspeicher, statt ihn zu kopieren.
+	 */
+	public SA2_Snapshot snapshot() {
+		byte[] state = new byte[SNAPSHOT_RAM + RAM.stateSize() + OB.stateSize()];
+		saveRegisters(state);
+		RAM.saveState(state, SNAPSHOT_RAM);
+		OB.saveState(state, SNAPSHOT_RAM + RAM.stateSize());
+		return new SA2_Snapshot(state, RAM.saveStorage(), SNAPSHOT_RAM + RAM.stateSize());
+	}
+
+	/**
+	 * Stellt einen mit {@link #snapshot()} gespeicherten Zustand wieder her.
+	 * 
+	 * @throws IllegalArgumentException falls die Momentaufnahme von einer CPU mit
+	 *                                  anderer Speichergröße, anderer Anzahl an
+	 *                                  Bänken oder anderem Ausgabebus stammt.
+	 */
+	public void restore(SA2_Snapshot snapshot) throws IllegalArgumentException {
+		byte[] state = snapshot.state();
+		BankStorage storage = snapshot.storage();
+		// nach fromByteArray liegt der Hintergrundspeicher im Array
+		int storageSize = storage == null ? RAM.storageSize() : 0;
+		if (state.length != SNAPSHOT_RAM + RAM.stateSize() + storageSize + OB.stateSize()
+				|| storage != null && storage.pageCount() * RandomAccessMemory.PAGE_SIZE != RAM.storageSize())
+			throw new IllegalArgumentException("Snapshot does not fit this CPU's memory and output bus.");
+		loadRegisters(state);
+		RAM.restoreState(state, SNAPSHOT_RAM, storage);
+		OB.restoreState(state, SNAPSHOT_RAM + RAM.stateSize() + storageSize);
+	}
+
+	/**
+	 * Schreibt alle Register und den Zustand der Mikrobefehlsausführung, also alles
+	 * außer Arbeitsspeicher und Ausgabebus, in die ersten {@link #REGISTER_STATE}
+	 * Bytes des Arrays.
+	 */
+	void saveRegisters(byte[] state) {
+		for (int i = 0; i < units.length; ++i)
+			state[i] = units[i].getValue();
+		state[SNAPSHOT_FR] = FR.getValue();
+		state[SNAPSHOT_COUNTER] = microInstructionCounter;
+		state[SNAPSHOT_BUS] = lastBusVal;
+		state[SNAPSHOT_HALTED] = (byte) (halted ? 1 : 0);
+		INT_VIEW.set(state, SNAPSHOT_ROW, currentMicrocodeRow);
+		INT_VIEW.set(state, SNAPSHOT_TRANSFER, curTransfer);
+		LONG_VIEW.set(state, SNAPSHOT_MICROINSTRUCTION, curMicroInstruction);
+		LONG_VIEW.set(state, SNAPSHOT_CYCLES, cycles);
+		LONG_VIEW.set(state, SNAPSHOT_INSTRUCTIONS, instructions);
+	}
+
+	/**
+	 * Stellt einen mit {@link #saveRegisters(byte[])} gespeicherten Zustand
+	 * wieder her.
+	 */
+	void loadRegisters(byte[] state) {
+		for (int i = 0; i < units.length; ++i)
+			units[i].setValue(state[i]);
+		FR.setValue(state[SNAPSHOT_FR]);
+		microInstructionCounter = state[SNAPSHOT_COUNTER];
+		lastBusVal = state[SNAPSHOT_BUS];
+		halted = state[SNAPSHOT_HALTED] != 0;
+		currentMicrocodeRow = (int) INT_VIEW.get(state, SNAPSHOT_ROW);
+		curTransfer = (int) INT_VIEW.get(state, SNAPSHOT_TRANSFER);
+		curMicroInstruction = (long) LONG_VIEW.get(state, SNAPSHOT_MICROINSTRUCTION);
+		cycles = (long) LONG_VIEW.get(state, SNAPSHOT_CYCLES);
+		instructions = (long) LONG_VIEW.get(state, SNAPSHOT_INSTRUCTIONS);
+		// zwischen zwei Takten liegt nie ein Wert auf dem Bus
+		bus.clock();
+	}
+
+	/**
+	 * Erzeugt eine unabhängige Kopie dieser CPU im selben Zustand. Der
+	 * Arbeitsspeicher wird dabei nicht kopiert, sondern seitenweise geteilt; erst
+	 * Schreibzugriffe auf eine der beiden CPUs kopieren die betroffene Seite.
+	 * Beobachter des Arbeitsspeichers und Protokollierung werden nicht
+	 * übernommen.
+	 * 
+	 * @throws UnsupportedOperationException falls der Ausgabebus nicht kopiert
+	 *                                       werden kann.
+	 */
+	public SA2_CPU fork() {
+		SA2_CPU child = new SA2_CPU(this);
+		byte[] registers = new byte[REGISTER_STATE];
+		saveRegisters(registers);
+		child.loadRegisters(registers);
+		child.RAM.share(RAM);
+		return child;
+	}
+
+	/**
+	 * Erzeugt eine CPU für {@link #fork()}, deren Ausgabebus eine Kopie des
+	 * Ausgabebus der gegebenen CPU ist.
+	 */
+	private SA2_CPU(SA2_CPU parent) {
+		this.OB = parent.OB.fork(bus);
 	}
 
 	/**
 	 * Setzt den Speicher ab einer bestimmten Adresse mit den gegebenen Bytes. Tut
-	 * nichts, falls das Array über das Ende des Speichers hinausgehen würde.
+	 * nichts, falls das Array über das Ende des Speichers hinausgehen würde. Das
+	 * Adressregister bleibt unverändert.
 	 * 
 	 * @param mem      Die Bytes, die zur Vorlage für den Speicher dienen.
 	 * @param startLoc Die Startposition, ab der der Speicher beschrieben wird.
 	 */
 	public void setMemory(byte[] mem, byte startLoc) {
-		if (mem.length + startLoc > RAM.size())
+		if (mem.length + (startLoc & 0xff) > RAM.size())
 			return;
+		ProgramLoadEvent event = new ProgramLoadEvent();
+		event.begin();
+		RAM.write(startLoc & 0xff, mem, 0, mem.length);
+		event.address = startLoc & 0xff;
+		event.size = mem.length;
+		event.commit();
+	}
 
-		for (byte i = 0; i < mem.length; ++i) {
-			RAM.AddressPointer.setValue((byte) (i + startLoc));
-			RAM.writeMemory(mem[i]);
-		}
+	/**
+	 * Lädt ein Programmabbild: der Code wird in einem Stück an seine Ladeadresse
+	 * kopiert und der Programmzähler auf die Einsprungadresse gesetzt.
+	 * 
+	 * @throws IllegalArgumentException falls der Code nicht in den Speicher passt.
+	 */
+	public void loadImage(SA2_Image image) {
+		if (image.loadAddress() + image.codeLength() > RAM.size())
+			throw new IllegalArgumentException("Image does not fit into memory.");
+		ProgramLoadEvent event = new ProgramLoadEvent();
+		event.begin();
+		RAM.write(image.loadAddress(), image.code(), 0, image.codeLength());
+		PC.setValue((byte) image.entryPoint());
+		event.address = image.loadAddress();
+		event.size = image.codeLength();
+		event.commit();
 	}
 
 	/**
-	 * Schreibt ein Byte an der gegebenen Stelle.
+	 * Schreibt ein Byte an der gegebenen Stelle, ohne das Adressregister zu
+	 * verändern.
 	 * 
 	 * @param mem Das zu schreibende Byte.
 	 * @param loc Die Stelle im Speicher, an der geschrieben werden soll. Falls
 	 *            dieser Wert zu hoch ist, wird nichts getan.
 	 */
 	public void setMemory(byte mem, byte loc) {
-		if (loc >= RAM.size())
+		if ((loc & 0xff) >= RAM.size())
 			return;
-		RAM.AddressPointer.setValue(loc);
-		RAM.writeMemory(mem);
+		RAM.write(loc & 0xff, mem);
 	}
 
 	/**
@@ -281,79 +460,91 @@ public class SA2_CPU {
 	 * @param mem
 	 */
 	public void setMemory(byte[] mem) {
+		ProgramLoadEvent event = new ProgramLoadEvent();
+		event.begin();
 		try {
 			RAM.setCompleteMemory(mem);
 		} catch (IllegalArgumentException e) {
 			return;
 		}
+		event.size = mem.length;
+		event.commit();
+	}
+
+	/**
+	 * Schreibt die Abschnitte eines Programms für die Bänke in den
+	 * Hintergrundspeicher, jeden an den Anfang seiner Bank, siehe
+	 * {@link SA2_Assembler#getBankCode()}. Hat der Arbeitsspeicher zu wenige
+	 * Bänke, bekommt er so viele wie nötig.
+	 * 
+	 * @param banks Der Code nach Nummer der Bank.
+	 */
+	public void setBankMemory(Map<Integer, byte[]> banks) {
+		int needed = 0;
+		for (int bank : banks.keySet())
+			needed = Math.max(needed, bank + 1);
+		if (needed > RAM.bankCount())
+			RAM.setBankCount(needed);
+		for (Map.Entry<Integer, byte[]> bank : banks.entrySet())
+			RAM.writeStorage(bank.getKey() * RandomAccessMemory.BANK_SIZE, bank.getValue(), 0,
+					bank.getValue().length);
+	}
+
+	/**
+	 * Gibt ein Datenbyte an die aktuelle Adresse des Ausgabebus aus; die Adressen
+	 * des Bankregisters gehören bei Speicher mit Bänken zum Arbeitsspeicher.
+	 */
+	void outputData(byte data) {
+		if (RAM.isBankRegister(OB.getAddressRegister().getValue()))
+			RAM.writeBankRegister(OB.getAddressRegister().getValue(), data);
+		else
+			OB.processData(data);
 	}
 
 	/**
 	 * Stellt die Kontrolllinien ein und verarbeitet somit den nächsten Mikrobefehl.
 	 */
-	@SuppressWarnings("static-access")
 	public void setControlLines() throws StackOverflowException, CPUException {
-		System.out.println("Invoked SA2_CPU.setControlLines() with current mic = " + microInstructionCounter);
+		if (history != null)
+			history.beginCycle();
 		if (halted)
 			return;
 
-		Long instructionToDo = 0l;
-		if (microInstructionCounter < 4) {
-			// Der Befehl ist noch nicht bekannt: Von-Neumann-Zyklus ausführen
-			System.out.println("Executing Von-Neumann-Cycle at " + microInstructionCounter);
-			instructionToDo = getVonNeumannCycle().get(microInstructionCounter);
-		} else {
-			// Beim ersten normalen Zyklus werden die neuen Mikrobefehle eingelesen
-			if (microInstructionCounter == 4) {
-				currentMicroInstructions = decodeInstruction(IP.getValue(), FR.getValue());
-			}
-
-			for (Long l : currentMicroInstructions) {
-				System.out.printf("%64s%n", Long.toBinaryString(l));
-			}
-			instructionToDo = currentMicroInstructions.get(microInstructionCounter - 4);
+		// Beim ersten Zyklus nach dem Von-Neumann-Zyklus wird die Zeile des neuen
+		// Befehls bestimmt; davor steht der Von-Neumann-Zyklus am Anfang jeder Zeile
+		// im ROM
+		if (microInstructionCounter == 4) {
+			currentMicrocodeRow = microcodeRow(IP.getValue(), FR.getValue());
+			instructionAddress = (PC.getValue() - 2) & 0xff;
+			if (traceLevel >= TraceSink.INSTRUCTION)
+				trace.trace(String.format("0x%02x: %02x %02x", instructionAddress, IP.getValue(), OP.getValue()));
 		}
+		long instructionToDo = MICROCODE[currentMicrocodeRow | microInstructionCounter];
+		if (traceLevel >= TraceSink.MICRO_OP)
+			trace.trace(String.format("  %d %64s", microInstructionCounter, Long.toBinaryString(instructionToDo)));
 
 		// falls haltline, wird sofort aufgehört
 		if ((instructionToDo & HLT) > 0) {
 			halted = true;
+			if (counters.enabled)
+				counters.retire(currentMicrocodeRow);
+			if (heatmap.enabled)
+				heatmap.retire(instructionAddress, currentMicrocodeRow);
+			if (profiler != null)
+				profiler.retire(currentMicrocodeRow, PC.getValue() & 0xff);
 			return;
 		}
 
-		//// Steuerlinien mit Merker oder unabhängigem Wert setzen
-		// Eingabe/Ausgabe von Registern und sonstiges
-		if ((instructionToDo & II) > 0)
-			busController.noteForReception(IP);
-		if ((instructionToDo & IO) > 0)
-			busController.noteForTransmission(IP);
-		if ((instructionToDo & CO) > 0)
-			busController.noteForTransmission(PC);
-		if ((instructionToDo & CI) > 0)
-			busController.noteForReception(PC);
+		int transfer = TRANSFERS[currentMicrocodeRow | microInstructionCounter];
+		if ((transfer & READ_FORBIDDEN) != 0)
+			throw new ReadForbiddenException("Read from non-read register!");
+
+		//// Steuerlinien mit unabhängigem Wert setzen; die Busübertragung geschieht
+		//// erst im Takt
 		if ((instructionToDo & CE) > 0)
 			PC.setValue((byte) (PC.getValue() + 1));
-		if ((instructionToDo & AO) > 0)
-			busController.noteForTransmission(A);
-		if ((instructionToDo & AI) > 0)
-			busController.noteForReception(A);
-		if ((instructionToDo & BO) > 0)
-			busController.noteForTransmission(B);
-		if ((instructionToDo & BI) > 0)
-			busController.noteForReception(B);
-		if ((instructionToDo & XO) > 0)
-			busController.noteForTransmission(X);
-		if ((instructionToDo & XI) > 0)
-			busController.noteForReception(X);
 		if ((instructionToDo & X1) > 0)
 			X.setValue((byte) 0x01);
-		if ((instructionToDo & OPO) > 0)
-			busController.noteForTransmission(OP);
-		if ((instructionToDo & OPI) > 0)
-			busController.noteForReception(OP);
-		if ((instructionToDo & SO) > 0)
-			busController.noteForTransmission(SP);
-		if ((instructionToDo & SI) > 0)
-			busController.noteForReception(SP);
 		if ((instructionToDo & SP1) > 0)
 			SP.setValue((byte) (SP.getValue() + 1));
 		if ((instructionToDo & SM1) > 0)
@@ -366,39 +557,7 @@ public class SA2_CPU {
 		 */
 
 		// ALU-Register setzen
-		if ((instructionToDo & SUB) > 0)
-			ALU.setOperand(ALURegister.SUBTRACTION);
-		else if ((instructionToDo & OR) > 0)
-			ALU.setOperand(ALURegister.OR);
-		else if ((instructionToDo & XOR) > 0)
-			ALU.setOperand(ALURegister.XOR);
-		else if ((instructionToDo & AND) > 0)
-			ALU.setOperand(ALURegister.AND);
-		else if ((instructionToDo & BSL) > 0)
-			ALU.setOperand(ALURegister.BITSHIFTLEFT);
-		else if ((instructionToDo & BSR) > 0)
-			ALU.setOperand(ALURegister.BITSHIFTRIGHT);
-		else
-			ALU.setOperand(ALURegister.ADDITION);
-		// ALU-Ausgabe
-		if ((instructionToDo & EO) > 0)
-			busController.noteForTransmission(ALU);
-		// Normales Ausgaberegister
-		if ((instructionToDo & OI) > 0)
-			busController.noteForReception(OUT);
-		// Speicherzugriff mit evtl. direktem Buszugriff
-		if ((instructionToDo & MAI) > 0)
-			busController.noteForReception(RAM.AddressPointer);
-		if ((instructionToDo & MO) > 0)
-			busController.noteForTransmission(RAM);
-		if ((instructionToDo & MI) > 0)
-			busController.noteForReception(RAM);
-
-		// Ausgabebus
-		if ((instructionToDo & OAI) > 0)
-			busController.noteForReception(OB.address);
-		if ((instructionToDo & ODI) > 0)
-			busController.noteForReception(OB);
+		ALU.setOperand(aluOperation(instructionToDo));
 
 		//// ALU-Berechnung ausführen und Flaggenregister setzen
 		byte flags = ALU.setValue(A, X);
@@ -407,6 +566,7 @@ public class SA2_CPU {
 			FR.setValue(flags);
 
 		curMicroInstruction = instructionToDo;
+		curTransfer = transfer;
 	}
 
 	/**
@@ -415,18 +575,63 @@ public class SA2_CPU {
 	 */
 	public void clock() throws StackOverflowException, CPUException {
 		long instructionToDo = curMicroInstruction;
+		int transfer = curTransfer;
+		curTransfer = NO_TRANSFER;
 
 		//// Buskommunikation ausführen
-		busController.execute();
-		try {
-			lastBusVal = bus.recieveFrom();
-		} catch (CPUException e) {
-			lastBusVal = 0;
+		int source = transfer & SOURCE_MASK;
+		int targets = transfer >>> TARGET_SHIFT & (1 << UNIT_OUTPUT_BUS + 1) - 1;
+		byte value = 0;
+		if (source != NO_SOURCE) {
+			value = source == UNIT_RAM ? RAM.readMemory() : units[source].getValue();
+			// das Holen des Befehls im Von-Neumann-Zyklus ist kein Datenzugriff
+			if (breakpoints.active && source == UNIT_RAM && microInstructionCounter >= 4)
+				breakpoints.checkRead(RAM.AddressPointer.getValue() & 0xff);
+			bus.transmitTo(value);
+			if ((transfer & SHORT_CIRCUIT) != 0)
+				throw new CPUException("Short circuit / two registers writing to same bus.");
+		} else if (targets != 0) {
+			throw new CPUException("Read from unwritten bus.");
+		}
+		lastBusVal = bus.recieveOr((byte) 0);
+		if (traceLevel >= TraceSink.BUS && (source != NO_SOURCE || targets != 0))
+			traceTransfer(transfer, value);
+
+		// Empfänger in fester Reihenfolge, damit das Speicheradressregister vor dem
+		// Speicher empfängt
+		while (targets != 0) {
+			int unit = Integer.numberOfTrailingZeros(targets);
+			targets &= targets - 1;
+			if (unit <= UNIT_MAR) {
+				units[unit].setValue(value);
+			} else if (unit == UNIT_RAM) {
+				if (breakpoints.active)
+					breakpoints.checkWrite(RAM.AddressPointer.getValue() & 0xff);
+				RAM.writeMemory(value);
+			} else if (unit == UNIT_OUTPUT_ADDRESS) {
+				if (history != null)
+					history.outputBusChanging();
+				OB.getAddressRegister().setValue(value);
+			} else {
+				if (history != null)
+					history.outputBusChanging();
+				if (RAM.isBankRegister(OB.getAddressRegister().getValue())) {
+					RAM.writeBankRegister(OB.getAddressRegister().getValue(), value);
+				} else {
+					OB.setToRecieve();
+					OB.clock();
+				}
+			}
 		}
 
 		// Ausgabebusbefehl
-		if ((instructionToDo & OCI) > 0)
-			OB.processCommand(bus.recieveFrom());
+		if ((instructionToDo & OCI) > 0) {
+			if (!bus.hasValue())
+				throw new CPUException("Read from unwritten bus.");
+			if (history != null)
+				history.outputBusChanging();
+			OB.processCommand(value);
+		}
 
 		//// Übrige Register und Busse clocken
 		ALU.clock();
@@ -438,347 +643,545 @@ public class SA2_CPU {
 
 		if ((instructionToDo & MSR) > 0)
 			microInstructionCounter = 0;
+
+		++cycles;
+		if (halted || microInstructionCounter == 0)
+			++instructions;
+		if (!halted && microInstructionCounter == 0) {
+			if (counters.enabled)
+				counters.retire(currentMicrocodeRow);
+			if (heatmap.enabled)
+				heatmap.retire(instructionAddress, currentMicrocodeRow);
+			if (profiler != null)
+				profiler.retire(currentMicrocodeRow, PC.getValue() & 0xff);
+		}
+	}
+
+	/**
+	 * Führt Mikrobefehle aus, bis die CPU anhält, einen der {@link #breakpoints}
+	 * trifft oder die gegebene Anzahl an Taktzyklen erreicht ist.
+	 * 
+	 * @return Die Anzahl der ausgeführten Taktzyklen.
+	 */
+	public long run(long maxCycles) throws StackOverflowException, CPUException {
+		final RunRecorder recorder = new RunRecorder("micro", instructions);
+		long executed = 0, nextSample = recorder.nextSample();
+		breakpoints.clearHit();
+		try {
+			while (!halted && executed < maxCycles) {
+				if (breakpoints.active && executed > 0 && microInstructionCounter == 0
+						&& breakpoints.checkExecute(PC.getValue() & 0xff))
+					break;
+				setControlLines();
+				clock();
+				++executed;
+				if (breakpoints.hitKind != Breakpoints.NONE)
+					break;
+				if (executed >= nextSample)
+					nextSample = recorder.sample(executed);
+			}
+		} finally {
+			recorder.finish(executed, instructions, halted);
+		}
+		return executed;
+	}
+
+	/**
+	 * @return Die Anzahl der insgesamt ausgeführten Taktzyklen.
+	 */
+	public long cycles() {
+		return cycles;
+	}
+
+	/**
+	 * @return Die Anzahl der insgesamt ausgeführten Maschinenbefehle.
+	 */
+	public long instructions() {
+		return instructions;
+	}
+
+	/**
+	 * Zählt Befehle, die eine schnellere Ausführung ohne Mikrobefehlssimulation
+	 * ausgeführt hat, zu {@link #cycles()} und {@link #instructions()} hinzu.
+	 */
+	void retired(long cycleCount, long instructionCount) {
+		cycles += cycleCount;
+		instructions += instructionCount;
+	}
+
+	/**
+	 * Meldet eine Busübertragung an die Ablaufverfolgung.
+	 */
+	private void traceTransfer(int transfer, byte value) {
+		StringBuilder message = new StringBuilder(String.format("    Bus 0x%02x: ", value));
+		int source = transfer & SOURCE_MASK;
+		message.append(source == NO_SOURCE ? "-" : UNIT_NAMES[source]).append(" ->");
+		for (int unit = 0; unit < UNIT_NAMES.length; ++unit)
+			if ((transfer >>> TARGET_SHIFT + unit & 1) != 0)
+				message.append(' ').append(UNIT_NAMES[unit]);
+		trace.trace(message.toString());
+	}
+
+	/**
+	 * Stellt die Ablaufverfolgung ein.
+	 * 
+	 * @param sink  Das Ziel der Meldungen; {@code null} schaltet die
+	 *              Ablaufverfolgung aus.
+	 * @param level Eine der Stufen aus {@link TraceSink}, etwa
+	 *              {@link TraceSink#INSTRUCTION}.
+	 */
+	public void setTrace(TraceSink sink, int level) {
+		this.trace = sink;
+		this.traceLevel = sink == null ? TraceSink.OFF : level;
+	}
+
+	/**
+	 * Meldet eine Aufzeichnung für die Rückwärtsausführung an oder mit
+	 * {@code null} wieder ab.
+	 * 
+	 * @throws IllegalStateException falls schon eine andere Aufzeichnung
+	 *                               angemeldet ist.
+	 */
+	void setHistory(SA2_History history) {
+		if (history != null && this.history != null && this.history != history)
+			throw new IllegalStateException("CPU already has a history attached.");
+		this.history = history;
+	}
+
+	/**
+	 * Meldet einen Profiler der Aufrufstapel an oder mit {@code null} wieder ab.
+	 * 
+	 * @throws IllegalStateException falls schon ein anderer Profiler angemeldet
+	 *                               ist.
+	 */
+	void setProfiler(CallProfiler profiler) {
+		if (profiler != null && this.profiler != null && this.profiler != profiler)
+			throw new IllegalStateException("CPU already has a profiler attached.");
+		this.profiler = profiler;
+	}
+
+	/**
+	 * @return Die eingestellte Stufe der Ablaufverfolgung.
+	 */
+	public int traceLevel() {
+		return traceLevel;
 	}
 
 	/**
 	 * Dekodiert einen Maschinenbefehl in eine Liste von maximal acht
 	 * Mikrobefehlen.<br>
-	 * Natürlich beachtet diese Methode die gesetzten Flaggen im Flaggenbyte.
+	 * Natürlich beachtet diese Methode die gesetzten Flaggen im Flaggenbyte.<br>
+	 * Die Liste wird aus dem Mikrocode-ROM gelesen und ist nur für Anzeige und
+	 * Debugging gedacht; die CPU selbst liest direkt aus dem ROM.
 	 */
 	public static List<Long> decodeInstruction(byte instruction, byte flags) {
 		List<Long> microinstructions = new ArrayList<Long>();
+		int row = microcodeRow(instruction, flags);
+		for (int step = 4; step < MICROSTEPS; ++step) {
+			long microinstruction = MICROCODE[row | step];
+			microinstructions.add(microinstruction);
+			if ((microinstruction & MSR) != 0)
+				break;
+		}
+		return microinstructions;
+	}
+
+	/**
+	 * Übersetzt einen Maschinenbefehl in seine Mikrobefehle (ohne
+	 * Von-Neumann-Zyklus). Wird nur beim Aufbau des Mikrocode-ROMs verwendet.
+	 */
+	private static long[] microinstructionsOf(byte instruction, byte flags) {
+		long[] microinstructions = {};
 		switch (instruction) {
 			case 0x01:
 				// halt
-				microinstructions.add(HLT);
+				microinstructions = steps(HLT);
 				break;
 
 			case 0x10:
 				// lade aus dem Speicher in a
-				microinstructions.add(OPO | MAI);
-				microinstructions.add(MO | AI);
+				microinstructions = steps(OPO | MAI, MO | AI);
 				break;
 			case 0x11:
 				// lade aus dem Speicher in b
-				microinstructions.add(OPO | MAI);
-				microinstructions.add(MO | BI);
+				microinstructions = steps(OPO | MAI, MO | BI);
 				break;
 			case 0x12:
 				// lade direkt in a
-				microinstructions.add(OPO | AI);
+				microinstructions = steps(OPO | AI);
 				break;
 			case 0x13:
 				// lade direkt in b
-				microinstructions.add(OPO | BI);
+				microinstructions = steps(OPO | BI);
 				break;
 
 			case 0x20:
 				// speichere a im Hauptspeicher
-				microinstructions.add(OPO | MAI);
-				microinstructions.add(AO | MI);
+				microinstructions = steps(OPO | MAI, AO | MI);
 				break;
 			case 0x21:
 				// speichere b im Hauptspeicher
-				microinstructions.add(OPO | MAI);
-				microinstructions.add(BO | MI);
+				microinstructions = steps(OPO | MAI, BO | MI);
 				break;
 
 			case 0x30:
 				// addiere b
-				microinstructions.add(BO | XI);
-				microinstructions.add(EO | AI);
+				microinstructions = steps(BO | XI, EO | AI);
 				break;
 			case 0x31:
 				// addiere x
-				microinstructions.add(EO | AI);
+				microinstructions = steps(EO | AI);
 				break;
 			case 0x32:
 				// addieren aus Speicher
-				microinstructions.add(OPO | MAI);
-				microinstructions.add(MO | XI);
-				microinstructions.add(EO | AI);
+				microinstructions = steps(OPO | MAI, MO | XI, EO | AI);
 				break;
 			case 0x33:
 				// addieren aus Speicher mit b als Speicheradresse
-				microinstructions.add(BO | MAI);
-				microinstructions.add(MO | XI);
-				microinstructions.add(EO | AI);
+				microinstructions = steps(BO | MAI, MO | XI, EO | AI);
 				break;
 			case 0x34:
 				// addieren aus Speicher mit x als Speicheradresse
-				microinstructions.add(XO | MAI);
-				microinstructions.add(MO | XI);
-				microinstructions.add(SUB | EO | AI);
+				microinstructions = steps(XO | MAI, MO | XI, SUB | EO | AI);
 				break;
 
 			case 0x40:
 				// subtrahiere b
-				microinstructions.add(BO | XI);
-				microinstructions.add(SUB | EO | AI);
+				microinstructions = steps(BO | XI, SUB | EO | AI);
 				break;
 			case 0x41:
 				// subtrahiere x
-				microinstructions.add(SUB | EO | AI);
+				microinstructions = steps(SUB | EO | AI);
 				break;
 			case 0x42:
 				// subtrahieren aus Speicher
-				microinstructions.add(OPO | MAI);
-				microinstructions.add(MO | XI);
-				microinstructions.add(SUB | EO | AI);
+				microinstructions = steps(OPO | MAI, MO | XI, SUB | EO | AI);
 				break;
 			case 0x43:
 				// subtrahieren aus Speicher mit b als Speicheradresse
-				microinstructions.add(BO | MAI);
-				microinstructions.add(MO | XI);
-				microinstructions.add(SUB | EO | AI);
+				microinstructions = steps(BO | MAI, MO | XI, SUB | EO | AI);
 				break;
 			case 0x44:
 				// subtrahieren aus Speicher mit x als Speicheradresse
-				microinstructions.add(XO | MAI);
-				microinstructions.add(MO | XI);
-				microinstructions.add(SUB | EO | AI);
+				microinstructions = steps(XO | MAI, MO | XI, SUB | EO | AI);
 				break;
 
 			case 0x50:
 				// oder b
-				microinstructions.add(BO | XI);
-				microinstructions.add(OR | EO | AI);
+				microinstructions = steps(BO | XI, OR | EO | AI);
 				break;
 			case 0x51:
 				// oder x
-				microinstructions.add(OR | EO | AI);
+				microinstructions = steps(OR | EO | AI);
 				break;
 			case 0x52:
 				// odern aus Speicher
-				microinstructions.add(OPO | MAI);
-				microinstructions.add(MO | XI);
-				microinstructions.add(OR | EO | AI);
+				microinstructions = steps(OPO | MAI, MO | XI, OR | EO | AI);
 				break;
 			case 0x53:
 				// odern aus Speicher mit b als Speicheradresse
-				microinstructions.add(BO | MAI);
-				microinstructions.add(MO | XI);
-				microinstructions.add(OR | EO | AI);
+				microinstructions = steps(BO | MAI, MO | XI, OR | EO | AI);
 				break;
 			case 0x54:
 				// odern aus Speicher mit x als Speicheradresse
-				microinstructions.add(XO | MAI);
-				microinstructions.add(MO | XI);
-				microinstructions.add(OR | EO | AI);
+				microinstructions = steps(XO | MAI, MO | XI, OR | EO | AI);
 				break;
 
 			case 0x60:
 				// exklusiv oder b
-				microinstructions.add(BO | XI);
-				microinstructions.add(XOR | EO | AI);
+				microinstructions = steps(BO | XI, XOR | EO | AI);
 				break;
 			case 0x61:
 				// exklusiv oder x
-				microinstructions.add(XOR | EO | AI);
+				microinstructions = steps(XOR | EO | AI);
 				break;
 			case 0x62:
 				// exklusiv odern aus Speicher
-				microinstructions.add(OPO | MAI);
-				microinstructions.add(MO | XI);
-				microinstructions.add(XOR | EO | AI);
+				microinstructions = steps(OPO | MAI, MO | XI, XOR | EO | AI);
 				break;
 			case 0x63:
 				// exklusiv odern aus Speicher mit b als Speicheradresse
-				microinstructions.add(BO | MAI);
-				microinstructions.add(MO | XI);
-				microinstructions.add(XOR | EO | AI);
+				microinstructions = steps(BO | MAI, MO | XI, XOR | EO | AI);
 				break;
 			case 0x64:
 				// exklusiv odern aus Speicher mit x als Speicheradresse
-				microinstructions.add(XO | MAI);
-				microinstructions.add(MO | XI);
-				microinstructions.add(XOR | EO | AI);
+				microinstructions = steps(XO | MAI, MO | XI, XOR | EO | AI);
 				break;
 
 			case 0x70:
 				// und b
-				microinstructions.add(BO | XI);
-				microinstructions.add(AND | EO | AI);
+				microinstructions = steps(BO | XI, AND | EO | AI);
 				break;
 			case 0x71:
 				// und x
-				microinstructions.add(AND | EO | AI);
+				microinstructions = steps(AND | EO | AI);
 				break;
 			case 0x72:
 				// undn aus Speicher
-				microinstructions.add(OPO | MAI);
-				microinstructions.add(MO | XI);
-				microinstructions.add(AND | EO | AI);
+				microinstructions = steps(OPO | MAI, MO | XI, AND | EO | AI);
 				break;
 			case 0x73:
 				// undn aus Speicher mit b als Speicheradresse
-				microinstructions.add(BO | MAI);
-				microinstructions.add(MO | XI);
-				microinstructions.add(AND | EO | AI);
+				microinstructions = steps(BO | MAI, MO | XI, AND | EO | AI);
 				break;
 			case 0x74:
 				// undn aus Speicher mit x als Speicheradresse
-				microinstructions.add(XO | MAI);
-				microinstructions.add(MO | XI);
-				microinstructions.add(AND | EO | AI);
+				microinstructions = steps(XO | MAI, MO | XI, AND | EO | AI);
 				break;
 
 			case (byte) 0x81:
 				// nicht a
-				microinstructions.add(NOT | EO | AI);
+				microinstructions = steps(NOT | EO | AI);
 				break;
 			case (byte) 0x82:
 				// bishift left a
-				microinstructions.add(BSL | EO | AI);
+				microinstructions = steps(BSL | EO | AI);
 				break;
 			case (byte) 0x83:
 				// bishift right a
-				microinstructions.add(BSL | EO | AI);
+				microinstructions = steps(BSL | EO | AI);
 				break;
 			case (byte) 0x84:
 				// increment a (add x und x=1)
-				microinstructions.add(X1 | EO | AI);
+				microinstructions = steps(X1 | EO | AI);
 				break;
 			case (byte) 0x85:
 				// decrement a
-				microinstructions.add(X1 | SUB | EO | AI);
+				microinstructions = steps(X1 | SUB | EO | AI);
 				break;
 
 			case (byte) 0x90:
 				// normale ausgabe
-				microinstructions.add(AO | OI);
+				microinstructions = steps(AO | OI);
 				break;
 			case (byte) 0x91:
 				// ausgabebefehl
-				microinstructions.add(OPO | OCI);
+				microinstructions = steps(OPO | OCI);
 				break;
 			case (byte) 0x92:
 				// ausgabeadresse
-				microinstructions.add(OPO | OAI);
+				microinstructions = steps(OPO | OAI);
 				break;
 			case (byte) 0x93:
 				// ausgabedaten
-				microinstructions.add(OPO | ODI);
+				microinstructions = steps(OPO | ODI);
 				break;
 
 			case (byte) 0xa0:
 				// unbedingter sprung
-				microinstructions.add(OPO | CI);
+				microinstructions = steps(OPO | CI);
 				break;
 			case (byte) 0xa1:
 				// bedingter sprung falls carry
 				if (FlagRegister.carryFlagSet(flags))
-					microinstructions.add(OPO | CI);
+					microinstructions = steps(OPO | CI);
 				break;
 			case (byte) 0xa2:
 				// bedingter sprung falls nicht carry
 				if (!FlagRegister.carryFlagSet(flags))
-					microinstructions.add(OPO | CI);
+					microinstructions = steps(OPO | CI);
 				break;
 			case (byte) 0xa3:
 				// bedingter sprung falls zero
 				if (FlagRegister.zeroFlagSet(flags))
-					microinstructions.add(OPO | CI);
+					microinstructions = steps(OPO | CI);
 				break;
 			case (byte) 0xa4:
 				// bedingter sprung falls nicht zero
 				if (!FlagRegister.zeroFlagSet(flags))
-					microinstructions.add(OPO | CI);
+					microinstructions = steps(OPO | CI);
 				break;
 			case (byte) 0xa5:
 				// bedingter sprung falls parity (ungerade)
 				if (FlagRegister.parityFlagSet(flags))
-					microinstructions.add(OPO | CI);
+					microinstructions = steps(OPO | CI);
 				break;
 			case (byte) 0xa6:
 				// bedingter sprung falls nicht parity (gerade)
 				if (!FlagRegister.parityFlagSet(flags))
-					microinstructions.add(OPO | CI);
+					microinstructions = steps(OPO | CI);
 				break;
 			case (byte) 0xa7:
 				// rufe unterroutine auf (rücksprungadresse auf stack)
-				microinstructions.add(SO | MAI);
-				microinstructions.add(CO | MI | SM1);
-				microinstructions.add(OPO | CI);
+				microinstructions = steps(SO | MAI, CO | MI | SM1, OPO | CI);
 				break;
 			case (byte) 0xa8:
 				// rücksprung zur letzten rücksprungadresse auf stack
-				microinstructions.add(SP1);
-				microinstructions.add(SO | MAI);
-				microinstructions.add(MO | CI);
+				microinstructions = steps(SP1, SO | MAI, MO | CI);
 				break;
 
 			case (byte) 0xb0:
 				// a auf stack speichern
-				microinstructions.add(SO | MAI);
-				microinstructions.add(AO | MI | SM1);
+				microinstructions = steps(SO | MAI, AO | MI | SM1);
 				break;
 			case (byte) 0xb1:
 				// letztes stackelement in a speichern
-				microinstructions.add(SP1);
-				microinstructions.add(SO | AI);
+				microinstructions = steps(SP1, SO | AI);
 				break;
 			case (byte) 0xb2:
 				// b auf stack speichern
-				microinstructions.add(SO | MAI);
-				microinstructions.add(BO | MI | SM1);
+				microinstructions = steps(SO | MAI, BO | MI | SM1);
 				break;
 			case (byte) 0xb3:
 				// letztes stackelement in b speichern
-				microinstructions.add(SP1);
-				microinstructions.add(SO | BI);
+				microinstructions = steps(SP1, SO | BI);
 				break;
 			case (byte) 0xb4:
 				// stack zurücksetzen, stackbeginn ist in op
-				microinstructions.add(OPO | SI);
+				microinstructions = steps(OPO | SI);
 				break;
 
 			case (byte) 0x23:
 				// a nach b verschieben
-				microinstructions.add(AO | BI);
+				microinstructions = steps(AO | BI);
 				break;
 			case (byte) 0x24:
 				// a nach x verschieben
-				microinstructions.add(AO | XI);
+				microinstructions = steps(AO | XI);
 				break;
 			case (byte) 0x25:
 				// b nach a verschieben
-				microinstructions.add(BO | AI);
+				microinstructions = steps(BO | AI);
 				break;
 			case (byte) 0x27:
 				// b nach x verschieben
-				microinstructions.add(BO | XI);
+				microinstructions = steps(BO | XI);
 				break;
 			case (byte) 0x28:
 				// sp nach a verschieben
-				microinstructions.add(SO | AI);
+				microinstructions = steps(SO | AI);
 				break;
 			case (byte) 0x29:
 				// sp nach b verschieben
-				microinstructions.add(SO | BI);
+				microinstructions = steps(SO | BI);
 				break;
 			case (byte) 0x2a:
 				// sp nach x verschieben
-				microinstructions.add(SO | XI);
+				microinstructions = steps(SO | XI);
 				break;
 			case (byte) 0x2b:
 				// a und b tauschen (überschreibt x)
-				microinstructions.add(AO | XI);
-				microinstructions.add(BO | AI);
-				microinstructions.add(XO | BI);
+				microinstructions = steps(AO | XI, BO | AI, XO | BI);
 				break;
 		} // end of decode
 
 		// egal wie viele Befehle, am Ende wird der Mikrobefehlszähler zurückgesetzt, um
 		// keine Zyklen zu verschwenden
-		if (!microinstructions.isEmpty()) {
-			microinstructions.set(microinstructions.size() - 1, microinstructions.get(microinstructions.size() - 1) | MSR);
+		if (microinstructions.length > 0) {
+			microinstructions[microinstructions.length - 1] |= MSR;
 		} else {
-			microinstructions.add(MSR);
+			microinstructions = steps(MSR);
 		}
 		return microinstructions;
 	}
 
+	/** Hilfsmethode für die übersichtliche Angabe von Mikrobefehlsfolgen. */
+	private static long[] steps(long... microinstructions) {
+		return microinstructions;
+	}
+
+	/**
+	 * Baut das Mikrocode-ROM auf: Für jeden Befehl und jede Kombination der drei
+	 * Flaggen werden Von-Neumann-Zyklus und Mikrobefehle in eine Zeile zu
+	 * {@link #MICROSTEPS} Einträgen geschrieben. Nicht benutzte Einträge bleiben 0.
+	 */
+	private static long[] buildMicrocode() {
+		long[] rom = new long[256 * 8 * MICROSTEPS];
+		for (int instruction = 0; instruction < 256; ++instruction) {
+			for (int flags = 0; flags < 8; ++flags) {
+				int row = microcodeRow((byte) instruction, (byte) flags);
+				System.arraycopy(VON_NEUMANN_CYCLE, 0, rom, row, VON_NEUMANN_CYCLE.length);
+				long[] microinstructions = microinstructionsOf((byte) instruction, (byte) flags);
+				System.arraycopy(microinstructions, 0, rom, row + VON_NEUMANN_CYCLE.length, microinstructions.length);
+			}
+		}
+		return rom;
+	}
+
+	/**
+	 * Zählt für jede Zeile im Mikrocode-ROM die Mikrobefehle bis einschließlich
+	 * des Befehls mit {@link #MSR} oder {@link #HLT}.
+	 */
+	private static byte[] measureMicrocode() {
+		byte[] lengths = new byte[MICROCODE.length / MICROSTEPS];
+		for (int row = 0; row < lengths.length; ++row) {
+			byte length = 0;
+			for (int step = VON_NEUMANN_CYCLE.length; step < MICROSTEPS; ++step) {
+				++length;
+				if ((MICROCODE[row * MICROSTEPS + step] & (MSR | HLT)) != 0)
+					break;
+			}
+			lengths[row] = length;
+		}
+		return lengths;
+	}
+
+	/**
+	 * Bestimmt für jeden Eintrag im Mikrocode-ROM die sendende und die
+	 * empfangenden Buseinheiten.
+	 */
+	private static int[] planTransfers() {
+		final long[] sourceLines = { IO, CO, AO, BO, XO, OPO, SO, EO, MO };
+		final int[] sourceUnits = { UNIT_IP, UNIT_PC, UNIT_A, UNIT_B, UNIT_X, UNIT_OP, UNIT_SP, UNIT_ALU, UNIT_RAM };
+		final long[] targetLines = { II, CI, AI, BI, XI, OPI, SI, OI, MAI, MI, OAI, ODI };
+		final int[] targetUnits = { UNIT_IP, UNIT_PC, UNIT_A, UNIT_B, UNIT_X, UNIT_OP, UNIT_SP, UNIT_OUT, UNIT_MAR,
+				UNIT_RAM, UNIT_OUTPUT_ADDRESS, UNIT_OUTPUT_BUS };
+
+		int[] transfers = new int[MICROCODE.length];
+		for (int i = 0; i < MICROCODE.length; ++i) {
+			long microinstruction = MICROCODE[i];
+			int transfer = NO_SOURCE;
+			for (int line = 0; line < sourceLines.length; ++line) {
+				if ((microinstruction & sourceLines[line]) == 0)
+					continue;
+				if ((transfer & SOURCE_MASK) != NO_SOURCE)
+					transfer |= SHORT_CIRCUIT;
+				else
+					transfer = transfer & ~SOURCE_MASK | sourceUnits[line];
+			}
+			// das Befehlsregister ist nicht lesbar
+			if ((microinstruction & IO) != 0)
+				transfer |= READ_FORBIDDEN;
+			for (int line = 0; line < targetLines.length; ++line)
+				if ((microinstruction & targetLines[line]) != 0)
+					transfer |= 1 << TARGET_SHIFT + targetUnits[line];
+			transfers[i] = transfer;
+		}
+		return transfers;
+	}
+
+	/**
+	 * Gibt den Anfang der Zeile im Mikrocode-ROM für den gegebenen Befehl mit den
+	 * gegebenen Flaggen zurück. Der Mikrobefehlszähler wird mit diesem Wert
+	 * verodert, um den aktuellen Mikrobefehl zu erhalten.
+	 */
+	static int microcodeRow(byte instruction, byte flags) {
+		return ((instruction & 0xff) << 3 | (flags & 0x07)) << 3;
+	}
+
+	/**
+	 * Gibt die Rechenoperation zurück, die die ALU bei dem gegebenen Mikrobefehl
+	 * ausführt.
+	 * 
+	 * @see ALURegister#setOperand(int)
+	 */
+	static int aluOperation(long microinstruction) {
+		if ((microinstruction & SUB) > 0)
+			return ALURegister.SUBTRACTION;
+		else if ((microinstruction & OR) > 0)
+			return ALURegister.OR;
+		else if ((microinstruction & XOR) > 0)
+			return ALURegister.XOR;
+		else if ((microinstruction & AND) > 0)
+			return ALURegister.AND;
+		else if ((microinstruction & BSL) > 0)
+			return ALURegister.BITSHIFTLEFT;
+		else if ((microinstruction & BSR) > 0)
+			return ALURegister.BITSHIFTRIGHT;
+		else
+			return ALURegister.ADDITION;
+	}
+
 	/**
 	 * Gibt zurück, ob der gegebene Befehl ein Befehl ist, der einen Operanden
 	 * benötigt.
@@ -801,12 +1204,8 @@ public class SA2_CPU {
 	public static List<Long> getVonNeumannCycle() {
 		// Von-Neumann-Mikrobefehle
 		List<Long> vnmi = new ArrayList<Long>();
-		// Von-Neumann-Zyklus
-		vnmi.add(CO | MAI);
-		vnmi.add(MO | II | CE);
-		vnmi.add(CO | MAI);
-		vnmi.add(MO | OPI | CE);
-
+		for (long microinstruction : VON_NEUMANN_CYCLE)
+			vnmi.add(microinstruction);
 		return vnmi;
 	}
 
@@ -822,7 +1221,16 @@ public class SA2_CPU {
 	 * @return Ob der Bus der CPU zu diesem Zeitpunkt genutzt wird.
 	 */
 	public boolean busIsUsed() {
-		return busController.busIsUsed();
+		return curTransfer != NO_TRANSFER;
+	}
+
+	/**
+	 * @param unit Eine der Buseinheiten, etwa {@link #UNIT_A}.
+	 * @return Ob die Buseinheit im nächsten Takt auf den Bus sendet oder von ihm
+	 *         empfängt.
+	 */
+	public boolean unitIsActing(int unit) {
+		return (curTransfer & SOURCE_MASK) == unit || (curTransfer >>> TARGET_SHIFT + unit & 1) != 0;
 	}
 
 	/**
@@ -832,4 +1240,30 @@ public class SA2_CPU {
 		return this.lastBusVal;
 	}
 
+	/**
+	 * @return Der Zähler der Mikrobefehle; 0 bedeutet, dass die CPU zwischen zwei
+	 *         Befehlen steht.
+	 */
+	public byte microInstructionCounter() {
+		return this.microInstructionCounter;
+	}
+
+	/**
+	 * Übernimmt den Steuerzustand, den die CPU nach einem außerhalb der
+	 * Mikrobefehlssimulation (etwa vom {@link SA2_FastEngine}) ausgeführten Befehl
+	 * hätte.
+	 * 
+	 * @param microcodeRow     Zeile des ausgeführten Befehls im Mikrocode-ROM.
+	 * @param counter          Neuer Stand des Mikrobefehlszählers.
+	 * @param microinstruction Zuletzt ausgeführter Mikrobefehl.
+	 * @param busVal           Zuletzt auf dem Bus liegender Wert.
+	 */
+	void setMicrocodeState(int microcodeRow, byte counter, long microinstruction, byte busVal) {
+		this.currentMicrocodeRow = microcodeRow;
+		this.microInstructionCounter = counter;
+		this.curMicroInstruction = microinstruction;
+		this.lastBusVal = busVal;
+		this.curTransfer = NO_TRANSFER;
+	}
+
 }
@@ -0,0 +1,190 @@
+package klfr.sa2emu.cpuemulator;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Übersetzt Maschinencode im Arbeitsspeicher zurück in SA2-Assembly. Jeder
+ * Befehl besteht wie in der CPU aus zwei Bytes, Befehl und Operand; ob der
+ * Operand angezeigt wird, legt die Tabelle der bekannten Befehle fest, bei
+ * unbekannten Befehlen {@link SA2_CPU#isOperandInstruction(byte)}. Die
+ * Schreibweise ist die des {@link SA2_Assembler}, Sprünge zeigen allerdings
+ * ihre Zieladresse statt eines Labels. Wieder assemblieren lassen sich nur
+ * bekannte Befehle: unbekannte erscheinen als Bytes wie {@code 0x0f}, die der
+ * Assembler nicht annimmt, und Befehle ohne Operand wie {@code move a -> a}
+ * (0x22) erhalten dabei den Operanden 0.<br>
+ * <br>
+ * Die Texte aller 256 Befehle und Operanden werden einmal beim Laden der
+ * Klasse vorberechnet. Außerdem merkt sich der Disassembler den Text für jede
+ * Adresse, bis der Speicher an dieser Adresse oder der folgenden beschrieben
+ * wird; dafür ist er als {@link MemoryObserver} angemeldet, bis er mit
+ * {@link #close()} wieder abgemeldet wird.
+ *
+ * @author kleines Filmröllchen
+ */
+public class SA2_Disassembler implements MemoryObserver, AutoCloseable {
+
+	/**
+	 * Text jedes Befehls vor und nach dem Operanden; {@code null} nach dem
+	 * Operanden, falls der Operand nicht angezeigt wird.
+	 */
+	private static final String[] PREFIX = new String[256], SUFFIX = new String[256];
+	/** Text jedes Operanden, dezimal wie im Assembler. */
+	private static final String[] NUMBERS = new String[256];
+
+	static {
+		for (int i = 0; i < 256; ++i)
+			NUMBERS[i] = Integer.toString(i);
+
+		define(0x01, "halt");
+		define(0x10, "load $", " -> a");
+		define(0x11, "load $", " -> b");
+		define(0x12, "load ", " -> a");
+		define(0x13, "load ", " -> b");
+		define(0x20, "store a -> $", "");
+		define(0x21, "store b -> $", "");
+		String[] registers = { "a", "b", "x" };
+		for (int from = 0; from < 2; ++from)
+			for (int to = 0; to < 3; ++to)
+				define(0x22 + from * 3 + to, "move " + registers[from] + " -> " + registers[to]);
+		for (int to = 0; to < 3; ++to)
+			define(0x28 + to, "move sp -> " + registers[to]);
+		define(0x2b, "swap");
+
+		String[] operations = { "add", "sub", "or", "xor", "and" };
+		for (int i = 0; i < operations.length; ++i) {
+			int base = 0x30 + i * 0x10;
+			define(base, operations[i] + " b");
+			define(base + 1, operations[i] + " x");
+			define(base + 2, operations[i] + " $", "");
+			define(base + 3, operations[i] + " $b");
+			define(base + 4, operations[i] + " $x");
+		}
+		define(0x81, "not");
+		define(0x82, "bitsl");
+		define(0x83, "bitsr");
+		define(0x84, "inc");
+		define(0x85, "dec");
+
+		define(0x90, "out");
+		String[] modes = { "cmd", "addr", "dat" };
+		for (int i = 0; i < modes.length; ++i) {
+			define(0x91 + i, "out " + modes[i] + " ", "");
+			define(0x94 + i, "out " + modes[i] + " $", "");
+		}
+
+		String[] jumps = { "jmp", "jmpc", "jmpnc", "jmpz", "jmpnz", "jmpp", "jmpnp", "call" };
+		for (int i = 0; i < jumps.length; ++i)
+			define(0xa0 + i, jumps[i] + " $", "");
+		define(0xa8, "return");
+
+		define(0xb0, "push a");
+		define(0xb1, "pop a");
+		define(0xb2, "push b");
+		define(0xb3, "pop b");
+		define(0xb4, "stkrest");
+
+		// unbekannte Befehle als Bytes
+		for (int opcode = 0; opcode < 256; ++opcode) {
+			if (PREFIX[opcode] != null)
+				continue;
+			boolean operand = SA2_CPU.isOperandInstruction((byte) opcode);
+			PREFIX[opcode] = String.format(operand ? "0x%02x " : "0x%02x", opcode);
+			SUFFIX[opcode] = operand ? "" : null;
+		}
+	}
+
+	/** Ein Befehl, dessen Operand angezeigt wird. */
+	private static void define(int opcode, String prefix, String suffix) {
+		PREFIX[opcode] = prefix;
+		SUFFIX[opcode] = suffix;
+	}
+
+	/** Ein Befehl ohne Operand. */
+	private static void define(int opcode, String text) {
+		define(opcode, text, null);
+	}
+
+	private final RandomAccessMemory memory;
+	/** Text des Befehls an jeder Adresse; {@code null}, wenn er neu zu bilden ist. */
+	private final String[] lines;
+	/** Wird bei jeder Änderung des Speichers erhöht. */
+	private int version = 0;
+
+	/**
+	 * Erzeugt einen Disassembler für den Speicher und meldet ihn dort an.
+	 */
+	public SA2_Disassembler(RandomAccessMemory memory) {
+		this.memory = memory;
+		this.lines = new String[memory.size()];
+		memory.addObserver(this);
+	}
+
+	/**
+	 * @return Der Text eines einzelnen Befehls.
+	 */
+	public static String decode(byte opcode, byte operand) {
+		int i = opcode & 0xff;
+		return SUFFIX[i] == null ? PREFIX[i] : PREFIX[i] + NUMBERS[operand & 0xff] + SUFFIX[i];
+	}
+
+	/**
+	 * @return Der Text des Befehls, der an der Adresse beginnt. Der Operand liegt
+	 *         an der folgenden Adresse, nach der letzten Adresse wieder bei 0.
+	 */
+	public String instructionAt(int address) {
+		String line = lines[address];
+		if (line == null) {
+			line = decode(memory.read(address), memory.read((address + 1) % lines.length));
+			lines[address] = line;
+		}
+		return line;
+	}
+
+	/**
+	 * @return Die Texte der Befehle ab der Startadresse, im Abstand von zwei
+	 *         Bytes, solange sie vor der Endadresse beginnen.
+	 */
+	public String[] disassemble(int from, int to) {
+		String[] result = new String[Math.max(0, (to - from + 1) / 2)];
+		for (int i = 0; i < result.length; ++i)
+			result[i] = instructionAt(from + 2 * i);
+		return result;
+	}
+
+	/**
+	 * Gibt die Befehle ab der Startadresse mit ihren Adressen und Bytes aus.
+	 *
+	 * @see #disassemble(int, int)
+	 */
+	public void printDisassembly(PrintStream out, int from, int to) {
+		for (int address = from; address < to; address += 2)
+			out.printf("0x%02x  %02x %02x  %s%n", address, memory.read(address),
+					memory.read((address + 1) % lines.length), instructionAt(address));
+	}
+
+	/**
+	 * @return Ein Zähler, der sich bei jeder Änderung des Speichers erhöht; solange
+	 *         er gleich bleibt, sind alle Texte gleich geblieben.
+	 */
+	public int version() {
+		return version;
+	}
+
+	@Override
+	public void memoryChanged(int from, int to) {
+		// der Befehl vor der Änderung hat sie als Operanden
+		Arrays.fill(lines, Math.max(0, from - 1), to, null);
+		if (from == 0)
+			lines[lines.length - 1] = null;
+		++version;
+	}
+
+	/**
+	 * Meldet den Disassembler beim Speicher ab.
+	 */
+	@Override
+	public void close() {
+		memory.removeObserver(this);
+	}
+}
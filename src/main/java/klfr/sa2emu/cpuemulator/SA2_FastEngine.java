@@ -0,0 +1,427 @@
+package klfr.sa2emu.cpuemulator;
+
+import static klfr.sa2emu.cpuemulator.SA2_CPU.*;
+
+import klfr.sa2emu.cpuemulator.exceptions.CPUException;
+
+/**
+ * Schnelle Ausführung einer {@link SA2_CPU} auf Befehlsebene. Statt jeden
+ * Mikrobefehl über Steuerlinien und Bus zu simulieren, wird ein ganzer
+ * Maschinenbefehl auf einmal auf denselben Registern und demselben
+ * Arbeitsspeicher ausgeführt.<br>
+ * <br>
+ * Nach jedem Befehl ist der Zustand der CPU (Register, ALU, Flaggen,
+ * Speicheradressregister, Arbeitsspeicher, Ausgabebus, Mikrobefehlszähler,
+ * letzter Buswert sowie {@link SA2_CPU#cycles()} und
+ * {@link SA2_CPU#instructions()}) genau derselbe, den die
+ * Mikrobefehlssimulation hätte. Daher kann zwischen beiden Ausführungsarten
+ * jederzeit gewechselt werden. Steht die CPU mitten in einem Befehl, wird
+ * dieser zuerst mit der Mikrobefehlssimulation zu Ende geführt.
+ *
+ * @author kleines Filmröllchen
+ */
+public class SA2_FastEngine {
+
+	private final SA2_CPU cpu;
+
+	/** Anzahl der insgesamt ausgeführten Mikrobefehle (Taktzyklen). */
+	private long cycles = 0;
+	/** Anzahl der insgesamt ausgeführten Maschinenbefehle. */
+	private long instructions = 0;
+
+	/** Letzter Mikrobefehl des momentan ausgeführten Befehls. */
+	private long lastMicroinstruction;
+
+	/**
+	 * Erzeugt eine schnelle Ausführung für die gegebene CPU.
+	 */
+	public SA2_FastEngine(SA2_CPU cpu) {
+		this.cpu = cpu;
+	}
+
+	/**
+	 * Führt Befehle aus, bis die CPU anhält, einen ihrer
+	 * {@link SA2_CPU#breakpoints} trifft oder mindestens die gegebene Anzahl an
+	 * Taktzyklen verbraucht ist. Befehle werden immer vollständig ausgeführt.
+	 *
+	 * @return Die Anzahl der ausgeführten Taktzyklen.
+	 */
+	public long run(long maxCycles) throws CPUException {
+		final Breakpoints breakpoints = cpu.breakpoints;
+		final RunRecorder recorder = new RunRecorder("fast", instructions);
+		long executed = 0, nextSample = recorder.nextSample();
+		breakpoints.clearHit();
+		try {
+			while (!cpu.halted && executed < maxCycles) {
+				if (breakpoints.active && executed > 0 && cpu.microInstructionCounter() == 0
+						&& breakpoints.checkExecute(cpu.PC.getValue() & 0xff))
+					break;
+				executed += step();
+				if (breakpoints.hitKind != Breakpoints.NONE)
+					break;
+				if (executed >= nextSample)
+					nextSample = recorder.sample(executed);
+			}
+		} finally {
+			recorder.finish(executed, instructions, cpu.halted);
+		}
+		return executed;
+	}
+
+	/**
+	 * Führt einen vollständigen Maschinenbefehl aus.
+	 *
+	 * @return Die Anzahl der Taktzyklen (Mikrobefehle einschließlich
+	 *         Von-Neumann-Zyklus), die der Befehl in der Mikrobefehlssimulation
+	 *         benötigt hätte; 0, falls die CPU angehalten ist.
+	 * @throws CPUException falls die CPU mitten in einem Befehl stand und die
+	 *                      Mikrobefehlssimulation einen Fehler wirft.
+	 */
+	public int step() throws CPUException {
+		if (cpu.halted)
+			return 0;
+		if (cpu.microInstructionCounter() != 0)
+			return finishInstruction();
+
+		final Register A = cpu.A, B = cpu.B, X = cpu.X, SP = cpu.SP, PC = cpu.PC;
+		final Register MAR = cpu.RAM.AddressPointer;
+		final RandomAccessMemory RAM = cpu.RAM;
+
+		//// Von-Neumann-Zyklus
+		byte pc = PC.getValue();
+		byte ip = RAM.read(pc & 0xff);
+		byte op = RAM.read((pc + 1) & 0xff);
+		MAR.setValue((byte) (pc + 1));
+		PC.setValue((byte) (pc + 2));
+		cpu.IP.setValue(ip);
+		cpu.OP.setValue(op);
+
+		int row = microcodeRow(ip, cpu.FR.getValue());
+		int length = MICROCODE_LENGTH[row / MICROSTEPS];
+		int cycleCount = MICROSTEPS / 2 + length;
+		lastMicroinstruction = MICROCODE[row | (MICROSTEPS / 2 - 1 + length)];
+
+		// der Haltebefehl wird nie ausgeführt, der Zustand bleibt wie nach dem
+		// Von-Neumann-Zyklus
+		if ((lastMicroinstruction & HLT) != 0) {
+			cpu.ALU.setValue((byte) ALURegister.compute(ALURegister.ADDITION, A.getValue(), X.getValue()));
+			cpu.halted = true;
+			cpu.setMicrocodeState(row, (byte) (MICROSTEPS / 2 + 1), MICROCODE[row | (MICROSTEPS / 2 - 1)], (byte) 0);
+			if (cpu.counters.enabled)
+				cpu.counters.retire(row);
+			if (cpu.heatmap.enabled)
+				cpu.heatmap.retire(pc & 0xff, row);
+			if (cpu.profiler != null)
+				cpu.profiler.retire(row, PC.getValue() & 0xff);
+			cycles += cycleCount;
+			++instructions;
+			cpu.retired(cycleCount, 1);
+			return cycleCount;
+		}
+
+		// Wert auf dem Bus im letzten Mikrobefehl; 0 falls der Bus nicht benutzt wird
+		byte bus = 0;
+		byte val;
+		int address;
+
+		switch (ip) {
+			case 0x10:
+			case 0x11:
+				// lade aus dem Speicher
+				MAR.setValue(op);
+				alu();
+				bus = load(op & 0xff);
+				(ip == 0x10 ? A : B).setValue(bus);
+				break;
+			case 0x12:
+			case 0x13:
+				// lade direkt
+				alu();
+				bus = op;
+				(ip == 0x12 ? A : B).setValue(bus);
+				break;
+
+			case 0x20:
+			case 0x21:
+				// speichere im Hauptspeicher
+				MAR.setValue(op);
+				alu();
+				bus = (ip == 0x20 ? A : B).getValue();
+				store(op & 0xff, bus);
+				break;
+
+			case 0x30:
+			case 0x40:
+			case 0x50:
+			case 0x60:
+			case 0x70:
+				// Arithmetik mit b
+				X.setValue(B);
+				bus = alu();
+				A.setValue(bus);
+				break;
+			case 0x31:
+			case 0x41:
+			case 0x51:
+			case 0x61:
+			case 0x71:
+			case (byte) 0x81:
+			case (byte) 0x82:
+			case (byte) 0x83:
+				// Arithmetik mit x und unäre Arithmetik
+				bus = alu();
+				A.setValue(bus);
+				break;
+			case 0x32:
+			case 0x42:
+			case 0x52:
+			case 0x62:
+			case 0x72:
+			case 0x33:
+			case 0x43:
+			case 0x53:
+			case 0x63:
+			case 0x73:
+			case 0x34:
+			case 0x44:
+			case 0x54:
+			case 0x64:
+			case 0x74:
+				// Arithmetik aus Speicher mit Operand, b oder x als Speicheradresse
+				switch (ip & 0x0f) {
+					case 0x02:
+						val = op;
+						break;
+					case 0x03:
+						val = B.getValue();
+						break;
+					default:
+						val = X.getValue();
+				}
+				MAR.setValue(val);
+				X.setValue(load(val & 0xff));
+				bus = alu();
+				A.setValue(bus);
+				break;
+			case (byte) 0x84:
+			case (byte) 0x85:
+				// inkrement/dekrement
+				X.setValue((byte) 0x01);
+				bus = alu();
+				A.setValue(bus);
+				break;
+
+			case (byte) 0x90:
+				// normale ausgabe
+				alu();
+				bus = A.getValue();
+				cpu.OUT.setValue(bus);
+				break;
+			case (byte) 0x91:
+				// ausgabebefehl
+				alu();
+				bus = op;
+				cpu.OB.processCommand(bus);
+				break;
+			case (byte) 0x92:
+				// ausgabeadresse
+				alu();
+				bus = op;
+				cpu.OB.getAddressRegister().setValue(bus);
+				break;
+			case (byte) 0x93:
+				// ausgabedaten
+				alu();
+				bus = op;
+				cpu.outputData(bus);
+				break;
+
+			case (byte) 0xa0:
+			case (byte) 0xa1:
+			case (byte) 0xa2:
+			case (byte) 0xa3:
+			case (byte) 0xa4:
+			case (byte) 0xa5:
+			case (byte) 0xa6:
+				// (bedingter) sprung; die Bedingung steckt bereits in der Zeile des ROMs
+				alu();
+				if ((lastMicroinstruction & CI) != 0) {
+					bus = op;
+					PC.setValue(bus);
+				}
+				break;
+			case (byte) 0xa7:
+				// rufe unterroutine auf
+				address = SP.getValue() & 0xff;
+				MAR.setValue(SP);
+				SP.setValue((byte) (address - 1));
+				store(address, PC.getValue());
+				alu();
+				bus = op;
+				PC.setValue(bus);
+				break;
+			case (byte) 0xa8:
+				// rücksprung
+				SP.setValue((byte) (SP.getValue() + 1));
+				MAR.setValue(SP);
+				alu();
+				bus = load(SP.getValue() & 0xff);
+				PC.setValue(bus);
+				break;
+
+			case (byte) 0xb0:
+			case (byte) 0xb2:
+				// auf stack speichern
+				address = SP.getValue() & 0xff;
+				MAR.setValue(SP);
+				SP.setValue((byte) (address - 1));
+				alu();
+				bus = (ip == (byte) 0xb0 ? A : B).getValue();
+				store(address, bus);
+				break;
+			case (byte) 0xb1:
+			case (byte) 0xb3:
+				// vom stack holen (überträgt den Stackzeiger, wie im Mikrocode)
+				SP.setValue((byte) (SP.getValue() + 1));
+				alu();
+				bus = SP.getValue();
+				(ip == (byte) 0xb1 ? A : B).setValue(bus);
+				break;
+			case (byte) 0xb4:
+				// stack zurücksetzen
+				alu();
+				bus = op;
+				SP.setValue(bus);
+				break;
+
+			case 0x23:
+				// a nach b
+				alu();
+				bus = A.getValue();
+				B.setValue(bus);
+				break;
+			case 0x24:
+				// a nach x
+				alu();
+				bus = A.getValue();
+				X.setValue(bus);
+				break;
+			case 0x25:
+				// b nach a
+				alu();
+				bus = B.getValue();
+				A.setValue(bus);
+				break;
+			case 0x27:
+				// b nach x
+				alu();
+				bus = B.getValue();
+				X.setValue(bus);
+				break;
+			case 0x28:
+			case 0x29:
+			case 0x2a:
+				// sp nach a, b oder x
+				alu();
+				bus = SP.getValue();
+				(ip == 0x28 ? A : ip == 0x29 ? B : X).setValue(bus);
+				break;
+			case 0x2b:
+				// a und b tauschen (überschreibt x)
+				X.setValue(A);
+				A.setValue(B);
+				alu();
+				bus = X.getValue();
+				B.setValue(bus);
+				break;
+
+			default:
+				// unbekannter Befehl: nur der Mikrobefehlszähler wird zurückgesetzt
+				alu();
+		}
+
+		cpu.setMicrocodeState(row, (byte) 0, lastMicroinstruction, bus);
+		if (cpu.counters.enabled)
+			cpu.counters.retire(row);
+		if (cpu.heatmap.enabled)
+			cpu.heatmap.retire(pc & 0xff, row);
+		if (cpu.profiler != null)
+			cpu.profiler.retire(row, PC.getValue() & 0xff);
+		cycles += cycleCount;
+		++instructions;
+		cpu.retired(cycleCount, 1);
+		return cycleCount;
+	}
+
+	/**
+	 * Berechnet die ALU so, wie es der letzte Mikrobefehl des Befehls tut, und
+	 * setzt das Flaggenregister, falls der Mikrobefehl die ALU ausgibt.
+	 *
+	 * @return Das Ergebnis der ALU.
+	 */
+	private byte alu() {
+		int result = ALURegister.compute(aluOperation(lastMicroinstruction), cpu.A.getValue(), cpu.X.getValue());
+		cpu.ALU.setValue((byte) result);
+		if ((lastMicroinstruction & EO) != 0)
+			cpu.FR.setValue((byte) (result >> 8));
+		return (byte) result;
+	}
+
+	/**
+	 * Liest ein Datenbyte und prüft dabei die Beobachtungspunkte.
+	 */
+	private byte load(int address) {
+		if (cpu.breakpoints.active)
+			cpu.breakpoints.checkRead(address);
+		return cpu.RAM.read(address);
+	}
+
+	/**
+	 * Schreibt ein Datenbyte und prüft dabei die Beobachtungspunkte.
+	 */
+	private void store(int address, byte value) {
+		if (cpu.breakpoints.active)
+			cpu.breakpoints.checkWrite(address);
+		cpu.RAM.write(address, value);
+	}
+
+	/**
+	 * Führt einen angefangenen Befehl mit der Mikrobefehlssimulation zu Ende.
+	 *
+	 * @return Die Anzahl der dafür benötigten Taktzyklen.
+	 */
+	private int finishInstruction() throws CPUException {
+		int cycleCount = 0;
+		do {
+			cpu.setControlLines();
+			cpu.clock();
+			++cycleCount;
+		} while (!cpu.halted && cpu.microInstructionCounter() != 0);
+		cycles += cycleCount;
+		++instructions;
+		return cycleCount;
+	}
+
+	/**
+	 * @return Die Anzahl der von dieser Ausführung insgesamt ausgeführten
+	 *         Taktzyklen.
+	 */
+	public long cycles() {
+		return cycles;
+	}
+
+	/**
+	 * @return Die Anzahl der von dieser Ausführung insgesamt ausgeführten
+	 *         Maschinenbefehle.
+	 */
+	public long instructions() {
+		return instructions;
+	}
+
+	/**
+	 * @return Die CPU, auf der diese Ausführung arbeitet.
+	 */
+	public SA2_CPU cpu() {
+		return cpu;
+	}
+}
@@ -0,0 +1,331 @@
+package klfr.sa2emu.cpuemulator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import klfr.sa2emu.cpuemulator.exceptions.CPUException;
+
+/**
+ * Aufzeichnung der Ausführung einer {@link SA2_CPU} zum Rückwärtsausführen.<br>
+ * <br>
+ * Für jeden Taktzyklus werden in einem Ringpuffer fester Größe nur die
+ * geänderten Bytes mit ihrem alten Wert gespeichert, sodass die letzten
+ * Taktzyklen einzeln rückgängig gemacht werden können. Zusätzlich wird in
+ * regelmäßigen Abständen eine vollständige {@link SA2_Snapshot Momentaufnahme}
+ * angelegt; um zu einem älteren Zeitpunkt zu springen, wird die letzte
+ * Momentaufnahme davor wiederhergestellt und der Rest erneut ausgeführt. Ist die
+ * Höchstzahl an Momentaufnahmen erreicht, wird jede zweite verworfen und der
+ * Abstand verdoppelt. Der Speicherbedarf bleibt so unabhängig von der Laufzeit
+ * begrenzt.<br>
+ * <br>
+ * Aufgezeichnet wird nur die Ausführung mit {@link SA2_CPU#setControlLines()}
+ * und {@link SA2_CPU#clock()}; die Zeit wird in Taktzyklen seit dem Anlegen der
+ * Aufzeichnung gezählt. Bei Speicher mit Bänken teilen sich die Momentaufnahmen
+ * alle unveränderten Seiten des Hintergrundspeichers.
+ *
+ * @author kleines Filmröllchen
+ */
+public class SA2_History implements MemoryObserver, AutoCloseable {
+
+	/** Standardmäßige Größe des Ringpuffers in Einträgen. */
+	public static final int DEFAULT_CAPACITY = 1 << 20;
+	/** Standardmäßiger anfänglicher Abstand der Momentaufnahmen in Taktzyklen. */
+	public static final int DEFAULT_CHECKPOINT_INTERVAL = 1 << 16;
+	/** Standardmäßige Höchstzahl an Momentaufnahmen. */
+	public static final int DEFAULT_MAX_CHECKPOINTS = 256;
+
+	//// Einträge im Ringpuffer: Art << 24 | Stelle << 8 | alter Wert
+	/** Ende eines Taktzyklus; steht hinter dessen Einträgen. */
+	private static final int END = 0;
+	/** Ein Byte der Register, siehe {@link SA2_CPU#saveRegisters(byte[])}. */
+	private static final int REGISTER = 1;
+	/** Ein Byte des Arbeitsspeichers. */
+	private static final int MEMORY = 2;
+	/** Ein Byte des Ausgabebus, siehe {@link OutputBus#saveState(byte[], int)}. */
+	private static final int OUTPUT = 3;
+	/** Ein Wechsel der Bank; die Stelle ist die vorher eingeblendete Bank. */
+	private static final int BANK = 4;
+
+	/** Eine Momentaufnahme vor Beginn des angegebenen Taktzyklus. */
+	private static class Checkpoint {
+		final long time;
+		final SA2_Snapshot snapshot;
+
+		Checkpoint(long time, SA2_Snapshot snapshot) {
+			this.time = time;
+			this.snapshot = snapshot;
+		}
+	}
+
+	private final SA2_CPU cpu;
+
+	private final int[] entries;
+	/** Nächste zu beschreibende und älteste belegte Stelle im Ringpuffer. */
+	private int head = 0, tail = 0, size = 0;
+	/** Anzahl der vollständig im Ringpuffer liegenden Taktzyklen. */
+	private long undoable = 0;
+
+	private final List<Checkpoint> checkpoints = new ArrayList<>();
+	private final int maxCheckpoints;
+	private long checkpointInterval;
+
+	/** Anzahl der begonnenen Taktzyklen. */
+	private long time = 0;
+	/** Ob der aktuelle Taktzyklus begonnen, aber noch nicht aufgezeichnet ist. */
+	private boolean pending = false;
+
+	/** Register zu Beginn des aktuellen Taktzyklus und Zwischenspeicher. */
+	private final byte[] registersBefore = new byte[SA2_CPU.REGISTER_STATE],
+			registersAfter = new byte[SA2_CPU.REGISTER_STATE];
+	/** Ausgabebus zu Beginn des aktuellen Taktzyklus, falls er sich ändert. */
+	private final byte[] outputBefore, outputAfter;
+	private boolean outputChanging = false;
+	/** Letzter bekannter Inhalt des Arbeitsspeichers. */
+	private final byte[] memory;
+	/** Ob gerade Änderungen rückgängig gemacht werden, die nicht aufzuzeichnen sind. */
+	private boolean replaying = false;
+
+	/**
+	 * Zeichnet die Ausführung der CPU mit den Standardeinstellungen auf.
+	 */
+	public SA2_History(SA2_CPU cpu) {
+		this(cpu, DEFAULT_CAPACITY, DEFAULT_CHECKPOINT_INTERVAL, DEFAULT_MAX_CHECKPOINTS);
+	}
+
+	/**
+	 * Zeichnet die Ausführung der CPU auf.
+	 *
+	 * @param capacity           Größe des Ringpuffers in Einträgen; ein Taktzyklus
+	 *                           braucht meist zwei bis vier.
+	 * @param checkpointInterval Anfänglicher Abstand der Momentaufnahmen in
+	 *                           Taktzyklen.
+	 * @param maxCheckpoints     Höchstzahl an Momentaufnahmen, mindestens 2.
+	 * @throws IllegalStateException falls die CPU schon aufgezeichnet wird.
+	 */
+	public SA2_History(SA2_CPU cpu, int capacity, int checkpointInterval, int maxCheckpoints) {
+		if (capacity < 1024 || checkpointInterval < 1 || maxCheckpoints < 2)
+			throw new IllegalArgumentException("History too small.");
+		this.cpu = cpu;
+		this.entries = new int[capacity];
+		this.checkpointInterval = checkpointInterval;
+		this.maxCheckpoints = maxCheckpoints;
+		outputBefore = new byte[cpu.OB.stateSize()];
+		outputAfter = new byte[outputBefore.length];
+		memory = new byte[cpu.RAM.size()];
+		cpu.RAM.read(0, memory, 0, memory.length);
+		cpu.setHistory(this);
+		cpu.RAM.addObserver(this);
+		checkpoints.add(new Checkpoint(0, cpu.snapshot()));
+	}
+
+	/**
+	 * Wird zu Beginn jedes Taktzyklus von der CPU aufgerufen.
+	 */
+	void beginCycle() {
+		commit();
+		if (time % checkpointInterval == 0 && checkpoints.get(checkpoints.size() - 1).time < time)
+			checkpoint();
+		cpu.saveRegisters(registersBefore);
+		pending = true;
+		++time;
+	}
+
+	/**
+	 * Wird von der CPU aufgerufen, bevor sich im aktuellen Taktzyklus der
+	 * Ausgabebus ändert.
+	 */
+	void outputBusChanging() {
+		if (!outputChanging) {
+			cpu.OB.saveState(outputBefore, 0);
+			outputChanging = true;
+		}
+	}
+
+	@Override
+	public void bankSwitched(int previousBank, int from, int to) {
+		if (!replaying)
+			push(BANK, previousBank, (byte) 0);
+		cpu.RAM.read(from, memory, from, to - from);
+	}
+
+	@Override
+	public void memoryChanged(int from, int to) {
+		for (int address = from; address < to; ++address) {
+			byte value = cpu.RAM.read(address);
+			if (value != memory[address]) {
+				if (!replaying)
+					push(MEMORY, address, memory[address]);
+				memory[address] = value;
+			}
+		}
+	}
+
+	/**
+	 * Zeichnet die Änderungen des begonnenen Taktzyklus auf.
+	 */
+	private void commit() {
+		if (!pending)
+			return;
+		cpu.saveRegisters(registersAfter);
+		for (int i = 0; i < registersBefore.length; ++i)
+			if (registersBefore[i] != registersAfter[i])
+				push(REGISTER, i, registersBefore[i]);
+		if (outputChanging) {
+			cpu.OB.saveState(outputAfter, 0);
+			for (int i = 0; i < outputBefore.length; ++i)
+				if (outputBefore[i] != outputAfter[i])
+					push(OUTPUT, i, outputBefore[i]);
+			outputChanging = false;
+		}
+		push(END, 0, (byte) 0);
+		++undoable;
+		pending = false;
+	}
+
+	private void push(int kind, int location, byte old) {
+		if (size == entries.length)
+			dropOldestCycle();
+		entries[head] = kind << 24 | location << 8 | old & 0xff;
+		head = (head + 1) % entries.length;
+		++size;
+	}
+
+	private void dropOldestCycle() {
+		int entry;
+		do {
+			entry = entries[tail];
+			tail = (tail + 1) % entries.length;
+			--size;
+		} while (entry >>> 24 != END && size > 0);
+		if (undoable > 0)
+			--undoable;
+	}
+
+	private void checkpoint() {
+		if (checkpoints.size() == maxCheckpoints) {
+			// jede zweite verwerfen, die erste bleibt immer erhalten
+			for (int i = checkpoints.size() - 1; i > 0; --i)
+				if (i % 2 == 1)
+					checkpoints.remove(i);
+			checkpointInterval *= 2;
+			if (time % checkpointInterval != 0)
+				return;
+		}
+		checkpoints.add(new Checkpoint(time, cpu.snapshot()));
+	}
+
+	/**
+	 * Macht den letzten Taktzyklus rückgängig.
+	 *
+	 * @return Ob es einen Taktzyklus im Ringpuffer gab.
+	 */
+	public boolean stepBack() {
+		commit();
+		if (undoable == 0)
+			return false;
+
+		cpu.saveRegisters(registersAfter);
+		boolean output = false;
+		replaying = true;
+		// das Ende des letzten Taktzyklus überspringen
+		head = (head + entries.length - 1) % entries.length;
+		--size;
+		while (size > 0) {
+			int previous = (head + entries.length - 1) % entries.length;
+			int entry = entries[previous];
+			int kind = entry >>> 24, location = entry >> 8 & 0xffff;
+			byte old = (byte) entry;
+			if (kind == END)
+				break;
+			head = previous;
+			--size;
+			if (kind == REGISTER) {
+				registersAfter[location] = old;
+			} else if (kind == MEMORY) {
+				cpu.RAM.write(location, old);
+			} else if (kind == BANK) {
+				cpu.RAM.selectBank(location);
+			} else {
+				if (!output)
+					cpu.OB.saveState(outputAfter, 0);
+				outputAfter[location] = old;
+				output = true;
+			}
+		}
+		replaying = false;
+		cpu.loadRegisters(registersAfter);
+		if (output)
+			cpu.OB.restoreState(outputAfter, 0);
+
+		--undoable;
+		--time;
+		dropCheckpointsAfter(time);
+		return true;
+	}
+
+	/**
+	 * Springt zum gegebenen Zeitpunkt. Zurück geht es über den Ringpuffer oder,
+	 * falls der Zeitpunkt zu weit zurückliegt, über die letzte Momentaufnahme
+	 * davor und erneute Ausführung; vorwärts wird die CPU bis dahin ausgeführt.
+	 *
+	 * @param target Anzahl der Taktzyklen seit Beginn der Aufzeichnung.
+	 * @return Der erreichte Zeitpunkt; vorwärts kann dieser früher liegen, falls
+	 *         die CPU vorher anhält.
+	 * @throws CPUException falls die CPU bei der Ausführung einen Fehler meldet.
+	 */
+	public long seek(long target) throws CPUException {
+		if (target < 0)
+			throw new IllegalArgumentException("Cannot seek before the start of the history.");
+		commit();
+		if (target < time && time - target > undoable) {
+			Checkpoint checkpoint = checkpoints.get(0);
+			for (Checkpoint candidate : checkpoints)
+				if (candidate.time <= target)
+					checkpoint = candidate;
+			replaying = true;
+			cpu.restore(checkpoint.snapshot);
+			cpu.RAM.read(0, memory, 0, memory.length);
+			replaying = false;
+			head = tail = size = 0;
+			undoable = 0;
+			time = checkpoint.time;
+			dropCheckpointsAfter(time);
+		}
+		while (time > target)
+			stepBack();
+		while (time < target && !cpu.halted) {
+			cpu.setControlLines();
+			cpu.clock();
+		}
+		return time;
+	}
+
+	private void dropCheckpointsAfter(long time) {
+		while (checkpoints.get(checkpoints.size() - 1).time > time)
+			checkpoints.remove(checkpoints.size() - 1);
+	}
+
+	/**
+	 * @return Die Anzahl der Taktzyklen seit Beginn der Aufzeichnung.
+	 */
+	public long time() {
+		return time;
+	}
+
+	/**
+	 * @return Der früheste Zeitpunkt, der ohne erneute Ausführung erreicht werden
+	 *         kann.
+	 */
+	public long oldestUndoable() {
+		return time - undoable - (pending ? 1 : 0);
+	}
+
+	/**
+	 * Beendet die Aufzeichnung.
+	 */
+	@Override
+	public void close() {
+		cpu.RAM.removeObserver(this);
+		cpu.setHistory(null);
+	}
+}
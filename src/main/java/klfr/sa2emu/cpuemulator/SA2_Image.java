@@ -0,0 +1,256 @@
+package klfr.sa2emu.cpuemulator;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Binäres Programmabbild: Maschinencode mit Ladeadresse, Einsprungadresse,
+ * Symboltabelle und Zuordnung der Befehle zu Zeilen im Quelltext. Wird mit
+ * {@link #of(SA2_Assembler)} oder {@link #of(SA2_CPU, SA2_Assembler)} erzeugt,
+ * mit {@link #write(Path)} gespeichert und mit {@link SA2_CPU#loadImage} in
+ * den Arbeitsspeicher geladen.<br>
+ * <br>
+ * Aufbau der Datei, alle Zahlen vorzeichenlos und big-endian:
+ * <ul>
+ * <li>Kennung {@code "SA2I"}, Version (2 Bytes), Ladeadresse (2 Bytes),
+ * Einsprungadresse (2 Bytes), Länge des Codes, Anzahl der Symbole und Anzahl
+ * der Einträge im Zeilenverzeichnis (je 4 Bytes)</li>
+ * <li>der Maschinencode</li>
+ * <li>je Symbol die Adresse (2 Bytes), die Länge des Namens (2 Bytes) und der
+ * Name in UTF-8</li>
+ * <li>je Befehl die Zeile im Quelltext ab 1, oder 0 (4 Bytes)</li>
+ * </ul>
+ * Der Code folgt direkt auf den Kopf fester Länge, damit {@link #read(Path)}
+ * die Datei in den Speicher abbilden und den Code in einem Stück kopieren kann.
+ *
+ * @author kleines Filmröllchen
+ */
+public final class SA2_Image {
+
+	/** Kennung am Anfang jeder Datei, {@code "SA2I"}. */
+	private static final int MAGIC = 0x53413249;
+	private static final short VERSION = 1;
+	/** Länge des Kopfs in Bytes. */
+	private static final int HEADER_LENGTH = 22;
+
+	private final int loadAddress, entryPoint;
+	private final byte[] code;
+	/** Namen der Symbole nach Adresse. */
+	private final Map<Integer, String> symbols;
+	/** Zeile im Quelltext jedes Befehls, indiziert mit (Adresse - Ladeadresse) / 2. */
+	private final int[] sourceLines;
+
+	/**
+	 * Übernimmt die Arrays ohne Kopie; sie dürfen danach nicht mehr verändert
+	 * werden.
+	 */
+	private SA2_Image(int loadAddress, int entryPoint, byte[] code, Map<Integer, String> symbols,
+			int[] sourceLines) {
+		this.loadAddress = loadAddress;
+		this.entryPoint = entryPoint;
+		this.code = code;
+		this.symbols = Collections.unmodifiableMap(new TreeMap<>(symbols));
+		this.sourceLines = sourceLines;
+	}
+
+	/**
+	 * Erzeugt ein Abbild aus einem übersetzten Programm, geladen und gestartet
+	 * bei Adresse 0.
+	 * 
+	 * @throws IllegalArgumentException falls das Programm Bänke benutzt; diese
+	 *                                  kann ein Abbild nicht enthalten.
+	 */
+	public static SA2_Image of(SA2_Assembler assembler) {
+		if (!assembler.getBankCode().isEmpty())
+			throw new IllegalArgumentException("Images cannot hold banked code.");
+		return new SA2_Image(0, 0, assembler.getMachineCode().clone(), assembler.labels(),
+				assembler.sourceLines());
+	}
+
+	/**
+	 * Erzeugt ein Abbild des gesamten Arbeitsspeichers der CPU, das beim
+	 * aktuellen Programmzähler startet.
+	 *
+	 * @param assembler Der Assembler des geladenen Programms für Symbole und
+	 *                  Zeilen, oder {@code null}.
+	 * @throws IllegalArgumentException falls der Arbeitsspeicher Bänke hat.
+	 */
+	public static SA2_Image of(SA2_CPU cpu, SA2_Assembler assembler) {
+		if (cpu.RAM.bankCount() > 0)
+			throw new IllegalArgumentException("Images cannot hold banked memory.");
+		byte[] memory = new byte[cpu.RAM.size()];
+		cpu.RAM.read(0, memory, 0, memory.length);
+		return new SA2_Image(0, cpu.PC.getValue() & 0xff, memory,
+				assembler == null ? Map.of() : assembler.labels(),
+				assembler == null ? new int[0] : assembler.sourceLines());
+	}
+
+	/**
+	 * Liest ein Abbild aus einer Datei, die dafür in den Speicher abgebildet wird.
+	 *
+	 * @throws IOException falls die Datei nicht gelesen werden kann oder kein
+	 *                     gültiges Abbild enthält.
+	 */
+	public static SA2_Image read(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return fromBuffer(buffer);
+		}
+	}
+
+	/**
+	 * Liest ein Abbild ab der aktuellen Position des Puffers.
+	 *
+	 * @throws IOException falls der Puffer kein gültiges Abbild enthält.
+	 */
+	public static SA2_Image fromBuffer(ByteBuffer buffer) throws IOException {
+		try {
+			if (buffer.getInt() != MAGIC)
+				throw new IOException("Not an SA2 image.");
+			short version = buffer.getShort();
+			if (version != VERSION)
+				throw new IOException("Unsupported SA2 image version " + version + ".");
+			int loadAddress = Short.toUnsignedInt(buffer.getShort());
+			int entryPoint = Short.toUnsignedInt(buffer.getShort());
+			int codeLength = buffer.getInt(), symbolCount = buffer.getInt(), lineCount = buffer.getInt();
+			if (codeLength < 0 || symbolCount < 0 || lineCount < 0 || codeLength > buffer.remaining())
+				throw new IOException("Corrupt SA2 image header.");
+
+			byte[] code = new byte[codeLength];
+			buffer.get(code);
+			Map<Integer, String> symbols = new TreeMap<>();
+			for (int i = 0; i < symbolCount; ++i) {
+				int address = Short.toUnsignedInt(buffer.getShort());
+				byte[] name = new byte[Short.toUnsignedInt(buffer.getShort())];
+				buffer.get(name);
+				symbols.put(address, new String(name, StandardCharsets.UTF_8));
+			}
+			if (lineCount > buffer.remaining() / Integer.BYTES)
+				throw new IOException("Corrupt SA2 image source map.");
+			int[] sourceLines = new int[lineCount];
+			buffer.asIntBuffer().get(sourceLines);
+			buffer.position(buffer.position() + lineCount * Integer.BYTES);
+			return new SA2_Image(loadAddress, entryPoint, code, symbols, sourceLines);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated SA2 image.", e);
+		}
+	}
+
+	/**
+	 * @return Ob die Datei mit der Kennung eines Abbilds beginnt.
+	 */
+	public static boolean isImage(Path file) {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES);
+			while (magic.hasRemaining() && channel.read(magic) >= 0)
+				;
+			return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Schreibt das Abbild in eine Datei.
+	 */
+	public void write(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = toBuffer();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+		}
+	}
+
+	/**
+	 * @return Das Abbild im Dateiformat.
+	 */
+	public ByteBuffer toBuffer() {
+		byte[][] names = new byte[symbols.size()][];
+		int length = HEADER_LENGTH + code.length + sourceLines.length * Integer.BYTES, i = 0;
+		for (String name : symbols.values()) {
+			names[i] = name.getBytes(StandardCharsets.UTF_8);
+			length += 2 * Short.BYTES + names[i++].length;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		buffer.putInt(MAGIC).putShort(VERSION).putShort((short) loadAddress).putShort((short) entryPoint);
+		buffer.putInt(code.length).putInt(symbols.size()).putInt(sourceLines.length);
+		buffer.put(code);
+		i = 0;
+		for (int address : symbols.keySet())
+			buffer.putShort((short) address).putShort((short) names[i].length).put(names[i++]);
+		for (int line : sourceLines)
+			buffer.putInt(line);
+		return buffer.flip();
+	}
+
+	/** @return Die Adresse, an die der Code geladen wird. */
+	public int loadAddress() {
+		return loadAddress;
+	}
+
+	/** @return Die Adresse des ersten Befehls. */
+	public int entryPoint() {
+		return entryPoint;
+	}
+
+	/** @return Die Länge des Codes in Bytes. */
+	public int codeLength() {
+		return code.length;
+	}
+
+	/** Der Code ohne Kopie, nur zum Lesen. */
+	byte[] code() {
+		return code;
+	}
+
+	/** @return Eine Kopie des Codes. */
+	public byte[] getCode() {
+		return code.clone();
+	}
+
+	/** @return Die Namen der Symbole nach Adresse, unveränderlich. */
+	public Map<Integer, String> symbols() {
+		return symbols;
+	}
+
+	/**
+	 * @return Ein Assembler mit Symbolen und Zeilen dieses Abbilds, etwa für
+	 *         {@link Heatmap#printReport} oder {@link CallProfiler#writeFolded}.
+	 */
+	public SA2_Assembler toAssembler() {
+		// Code und Zeilen liegen wie nach dem Laden an der Ladeadresse
+		byte[] placed = new byte[loadAddress + code.length];
+		System.arraycopy(code, 0, placed, loadAddress, code.length);
+		int[] lines = new int[(placed.length + 1) / 2];
+		if (loadAddress % 2 == 0)
+			System.arraycopy(sourceLines, 0, lines, loadAddress / 2,
+					Math.min(sourceLines.length, lines.length - loadAddress / 2));
+		return new SA2_Assembler(placed, lines, symbols);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof SA2_Image))
+			return false;
+		SA2_Image other = (SA2_Image) obj;
+		return loadAddress == other.loadAddress && entryPoint == other.entryPoint && Arrays.equals(code, other.code)
+				&& symbols.equals(other.symbols) && Arrays.equals(sourceLines, other.sourceLines);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(code) * 31 + symbols.hashCode() + loadAddress * 17 + entryPoint;
+	}
+}
@@ -0,0 +1,162 @@
+package klfr.sa2emu.cpuemulator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import klfr.sa2emu.cpuemulator.exceptions.AssemblyError;
+
+/**
+ * Assembler für einen Quelltext, der laufend bearbeitet wird, etwa beim
+ * automatischen Kompilieren im Editor. Das Ergebnis jeder Zeile vom
+ * {@link SA2_LineParser} wird aufbewahrt; bei {@link #update(String)} werden
+ * nur die Zeilen zwischen dem gleichen Anfang und dem gleichen Ende von altem
+ * und neuem Text neu zerlegt. Danach legt der {@link SA2_Linker} alle Zeilen
+ * aus den aufbewahrten Ergebnissen neu hintereinander und setzt die Sprünge
+ * ein; das geht ohne Zerlegen und bleibt auch bei langen Programmen schnell.
+ * Das Ergebnis ist dasselbe wie mit {@link SA2_Assembler#SA2_Assembler(String)}.
+ * <br>
+ * <br>
+ * Nicht threadsicher; Aufrufe müssen nacheinander erfolgen, gerne aber auf
+ * einem anderen Thread als der Oberfläche. Wird der Thread während des
+ * Zerlegens unterbrochen, bricht {@link #update(String)} ab und der Zustand
+ * bleibt der vom letzten Aufruf.
+ *
+ * @author kleines Filmröllchen
+ */
+public class SA2_IncrementalAssembler {
+
+	/** Anzahl der Zeilen zwischen zwei Prüfungen auf Unterbrechung. */
+	private static final int CANCEL_CHECK_LINES = 256;
+
+	/** Aufbewahrtes Ergebnis einer Zeile. */
+	private static final class Line {
+		/** Länge der Zeile einschließlich Zeilenumbruch. */
+		final int length;
+		final int kind;
+		final String label, target;
+		final byte opcode, operand;
+		/** Fehler der Zeile oder {@code null}. */
+		final AssemblyError error;
+
+		Line(int length, SA2_LineParser parser) {
+			this.length = length;
+			this.kind = parser.kind;
+			this.label = parser.label;
+			this.target = parser.target;
+			this.opcode = parser.opcode;
+			this.operand = parser.operand;
+			this.error = null;
+		}
+
+		Line(int length, AssemblyError error) {
+			this.length = length;
+			this.kind = SA2_LineParser.EMPTY;
+			this.label = this.target = null;
+			this.opcode = this.operand = 0;
+			this.error = error;
+		}
+	}
+
+	private final SA2_LineParser parser = new SA2_LineParser();
+	/** Der zuletzt übersetzte Quelltext und seine Zeilen. */
+	private String source = "";
+	private final List<Line> lines = new ArrayList<>();
+	/** Anzahl der beim letzten Aufruf zerlegten Zeilen. */
+	private int reparsed = 0;
+
+	/**
+	 * Übersetzt den neuen Stand des Quelltexts.
+	 *
+	 * @param assemblycode Der vollständige neue Quelltext.
+	 * @return Ein Assembler mit dem Ergebnis, wie von
+	 *         {@link SA2_Assembler#SA2_Assembler(String)}.
+	 * @throws AssemblyError         beim ersten Fehler im Quelltext.
+	 * @throws CancellationException falls der Thread unterbrochen wurde.
+	 */
+	public SA2_Assembler update(String assemblycode) throws AssemblyError {
+		int oldLength = source.length(), newLength = assemblycode.length();
+		int shorter = Math.min(oldLength, newLength);
+		// gleicher Anfang und gleiches Ende beider Texte
+		int prefix = 0;
+		while (prefix < shorter && source.charAt(prefix) == assemblycode.charAt(prefix))
+			++prefix;
+		int suffix = 0;
+		while (suffix < shorter - prefix
+				&& source.charAt(oldLength - 1 - suffix) == assemblycode.charAt(newLength - 1 - suffix))
+			++suffix;
+
+		// Zeilen [first, last) des alten Texts enthalten die Änderung; eine Zeile
+		// davor und danach kommt dazu, weil Zeilenumbrüche wie \r\n dort
+		// zusammenwachsen oder zerfallen können
+		int first = 0, firstStart = 0;
+		while (first < lines.size() && firstStart + lines.get(first).length <= prefix)
+			firstStart += lines.get(first++).length;
+		if (first > 0)
+			firstStart -= lines.get(--first).length;
+		int last = first, lastEnd = firstStart;
+		while (last < lines.size() && lastEnd <= oldLength - suffix)
+			lastEnd += lines.get(last++).length;
+		if (last < lines.size())
+			lastEnd += lines.get(last++).length;
+
+		// nur diesen Bereich im neuen Text zerlegen
+		int regionEnd = lastEnd + newLength - oldLength;
+		List<Line> replacement = new ArrayList<>();
+		int realline = first;
+		for (int start = firstStart; start < regionEnd;) {
+			if (replacement.size() % CANCEL_CHECK_LINES == 0 && Thread.currentThread().isInterrupted())
+				throw new CancellationException("Assembly cancelled.");
+			int end = SA2_LineParser.lineEnd(assemblycode, start);
+			int next = Math.min(SA2_LineParser.nextLine(assemblycode, end), newLength);
+			replacement.add(parseLine(assemblycode, start, end, next - start, ++realline));
+			start = next;
+		}
+
+		// erst jetzt den Zustand ändern
+		lines.subList(first, last).clear();
+		lines.addAll(first, replacement);
+		source = assemblycode;
+		reparsed = replacement.size();
+		return link();
+	}
+
+	/**
+	 * Legt alle aufbewahrten Zeilen hintereinander.
+	 */
+	private SA2_Assembler link() throws AssemblyError {
+		SA2_Linker linker = new SA2_Linker();
+		for (int i = 0, start = 0; i < lines.size(); start += lines.get(i++).length) {
+			Line line = lines.get(i);
+			if (line.error != null) {
+				if (line.error.getLine() == i + 1)
+					throw line.error;
+				// die Zeile ist verschoben, Meldung mit neuer Nummer erzeugen
+				int end = SA2_LineParser.lineEnd(source, start);
+				Line renumbered = parseLine(source, start, end, line.length, i + 1);
+				lines.set(i, renumbered);
+				throw renumbered.error;
+			}
+			linker.add(line.kind, line.label, line.opcode, line.operand, line.target, i + 1);
+		}
+		linker.link();
+		return new SA2_Assembler(linker);
+	}
+
+	private Line parseLine(String text, int start, int end, int length, int realline) {
+		try {
+			parser.parse(text, start, end, realline);
+			return new Line(length, parser);
+		} catch (AssemblyError e) {
+			return new Line(length, e);
+		}
+	}
+
+	/**
+	 * @return Die Anzahl der Zeilen, die beim letzten Aufruf von
+	 *         {@link #update(String)} neu zerlegt wurden.
+	 */
+	public int reparsedLines() {
+		return reparsed;
+	}
+}
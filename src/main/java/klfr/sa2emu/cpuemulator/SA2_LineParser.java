@@ -0,0 +1,596 @@
+package klfr.sa2emu.cpuemulator;
+
+import java.util.Locale;
+
+import klfr.sa2emu.cpuemulator.exceptions.AssemblyError;
+
+/**
+ * Zerlegt einzelne Zeilen SA2-Assembly Zeichen für Zeichen, ohne
+ * {@link java.util.Scanner}, reguläre Ausdrücke oder Zwischentext. Nach
+ * {@link #parse(String, int, int, int)} stehen in den Feldern die Art der
+ * Zeile, ein dort definiertes Label, der Maschinenbefehl und ein Label, auf das
+ * der Befehl springt; aufgelöst werden solche Labels erst vom Assembler, wenn
+ * alle Zeilen bekannt sind.<br>
+ * <br>
+ * Die Syntax ist die des bisherigen {@link SA2_Assembler}: Operanden von
+ * {@code load}, {@code store}, Rechenbefehlen und {@code move} reichen bis zum
+ * Kommentar und Leerzeichen darin sind egal, alle anderen Operanden sind durch
+ * Leerzeichen getrennte Tokens.
+ *
+ * @author kleines Filmröllchen
+ */
+final class SA2_LineParser {
+
+	/** Leere Zeile oder Kommentar; zählt nicht als Zeile für Labels. */
+	static final int EMPTY = 0;
+	/** {@code noop}: zählt als Zeile, erzeugt aber keinen Befehl. */
+	static final int NOOP = 1;
+	/** Zeile mit einem Maschinenbefehl. */
+	static final int INSTRUCTION = 2;
+	/**
+	 * {@code bank N}: die folgenden Zeilen gehören zur Bank N; deren Nummer steht
+	 * mit dem hohen Byte in {@link #opcode} und dem niedrigen in
+	 * {@link #operand}.
+	 */
+	static final int BANK = 3;
+
+	//// Ergebnis der letzten Zeile
+	/** {@link #EMPTY}, {@link #NOOP}, {@link #INSTRUCTION} oder {@link #BANK}. */
+	int kind;
+	/** Das in der Zeile definierte Label oder {@code null}. */
+	String label;
+	/** Befehl und Operand. */
+	byte opcode, operand;
+	/**
+	 * Das Label, dessen Wert als Operand einzusetzen ist, oder {@code null}.
+	 */
+	String target;
+
+	//// Zustand beim Zerlegen
+	private String source;
+	/** Position in der Zeile und ihr Ende. */
+	private int pos, end;
+	/** Zeile im Quelltext ab 1, für Fehlermeldungen. */
+	private int line;
+	/** Anfang und Ende des letzten Tokens. */
+	private int tokenStart, tokenEnd;
+	/** Der zusammengezogene, kleingeschriebene Operand bis zum Kommentar. */
+	private final StringBuilder compact = new StringBuilder();
+	/** Anzahl der Teile des Operanden und Anfang und Ende der ersten beiden. */
+	private int parts;
+	private final int[] partStart = new int[2], partEnd = new int[2];
+
+	/**
+	 * Zerlegt eine Zeile.
+	 *
+	 * @param source Der Quelltext.
+	 * @param start  Anfang der Zeile.
+	 * @param end    Ende der Zeile ohne Zeilenumbruch.
+	 * @param line   Nummer der Zeile ab 1.
+	 * @throws AssemblyError falls die Zeile fehlerhaft ist.
+	 */
+	void parse(String source, int start, int end, int line) throws AssemblyError {
+		this.source = source;
+		this.pos = start;
+		this.end = end;
+		this.line = line;
+		kind = EMPTY;
+		label = null;
+		target = null;
+		opcode = 0;
+		operand = 0;
+
+		// Zeile überspringen, falls leer oder Kommentar
+		if (!nextToken() || source.charAt(tokenStart) == '/')
+			return;
+
+		// Label: bis zum nächsten ":"
+		if (source.charAt(tokenStart) == ':') {
+			int nameEnd = tokenStart + 1;
+			while (nameEnd < tokenEnd && source.charAt(nameEnd) != ':')
+				++nameEnd;
+			int rest = nameEnd;
+			while (rest < tokenEnd && source.charAt(rest) == ':')
+				++rest;
+			if (nameEnd == tokenStart + 1 && rest == tokenEnd)
+				throw error("Syntax error", "expected label name after ':'.");
+			label = source.substring(tokenStart + 1, nameEnd).toLowerCase(Locale.ENGLISH);
+			if (!nextToken())
+				throw error("Missing Element error", "expected 'command' after label '" + label + "'.");
+			if (source.charAt(tokenStart) == '/')
+				throw error("Missing Element error", "expected 'command' after label '" + token() + "'.");
+		}
+
+		kind = INSTRUCTION;
+		String command = token().toLowerCase(Locale.ENGLISH);
+		switch (command) {
+			case "load":
+				// Laden von Wert in Register
+				compactOperand("Missing Element error", "expected load origin after 'load' command.");
+				splitOperand(true);
+				if (parts != 2)
+					throw error("Syntax error", "expected exactly two identifiers after 'load' command.");
+				if (isLiteral(partStart[0], partEnd[0])) {
+					// direktes Laden des Werts: 0x12 oder 0x13
+					opcode = 0x12;
+					operand = literal(partStart[0], partEnd[0]);
+				} else if (compact.charAt(partStart[0]) == '$' && isLiteral(partStart[0] + 1, partEnd[0])) {
+					// Laden aus Speicheradresse: 0x10 oder 0x11
+					opcode = 0x10;
+					operand = literal(partStart[0] + 1, partEnd[0]);
+				} else {
+					throw error("Syntax error", "expected 'OP' or '$OP' after 'load' command.");
+				}
+				// jedes andere Ziel als B ist A
+				if (isPart(1, "b"))
+					opcode += 1;
+				break;
+
+			case "store":
+				// Speichern im RAM
+				compactOperand("Syntax error", "expected store destination after 'store' command.");
+				splitOperand(false);
+				if (parts != 2)
+					throw error("Missing Element error", "expected exactly two identifiers after 'store' command.");
+				if (isPart(0, "a"))
+					opcode = 0x20;
+				else if (isPart(0, "b"))
+					opcode = 0x21;
+				else
+					throw error("Syntax error", "expected 'A' or 'B' after 'store' command.");
+				if (compact.charAt(partStart[1]) != '$' || !isLiteral(partStart[1] + 1, partEnd[1]))
+					throw error("Syntax error", "expected '$OP' after register identifier in 'store' command.");
+				operand = literal(partStart[1] + 1, partEnd[1]);
+				break;
+
+			case "add":
+			case "sub":
+			case "or":
+			case "xor":
+			case "and":
+				// Arithmetisch-logische Operationen, 0x30 bis 0x74
+				opcode = (byte) aluBase(command);
+				compactOperand("Missing Element error",
+						"expected declaration of second operand after 'arithmetic or logic operation' command.");
+				String second = compact.toString();
+				switch (second) {
+					case "b":
+						break;
+					case "x":
+						opcode |= 0x01;
+						break;
+					case "$b":
+						opcode |= 0x03;
+						break;
+					case "$x":
+						opcode |= 0x04;
+						break;
+					default:
+						if (second.startsWith("$") && isLiteral(1, compact.length())) {
+							opcode |= 0x02;
+							operand = literal(1, compact.length());
+						} else if (isLiteral(0, compact.length())) {
+							// ein Literal ohne $ wird geprüft, aber wie B behandelt
+							literal(0, compact.length());
+						} else {
+							throw error("Syntax error",
+									"expected 'B', 'X', '$OP', '$B' or '$X' after 'arithmetic or logic operation' command.");
+						}
+				}
+				break;
+
+			case "not":
+				opcode = (byte) 0x81;
+				break;
+			case "bitsl":
+				opcode = (byte) 0x82;
+				break;
+			case "bitsr":
+				opcode = (byte) 0x83;
+				break;
+			case "inc":
+				opcode = (byte) 0x84;
+				break;
+			case "dec":
+				opcode = (byte) 0x85;
+				break;
+
+			case "out":
+				// Ausgabe, einfach oder mit Ausgabemodus
+				opcode = (byte) 0x90;
+				if (!nextToken())
+					break;
+				String mode = token().toLowerCase(Locale.ENGLISH);
+				switch (mode) {
+					case "cmd":
+						opcode |= 0x01;
+						break;
+					case "addr":
+						opcode |= 0x02;
+						break;
+					case "dat":
+						opcode |= 0x03;
+						break;
+					default:
+						if (!mode.startsWith("/"))
+							throw error("Syntax error", "expected 'output type' after 'out' command.");
+						// Kommentar nach einfachem out
+						return;
+				}
+				if (!nextToken())
+					throw error("Syntax error", "expected '$OP' after 'output type' in 'out' command.");
+				if (source.charAt(tokenStart) == '$') {
+					// 0x91-0x93 werden zu 0x94-0x96
+					opcode += 3;
+					operand = literal(compactToken(true), 0, compact.length());
+				} else {
+					operand = literal(compactToken(false), 0, compact.length());
+				}
+				break;
+
+			case "jmp":
+			case "jmpc":
+			case "jmpnc":
+			case "jmpz":
+			case "jmpnz":
+			case "jmpp":
+			case "jmpnp":
+			case "call":
+				// Sprung (bedingt oder unbedingt) oder Unterprogramm, 0xa0 bis 0xa7
+				opcode = (byte) jumpOpcode(command);
+				if (!nextToken())
+					throw error("Syntax error", "expected '$OP' or 'label' in 'jump' or 'call' command.");
+				compactToken(false);
+				if (compact.charAt(0) == '$' && isLiteral(1, compact.length())) {
+					operand = literal(1, compact.length());
+				} else if (isWord(compact)) {
+					// Sprunglabel: wird vom Assembler aufgelöst
+					target = compact.toString();
+				} else {
+					throw error("Syntax error", "expected '$OP' or 'label' in 'jump' or 'call' command.");
+				}
+				break;
+
+			case "move":
+				// Bewegen von Registern in andere Register
+				compactOperand("Missing Element error", "expected register names after 'move' command.");
+				splitOperand(false);
+				if (parts != 2)
+					throw error("Syntax error", "expected exactly two register names after 'move' command.");
+				if (isPart(0, "a"))
+					opcode = 0x22;
+				else if (isPart(0, "b"))
+					opcode = 0x25;
+				else if (isPart(0, "sp"))
+					opcode = 0x28;
+				else
+					throw error("Syntax error", "expected 'A', 'B' or 'SP' after 'move' command.");
+				// Versatz durch das Ziel; a, s und p verschieben nicht
+				if (partEnd[1] - partStart[1] != 1 || "abxsp".indexOf(compact.charAt(partStart[1])) < 0)
+					throw error("Syntax error",
+							"expected second 'A', 'X', 'B' or 'SP' after first 'register name' in 'move' command.");
+				if (isPart(1, "b"))
+					opcode += 1;
+				else if (isPart(1, "x"))
+					opcode += 2;
+				break;
+
+			case "push":
+			case "pop":
+				// Stackoperationen, 0xb0 bis 0xb3; x wird wie a behandelt
+				opcode = (byte) (command.equals("pop") ? 0xb1 : 0xb0);
+				if (!nextToken())
+					throw error("Syntax error", "expected 'A' or 'B' in 'push' or 'pop' command.");
+				compactToken(false);
+				if (compact.length() != 1 || "abx".indexOf(compact.charAt(0)) < 0)
+					throw error("Syntax error", "expected 'A' or 'B' in 'push' or 'pop' command.");
+				if (compact.charAt(0) == 'b')
+					opcode += 2;
+				break;
+
+			case "noop":
+				kind = NOOP;
+				break;
+			case "bank":
+				// Abschnitt für eine Bank des Hintergrundspeichers
+				if (label != null)
+					throw error("Syntax error", "a label cannot be defined on a 'bank' directive.");
+				if (!nextToken())
+					throw error("Missing Element error", "expected bank number after 'bank' directive.");
+				compactToken(false);
+				int bank = number(compact, 0, compact.length());
+				if (bank >= RandomAccessMemory.MAX_BANKS)
+					throw error("Literal Operation error", "bank number " + bank + " is too large.");
+				kind = BANK;
+				opcode = (byte) (bank >> 8);
+				operand = (byte) bank;
+				break;
+			case "halt":
+				opcode = 0x01;
+				break;
+			case "swap":
+				opcode = 0x2b;
+				break;
+			case "stkrest":
+				// Somit weiß die CPU, wo der Stack anfängt
+				opcode = (byte) 0xb4;
+				operand = SA2_CPU.STACK_START;
+				break;
+			case "return":
+				opcode = (byte) 0xa8;
+				break;
+
+			default:
+				throw error("Unknown command exception", "expected 'command' or 'label' or 'comment'.");
+		}
+	}
+
+	/**
+	 * Liest das nächste durch Leerzeichen getrennte Token der Zeile.
+	 *
+	 * @return {@code false}, falls die Zeile zu Ende ist.
+	 */
+	private boolean nextToken() {
+		while (pos < end && Character.isWhitespace(source.charAt(pos)))
+			++pos;
+		if (pos == end)
+			return false;
+		tokenStart = pos;
+		while (pos < end && !Character.isWhitespace(source.charAt(pos)))
+			++pos;
+		tokenEnd = pos;
+		return true;
+	}
+
+	private String token() {
+		return source.substring(tokenStart, tokenEnd);
+	}
+
+	/**
+	 * Schreibt das letzte Token kleingeschrieben nach {@link #compact}.
+	 *
+	 * @param withoutDollar Ob alle {@code $} entfernt werden.
+	 * @return {@link #compact}.
+	 */
+	private StringBuilder compactToken(boolean withoutDollar) {
+		compact.setLength(0);
+		for (int i = tokenStart; i < tokenEnd; ++i) {
+			char c = source.charAt(i);
+			if (c != '$' || !withoutDollar)
+				compact.append(Character.toLowerCase(c));
+		}
+		return compact;
+	}
+
+	/**
+	 * Schreibt den Rest der Zeile bis zum Kommentar kleingeschrieben und ohne
+	 * Leerzeichen nach {@link #compact}; der Rest der Zeile wird ignoriert.
+	 *
+	 * @throws AssemblyError falls nach dem Befehl nichts mehr steht.
+	 */
+	private void compactOperand(String kind, String expected) throws AssemblyError {
+		if (pos == end)
+			throw error(kind, expected);
+		compact.setLength(0);
+		for (; pos < end; ++pos) {
+			char c = source.charAt(pos);
+			if (c == '/')
+				break;
+			if (c != ' ' && c != '\t' && c != '\u000b' && c != '\f')
+				compact.append(Character.toLowerCase(c));
+		}
+		pos = end;
+	}
+
+	/**
+	 * Teilt {@link #compact} in nicht leere Teile, getrennt durch {@code ,} und
+	 * {@code ->} (bei {@code load}) oder durch jedes der Zeichen {@code ,()->}.
+	 */
+	private void splitOperand(boolean arrowOnly) {
+		parts = 0;
+		int partBegin = 0;
+		for (int i = 0; i <= compact.length(); ++i) {
+			int separator = 0;
+			if (i == compact.length())
+				separator = 1;
+			else if (arrowOnly) {
+				char c = compact.charAt(i);
+				if (c == ',')
+					separator = 1;
+				else if (c == '-' && i + 1 < compact.length() && compact.charAt(i + 1) == '>')
+					separator = 2;
+			} else if (",()->".indexOf(compact.charAt(i)) >= 0) {
+				separator = 1;
+			}
+			if (separator == 0)
+				continue;
+			if (i > partBegin) {
+				if (parts < 2) {
+					partStart[parts] = partBegin;
+					partEnd[parts] = i;
+				}
+				++parts;
+			}
+			i += separator - 1;
+			partBegin = i + 1;
+		}
+	}
+
+	/** @return Ob der Teil des Operanden genau der gegebene Text ist. */
+	private boolean isPart(int part, String text) {
+		int length = partEnd[part] - partStart[part];
+		if (length != text.length())
+			return false;
+		for (int i = 0; i < length; ++i)
+			if (compact.charAt(partStart[part] + i) != text.charAt(i))
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return Ob der Bereich von {@link #compact} ein Operationsliteral ist: eine
+	 *         Dezimalzahl, eventuell plus oder minus eine zweite.
+	 */
+	private boolean isLiteral(int from, int to) {
+		int i = from;
+		while (i < to && isDigit(compact.charAt(i)))
+			++i;
+		if (i == from)
+			return false;
+		if (i == to)
+			return true;
+		char operation = compact.charAt(i++);
+		if (operation != '+' && operation != '-' || i == to)
+			return false;
+		while (i < to && isDigit(compact.charAt(i)))
+			++i;
+		return i == to;
+	}
+
+	private byte literal(int from, int to) throws AssemblyError {
+		return literal(compact, from, to);
+	}
+
+	/**
+	 * Rechnet ein Operationsliteral aus: einen oder zwei durch {@code +} oder
+	 * {@code -} getrennte Dezimalzahlen. Wie bei {@link String#split(String)}
+	 * zählen leere Teile am Ende nicht; steht irgendwo ein {@code +}, wird
+	 * addiert.
+	 *
+	 * @return Das untere Byte des Werts.
+	 */
+	private byte literal(CharSequence text, int from, int to) throws AssemblyError {
+		boolean addition = false;
+		for (int i = from; i < to; ++i)
+			addition |= text.charAt(i) == '+';
+		// leere Teile am Ende ignorieren; bleibt keiner übrig, ist das ein Fehler
+		int last = to;
+		while (last > from && isOperation(text.charAt(last - 1)))
+			--last;
+		if (last == from && to > from)
+			throw error("Literal Operation error", "inline operation with more than two operands.");
+		int split = from;
+		while (split < last && !isOperation(text.charAt(split)))
+			++split;
+		int value = number(text, from, split);
+		if (split == last)
+			return (byte) value;
+		for (int i = split + 1; i < last; ++i)
+			if (isOperation(text.charAt(i)))
+				throw error("Literal Operation error", "inline operation with more than two operands.");
+		int second = number(text, split + 1, last);
+		return (byte) (addition ? value + second : value - second);
+	}
+
+	/**
+	 * @return Den Wert einer Dezimalzahl ohne Vorzeichen.
+	 */
+	private int number(CharSequence text, int from, int to) throws AssemblyError {
+		if (from == to || to - from > 10)
+			throw numberError(text, from, to);
+		long value = 0;
+		for (int i = from; i < to; ++i) {
+			char c = text.charAt(i);
+			if (!isDigit(c))
+				throw numberError(text, from, to);
+			value = value * 10 + (c - '0');
+		}
+		if (value > Integer.MAX_VALUE)
+			throw numberError(text, from, to);
+		return (int) value;
+	}
+
+	private AssemblyError numberError(CharSequence text, int from, int to) {
+		return error("Syntax error", "expected decimal number, found '" + text.subSequence(from, to) + "'.");
+	}
+
+	/**
+	 * @return Das Ende der Zeile ab {@code start}, ohne Zeilenumbruch.
+	 */
+	static int lineEnd(String source, int start) {
+		int end = start;
+		while (end < source.length() && !isLineBreak(source.charAt(end)))
+			++end;
+		return end;
+	}
+
+	/**
+	 * @return Der Anfang der nächsten Zeile nach dem Ende {@code end} einer Zeile;
+	 *         ein Umbruch aus {@code \r\n} zählt als einer.
+	 */
+	static int nextLine(String source, int end) {
+		if (end < source.length() - 1 && source.charAt(end) == '\r' && source.charAt(end + 1) == '\n')
+			return end + 2;
+		return end + 1;
+	}
+
+	/**
+	 * @return Ob das Zeichen eine Zeile beendet, wie bei
+	 *         {@link java.util.Scanner#nextLine()}.
+	 */
+	private static boolean isLineBreak(char c) {
+		return c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029' || c == '\u0085';
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isOperation(char c) {
+		return c == '+' || c == '-';
+	}
+
+	/** @return Ob der Text ein gültiger Labelname für Sprünge ist. */
+	private static boolean isWord(CharSequence text) {
+		for (int i = 0; i < text.length(); ++i) {
+			char c = text.charAt(i);
+			if (!(isDigit(c) || c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '_'))
+				return false;
+		}
+		return text.length() > 0;
+	}
+
+	private static int aluBase(String command) {
+		switch (command) {
+			case "add":
+				return 0x30;
+			case "sub":
+				return 0x40;
+			case "or":
+				return 0x50;
+			case "xor":
+				return 0x60;
+			default:
+				return 0x70;
+		}
+	}
+
+	private static int jumpOpcode(String command) {
+		switch (command) {
+			case "jmpc":
+				return 0xa1;
+			case "jmpnc":
+				return 0xa2;
+			case "jmpz":
+				return 0xa3;
+			case "jmpnz":
+				return 0xa4;
+			case "jmpp":
+				return 0xa5;
+			case "jmpnp":
+				return 0xa6;
+			case "call":
+				return 0xa7;
+			default:
+				return 0xa0;
+		}
+	}
+
+	/**
+	 * @return Einen Fehler der Form "Art in line N: Erwartung", wie ihn der
+	 *         Assembler schon immer meldet.
+	 */
+	private AssemblyError error(String kind, String expected) {
+		return new AssemblyError(kind + " in line " + line + ": " + expected, line);
+	}
+}
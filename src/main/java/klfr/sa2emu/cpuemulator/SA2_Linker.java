@@ -0,0 +1,169 @@
+package klfr.sa2emu.cpuemulator;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import klfr.sa2emu.cpuemulator.exceptions.AssemblyError;
+
+/**
+ * Legt die zerlegten Zeilen eines Programms hintereinander in einen Bytepuffer
+ * und setzt am Ende die Sprünge auf Labels ein. Der Wert eines Labels ist die
+ * Nummer seiner Zeile, gezählt ohne leere Zeilen und Kommentare; für Sprünge
+ * gilt die letzte Definition eines Labels, für {@link SA2_Assembler#labelAt}
+ * die erste.<br>
+ * <br>
+ * Nach {@code bank N} landen die Zeilen im Code der Bank N, der höchstens
+ * {@link RandomAccessMemory#BANK_SIZE} Bytes lang ist. Dort wird ab dem Anfang
+ * des Fensters {@link RandomAccessMemory#BANK_WINDOW} gezählt, statt ab 0.<br>
+ * <br>
+ * Wird vom {@link SA2_Assembler} und vom {@link SA2_IncrementalAssembler}
+ * benutzt, damit beide dasselbe Programm erzeugen.
+ *
+ * @author kleines Filmröllchen
+ */
+final class SA2_Linker {
+
+	/** Maschinencode und Zeile im Quelltext jedes Befehls. */
+	private byte[] code = new byte[256];
+	private int[] lines = new int[code.length / 2];
+	private int size = 0;
+	/** Code jeder Bank und wie viel davon belegt ist. */
+	private final Map<Integer, byte[]> banks = new TreeMap<>();
+	private final Map<Integer, Integer> bankSizes = new HashMap<>();
+	/** Die Bank der folgenden Zeilen, -1 für das Hauptprogramm, und ihre Länge. */
+	private int bank = -1, bankSize = 0;
+	/** Erste Zeile, die nicht mehr in ihre Bank passt, oder 0. */
+	private int overflowLine = 0, overflowBank;
+	/** Zeilen ohne leere Zeilen und Kommentare. */
+	private int linenumber = 0;
+	/** Wert jedes Labels. */
+	private final Map<String, Integer> labels = new HashMap<>();
+	/** Namen der Labels nach Adresse. */
+	final Map<Integer, String> labelNames = new HashMap<>();
+	/** Vorgemerkte Sprünge auf Labels: Adresse des Operanden, Label, Zeile. */
+	private int[] fixupAddresses = new int[16], fixupLines = new int[16];
+	private String[] fixupLabels = new String[16];
+	/** Bank jedes vorgemerkten Sprungs, -1 für das Hauptprogramm. */
+	private int[] fixupBanks = new int[16];
+	private int fixups = 0;
+
+	/**
+	 * Fügt die zuletzt vom Parser zerlegte Zeile hinzu.
+	 *
+	 * @param realline Nummer der Zeile im Quelltext ab 1.
+	 */
+	void add(SA2_LineParser parser, int realline) {
+		add(parser.kind, parser.label, parser.opcode, parser.operand, parser.target, realline);
+	}
+
+	/**
+	 * Fügt eine zerlegte Zeile hinzu, siehe die Felder von
+	 * {@link SA2_LineParser}.
+	 *
+	 * @param realline Nummer der Zeile im Quelltext ab 1.
+	 */
+	void add(int kind, String label, byte opcode, byte operand, String target, int realline) {
+		if (kind == SA2_LineParser.EMPTY)
+			return;
+		if (kind == SA2_LineParser.BANK) {
+			if (bank >= 0)
+				bankSizes.put(bank, bankSize);
+			bank = (opcode & 0xff) << 8 | operand & 0xff;
+			banks.computeIfAbsent(bank, b -> new byte[RandomAccessMemory.BANK_SIZE]);
+			bankSize = bankSizes.getOrDefault(bank, 0);
+			linenumber = RandomAccessMemory.BANK_WINDOW + bankSize / 2;
+			return;
+		}
+		++linenumber;
+
+		if (label != null && labels.put(label, linenumber) == null && bank < 0)
+			labelNames.putIfAbsent(size, label);
+		if (kind != SA2_LineParser.INSTRUCTION)
+			return;
+
+		if (bank < 0 && size == code.length) {
+			code = Arrays.copyOf(code, size * 2);
+			lines = Arrays.copyOf(lines, size);
+		}
+		if (bank >= 0 && bankSize == RandomAccessMemory.BANK_SIZE) {
+			if (overflowLine == 0) {
+				overflowLine = realline;
+				overflowBank = bank;
+			}
+			return;
+		}
+		if (target != null) {
+			if (fixups == fixupAddresses.length) {
+				fixupAddresses = Arrays.copyOf(fixupAddresses, fixups * 2);
+				fixupLines = Arrays.copyOf(fixupLines, fixups * 2);
+				fixupLabels = Arrays.copyOf(fixupLabels, fixups * 2);
+				fixupBanks = Arrays.copyOf(fixupBanks, fixups * 2);
+			}
+			fixupAddresses[fixups] = (bank < 0 ? size : bankSize) + 1;
+			fixupLines[fixups] = realline;
+			fixupBanks[fixups] = bank;
+			fixupLabels[fixups++] = target;
+		}
+		if (bank >= 0) {
+			byte[] section = banks.get(bank);
+			section[bankSize++] = opcode;
+			section[bankSize++] = operand;
+			return;
+		}
+		lines[size / 2] = realline;
+		code[size++] = opcode;
+		code[size++] = operand;
+	}
+
+	/**
+	 * Setzt die Sprunglabels ein.
+	 *
+	 * @throws AssemblyError falls ein Sprung auf ein undefiniertes Label zeigt
+	 *                       oder eine Bank zu viel Code enthält.
+	 */
+	void link() throws AssemblyError {
+		if (overflowLine > 0)
+			throw new AssemblyError("Bank overflow error in line " + overflowLine + ": bank " + overflowBank
+					+ " holds at most " + RandomAccessMemory.BANK_SIZE + " bytes.", overflowLine);
+		for (int i = 0; i < fixups; ++i) {
+			Integer value = labels.get(fixupLabels[i]);
+			if (value == null)
+				throw new AssemblyError("Unknown label error in line " + fixupLines[i] + ": label '" + fixupLabels[i]
+						+ "' is not defined.", fixupLines[i]);
+			(fixupBanks[i] < 0 ? code : banks.get(fixupBanks[i]))[fixupAddresses[i]] = value.byteValue();
+		}
+	}
+
+	/**
+	 * @return Die Namen der Labels nach ihrem Wert als Byte, so wie ihn
+	 *         {@link #link()} in die Sprünge einsetzt.
+	 */
+	Map<Integer, String> labelValues() {
+		Map<Integer, String> names = new HashMap<>();
+		for (Map.Entry<String, Integer> label : labels.entrySet())
+			names.putIfAbsent(label.getValue() & 0xff, label.getKey());
+		return names;
+	}
+
+	/** @return Der fertige Maschinencode. */
+	byte[] machineCode() {
+		return Arrays.copyOf(code, size);
+	}
+
+	/** @return Die Zeile im Quelltext jedes Befehls des Hauptprogramms. */
+	int[] sourceLines() {
+		return Arrays.copyOf(lines, size / 2);
+	}
+
+	/** @return Der fertige Code jeder Bank nach ihrer Nummer. */
+	Map<Integer, byte[]> bankCode() {
+		if (bank >= 0)
+			bankSizes.put(bank, bankSize);
+		Map<Integer, byte[]> result = new TreeMap<>();
+		for (Map.Entry<Integer, byte[]> section : banks.entrySet())
+			result.put(section.getKey(), Arrays.copyOf(section.getValue(), bankSizes.get(section.getKey())));
+		return result;
+	}
+}
@@ -0,0 +1,541 @@
+package klfr.sa2emu.cpuemulator;
+
+import static klfr.sa2emu.cpuemulator.SA2_CPU.*;
+
+import java.util.Arrays;
+
+/**
+ * Führt viele SA2-Maschinen (Spuren) im Gleichschritt aus. Der Zustand aller
+ * Spuren liegt in primitiven Arrays: ein {@code byte[]} pro Register mit einem
+ * Eintrag pro Spur und ein gemeinsamer Arbeitsspeicher mit 256 Bytes pro Spur.
+ * Ein Schritt führt in jeder laufenden Spur genau einen Maschinenbefehl aus, mit
+ * demselben Ergebnis wie {@link SA2_FastEngine}.<br>
+ * <br>
+ * Führen alle Spuren denselben Rechenbefehl aus (der Normalfall, wenn dasselbe
+ * Programm mit verschiedenen Daten läuft), rechnet die ALU in einer einfachen
+ * Schleife über alle Spuren, die der JIT-Compiler vektorisieren kann. Sonst,
+ * etwa nach unterschiedlich genommenen bedingten Sprüngen, wird jede Spur
+ * einzeln ausgeführt.
+ *
+ * @author kleines Filmröllchen
+ */
+public class SA2_LockstepEngine {
+
+	/** Größe des Arbeitsspeichers jeder Spur. */
+	public static final int MEMORY_SIZE = 256;
+
+	private final int lanes;
+
+	// Register, ein Eintrag pro Spur
+	private final byte[] A, B, X, SP, PC, IP, OP, FR, ALU, MAR, OUT;
+	/** Arbeitsspeicher, Spur i liegt bei {@code i * MEMORY_SIZE}. */
+	private final byte[] ram;
+	/** Ausgabebusse, erst bei Benutzung erzeugt. */
+	private final OutputBus[] outputs;
+
+	private final boolean[] halted;
+	/** Fehler einer Spur; eine Spur mit Fehler läuft nicht weiter. */
+	private final RuntimeException[] errors;
+	private final long[] cycles, instructions;
+	/** Anzahl der Spuren, die weder angehalten noch abgebrochen sind. */
+	private int running;
+
+	/**
+	 * Erzeugt die gegebene Anzahl an Spuren im Zustand einer frisch
+	 * zurückgesetzten {@link SA2_CPU}.
+	 */
+	public SA2_LockstepEngine(int lanes) {
+		this.lanes = lanes;
+		A = new byte[lanes];
+		B = new byte[lanes];
+		X = new byte[lanes];
+		SP = new byte[lanes];
+		PC = new byte[lanes];
+		IP = new byte[lanes];
+		OP = new byte[lanes];
+		FR = new byte[lanes];
+		ALU = new byte[lanes];
+		MAR = new byte[lanes];
+		OUT = new byte[lanes];
+		ram = new byte[lanes * MEMORY_SIZE];
+		outputs = new OutputBus[lanes];
+		halted = new boolean[lanes];
+		errors = new RuntimeException[lanes];
+		cycles = new long[lanes];
+		instructions = new long[lanes];
+		Arrays.fill(SP, STACK_START);
+		running = lanes;
+	}
+
+	/**
+	 * Setzt den Arbeitsspeicher einer Spur ab Adresse 0.
+	 */
+	public void setMemory(int lane, byte[] memory) {
+		System.arraycopy(memory, 0, ram, lane * MEMORY_SIZE, Math.min(memory.length, MEMORY_SIZE));
+	}
+
+	/**
+	 * Setzt den Arbeitsspeicher aller Spuren ab Adresse 0.
+	 */
+	public void setMemory(byte[] memory) {
+		for (int lane = 0; lane < lanes; ++lane)
+			setMemory(lane, memory);
+	}
+
+	/**
+	 * Schreibt ein Byte in den Arbeitsspeicher einer Spur.
+	 */
+	public void write(int lane, int address, byte value) {
+		ram[lane * MEMORY_SIZE + address] = value;
+	}
+
+	/**
+	 * Liest ein Byte aus dem Arbeitsspeicher einer Spur.
+	 */
+	public byte read(int lane, int address) {
+		return ram[lane * MEMORY_SIZE + address];
+	}
+
+	/**
+	 * Führt Schritte aus, bis alle Spuren angehalten haben oder die gegebene
+	 * Anzahl an Schritten erreicht ist.
+	 *
+	 * @return Die Anzahl der ausgeführten Schritte.
+	 */
+	public long run(long maxSteps) {
+		long steps = 0;
+		while (running > 0 && steps < maxSteps) {
+			step();
+			++steps;
+		}
+		return steps;
+	}
+
+	/**
+	 * Führt in jeder laufenden Spur einen Maschinenbefehl aus.
+	 *
+	 * @return Die Anzahl der Spuren, die einen Befehl ausgeführt haben.
+	 */
+	public int step() {
+		if (running == 0)
+			return 0;
+		final int executed = running;
+
+		//// Von-Neumann-Zyklus aller Spuren
+		boolean uniform = running == lanes;
+		for (int i = 0; i < lanes; ++i) {
+			if (halted[i] || errors[i] != null)
+				continue;
+			int base = i * MEMORY_SIZE, pc = PC[i];
+			IP[i] = ram[base | pc & 0xff];
+			OP[i] = ram[base | pc + 1 & 0xff];
+			MAR[i] = (byte) (pc + 1);
+			PC[i] = (byte) (pc + 2);
+		}
+		for (int i = 1; i < lanes && uniform; ++i)
+			uniform = IP[i] == IP[0];
+
+		if (uniform && executeUniform(IP[0]))
+			return executed;
+		for (int i = 0; i < lanes; ++i) {
+			if (halted[i] || errors[i] != null)
+				continue;
+			try {
+				executeLane(i);
+			} catch (RuntimeException e) {
+				errors[i] = e;
+				--running;
+			}
+		}
+		return executed;
+	}
+
+	/**
+	 * Führt einen Rechenbefehl, den alle Spuren gleichzeitig ausführen, als
+	 * Schleife über die Spuren aus.
+	 *
+	 * @return Ob der Befehl so ausgeführt werden konnte; sonst muss jede Spur
+	 *         einzeln ausgeführt werden.
+	 */
+	private boolean executeUniform(byte ip) {
+		switch (ip) {
+			case 0x30:
+			case 0x40:
+			case 0x50:
+			case 0x60:
+			case 0x70:
+				System.arraycopy(B, 0, X, 0, lanes);
+				break;
+			case (byte) 0x84:
+			case (byte) 0x85:
+				Arrays.fill(X, (byte) 0x01);
+				break;
+			case 0x31:
+			case 0x41:
+			case 0x51:
+			case 0x61:
+			case 0x71:
+			case (byte) 0x81:
+			case (byte) 0x82:
+			case (byte) 0x83:
+				break;
+			default:
+				return false;
+		}
+		// Rechenbefehle hängen nicht von den Flaggen ab
+		int row = microcodeRow(ip, (byte) 0);
+		int length = MICROCODE_LENGTH[row / MICROSTEPS];
+		long last = MICROCODE[row | (MICROSTEPS / 2 - 1 + length)];
+		aluLanes(aluOperation(last), (last & EO) != 0);
+		System.arraycopy(ALU, 0, A, 0, lanes);
+		for (int i = 0; i < lanes; ++i) {
+			cycles[i] += MICROSTEPS / 2 + length;
+			++instructions[i];
+		}
+		return true;
+	}
+
+	/**
+	 * Berechnet die ALU aller Spuren aus A und X; dieselbe Rechnung wie
+	 * {@link ALURegister#compute(int, byte, byte)}.
+	 */
+	private void aluLanes(int operation, boolean setFlags) {
+		final byte[] a = A, x = X, alu = ALU;
+		final int n = lanes;
+		switch (operation) {
+			case ALURegister.SUBTRACTION:
+				for (int i = 0; i < n; ++i)
+					alu[i] = (byte) (a[i] - x[i]);
+				break;
+			case ALURegister.OR:
+				for (int i = 0; i < n; ++i)
+					alu[i] = (byte) (a[i] | x[i]);
+				break;
+			case ALURegister.XOR:
+				for (int i = 0; i < n; ++i)
+					alu[i] = (byte) (a[i] ^ x[i]);
+				break;
+			case ALURegister.AND:
+				for (int i = 0; i < n; ++i)
+					alu[i] = (byte) (a[i] & x[i]);
+				break;
+			case ALURegister.NOT:
+				for (int i = 0; i < n; ++i)
+					alu[i] = (byte) ~a[i];
+				break;
+			case ALURegister.BITSHIFTLEFT:
+				for (int i = 0; i < n; ++i)
+					alu[i] = (byte) (a[i] << 1);
+				break;
+			case ALURegister.BITSHIFTRIGHT:
+				for (int i = 0; i < n; ++i)
+					alu[i] = (byte) (a[i] >>> 1);
+				break;
+			default:
+				for (int i = 0; i < n; ++i)
+					alu[i] = (byte) (a[i] + x[i]);
+		}
+		if (setFlags) {
+			// die Übertragsflagge kann bei Bytes mit Vorzeichen nie gesetzt werden
+			final byte[] fr = FR;
+			for (int i = 0; i < n; ++i)
+				fr[i] = (byte) ((alu[i] == 0 ? 0b001 : 0) | (alu[i] & 0x01) << 2);
+		}
+	}
+
+	/**
+	 * Führt den bereits geholten Befehl einer einzelnen Spur aus, entsprechend
+	 * {@link SA2_FastEngine#step()}.
+	 */
+	private void executeLane(int i) {
+		final int base = i * MEMORY_SIZE;
+		final byte ip = IP[i], op = OP[i];
+		int row = microcodeRow(ip, FR[i]);
+		int length = MICROCODE_LENGTH[row / MICROSTEPS];
+		long last = MICROCODE[row | (MICROSTEPS / 2 - 1 + length)];
+		cycles[i] += MICROSTEPS / 2 + length;
+		++instructions[i];
+
+		if ((last & HLT) != 0) {
+			ALU[i] = (byte) ALURegister.compute(ALURegister.ADDITION, A[i], X[i]);
+			halted[i] = true;
+			--running;
+			return;
+		}
+
+		byte val;
+		int address;
+		switch (ip) {
+			case 0x10:
+			case 0x11:
+				MAR[i] = op;
+				alu(i, last);
+				val = ram[base | op & 0xff];
+				if (ip == 0x10)
+					A[i] = val;
+				else
+					B[i] = val;
+				break;
+			case 0x12:
+				alu(i, last);
+				A[i] = op;
+				break;
+			case 0x13:
+				alu(i, last);
+				B[i] = op;
+				break;
+
+			case 0x20:
+			case 0x21:
+				MAR[i] = op;
+				alu(i, last);
+				ram[base | op & 0xff] = ip == 0x20 ? A[i] : B[i];
+				break;
+
+			case 0x30:
+			case 0x40:
+			case 0x50:
+			case 0x60:
+			case 0x70:
+				X[i] = B[i];
+				A[i] = alu(i, last);
+				break;
+			case 0x31:
+			case 0x41:
+			case 0x51:
+			case 0x61:
+			case 0x71:
+			case (byte) 0x81:
+			case (byte) 0x82:
+			case (byte) 0x83:
+				A[i] = alu(i, last);
+				break;
+			case 0x32:
+			case 0x42:
+			case 0x52:
+			case 0x62:
+			case 0x72:
+			case 0x33:
+			case 0x43:
+			case 0x53:
+			case 0x63:
+			case 0x73:
+			case 0x34:
+			case 0x44:
+			case 0x54:
+			case 0x64:
+			case 0x74:
+				switch (ip & 0x0f) {
+					case 0x02:
+						val = op;
+						break;
+					case 0x03:
+						val = B[i];
+						break;
+					default:
+						val = X[i];
+				}
+				MAR[i] = val;
+				X[i] = ram[base | val & 0xff];
+				A[i] = alu(i, last);
+				break;
+			case (byte) 0x84:
+			case (byte) 0x85:
+				X[i] = 0x01;
+				A[i] = alu(i, last);
+				break;
+
+			case (byte) 0x90:
+				alu(i, last);
+				OUT[i] = A[i];
+				break;
+			case (byte) 0x91:
+				alu(i, last);
+				output(i).processCommand(op);
+				break;
+			case (byte) 0x92:
+				alu(i, last);
+				output(i).getAddressRegister().setValue(op);
+				break;
+			case (byte) 0x93:
+				alu(i, last);
+				output(i).processData(op);
+				break;
+
+			case (byte) 0xa0:
+			case (byte) 0xa1:
+			case (byte) 0xa2:
+			case (byte) 0xa3:
+			case (byte) 0xa4:
+			case (byte) 0xa5:
+			case (byte) 0xa6:
+				alu(i, last);
+				if ((last & CI) != 0)
+					PC[i] = op;
+				break;
+			case (byte) 0xa7:
+				address = SP[i] & 0xff;
+				MAR[i] = SP[i];
+				SP[i] = (byte) (address - 1);
+				ram[base | address] = PC[i];
+				alu(i, last);
+				PC[i] = op;
+				break;
+			case (byte) 0xa8:
+				SP[i] = (byte) (SP[i] + 1);
+				MAR[i] = SP[i];
+				alu(i, last);
+				PC[i] = ram[base | SP[i] & 0xff];
+				break;
+
+			case (byte) 0xb0:
+			case (byte) 0xb2:
+				address = SP[i] & 0xff;
+				MAR[i] = SP[i];
+				SP[i] = (byte) (address - 1);
+				alu(i, last);
+				ram[base | address] = ip == (byte) 0xb0 ? A[i] : B[i];
+				break;
+			case (byte) 0xb1:
+			case (byte) 0xb3:
+				SP[i] = (byte) (SP[i] + 1);
+				alu(i, last);
+				if (ip == (byte) 0xb1)
+					A[i] = SP[i];
+				else
+					B[i] = SP[i];
+				break;
+			case (byte) 0xb4:
+				alu(i, last);
+				SP[i] = op;
+				break;
+
+			case 0x23:
+				alu(i, last);
+				B[i] = A[i];
+				break;
+			case 0x24:
+				alu(i, last);
+				X[i] = A[i];
+				break;
+			case 0x25:
+				alu(i, last);
+				A[i] = B[i];
+				break;
+			case 0x27:
+				alu(i, last);
+				X[i] = B[i];
+				break;
+			case 0x28:
+				alu(i, last);
+				A[i] = SP[i];
+				break;
+			case 0x29:
+				alu(i, last);
+				B[i] = SP[i];
+				break;
+			case 0x2a:
+				alu(i, last);
+				X[i] = SP[i];
+				break;
+			case 0x2b:
+				X[i] = A[i];
+				A[i] = B[i];
+				alu(i, last);
+				B[i] = X[i];
+				break;
+
+			default:
+				alu(i, last);
+		}
+	}
+
+	/**
+	 * Berechnet die ALU einer Spur wie der gegebene Mikrobefehl.
+	 */
+	private byte alu(int i, long microinstruction) {
+		int result = ALURegister.compute(aluOperation(microinstruction), A[i], X[i]);
+		ALU[i] = (byte) result;
+		if ((microinstruction & EO) != 0)
+			FR[i] = (byte) (result >> 8);
+		return (byte) result;
+	}
+
+	/**
+	 * @return Der Ausgabebus der Spur; wird beim ersten Aufruf erzeugt.
+	 */
+	public OutputBus output(int lane) {
+		if (outputs[lane] == null) {
+			// wie nach SA2_CPU.reset()
+			outputs[lane] = new StandardOutputBus(new RegisterBus());
+			outputs[lane].processCommand((byte) 0);
+		}
+		return outputs[lane];
+	}
+
+	/**
+	 * Überträgt Register und Arbeitsspeicher einer Spur in die gegebene CPU, etwa
+	 * zur Anzeige. Der Ausgabebus wird nicht übertragen, siehe
+	 * {@link #output(int)}.
+	 */
+	public void copyTo(int lane, SA2_CPU cpu) {
+		cpu.A.setValue(A[lane]);
+		cpu.B.setValue(B[lane]);
+		cpu.X.setValue(X[lane]);
+		cpu.SP.setValue(SP[lane]);
+		cpu.PC.setValue(PC[lane]);
+		cpu.IP.setValue(IP[lane]);
+		cpu.OP.setValue(OP[lane]);
+		cpu.FR.setValue(FR[lane]);
+		cpu.ALU.setValue(ALU[lane]);
+		cpu.OUT.setValue(OUT[lane]);
+		cpu.RAM.AddressPointer.setValue(MAR[lane]);
+		cpu.RAM.write(0, ram, lane * MEMORY_SIZE, MEMORY_SIZE);
+		cpu.halted = halted[lane];
+		cpu.setMicrocodeState(microcodeRow(IP[lane], FR[lane]), (byte) (halted[lane] ? MICROSTEPS / 2 + 1 : 0), 0L,
+				(byte) 0);
+	}
+
+	/**
+	 * @return Die Anzahl der Spuren.
+	 */
+	public int lanes() {
+		return lanes;
+	}
+
+	/**
+	 * @return Die Anzahl der Spuren, die noch laufen.
+	 */
+	public int running() {
+		return running;
+	}
+
+	/**
+	 * @return Ob die Spur angehalten hat.
+	 */
+	public boolean halted(int lane) {
+		return halted[lane];
+	}
+
+	/**
+	 * @return Der Fehler, mit dem die Spur abgebrochen wurde, oder {@code null}.
+	 */
+	public RuntimeException error(int lane) {
+		return errors[lane];
+	}
+
+	/**
+	 * @return Die Anzahl der Taktzyklen, die die Spur in der
+	 *         Mikrobefehlssimulation benötigt hätte.
+	 */
+	public long cycles(int lane) {
+		return cycles[lane];
+	}
+
+	/**
+	 * @return Die Anzahl der in der Spur ausgeführten Maschinenbefehle.
+	 */
+	public long instructions(int lane) {
+		return instructions[lane];
+	}
+}
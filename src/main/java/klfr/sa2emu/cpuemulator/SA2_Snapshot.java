@@ -0,0 +1,103 @@
+package klfr.sa2emu.cpuemulator;
+
+import java.util.Arrays;
+
+/**
+ * Unveränderlicher Zustand einer {@link SA2_CPU} zu einem bestimmten Zeitpunkt:
+ * alle Register, Mikrobefehlszähler, aktueller Mikrobefehl, Arbeitsspeicher und
+ * Ausgabebus, gepackt in ein einziges Byte-Array. Wird mit
+ * {@link SA2_CPU#snapshot()} erzeugt und mit
+ * {@link SA2_CPU#restore(SA2_Snapshot)} wiederhergestellt; dieselbe Momentaufnahme
+ * kann beliebig oft wiederhergestellt werden.<br>
+ * <br>
+ * Der Hintergrundspeicher der Bänke wird nicht in das Array kopiert, sondern
+ * copy-on-write mit dem Arbeitsspeicher geteilt; erst {@link #toByteArray()}
+ * fügt ihn in das Array ein.
+ * 
+ * @author kleines Filmröllchen
+ */
+public final class SA2_Snapshot {
+
+	private final byte[] state;
+	/** Der geteilte Hintergrundspeicher oder {@code null}. */
+	private final BankStorage storage;
+	/** Stelle im gepackten Zustand, an der der Hintergrundspeicher steht. */
+	private final int storageOffset;
+
+	/**
+	 * Übernimmt das Array ohne Kopie; es darf danach nicht mehr verändert werden.
+	 */
+	SA2_Snapshot(byte[] state) {
+		this(state, null, 0);
+	}
+
+	/**
+	 * Übernimmt das Array ohne Kopie; es darf danach nicht mehr verändert werden.
+	 *
+	 * @param storage       Der Hintergrundspeicher oder {@code null}.
+	 * @param storageOffset Stelle im gepackten Zustand, an die der
+	 *                      Hintergrundspeicher gehört.
+	 */
+	SA2_Snapshot(byte[] state, BankStorage storage, int storageOffset) {
+		this.state = state;
+		this.storage = storage;
+		this.storageOffset = storageOffset;
+	}
+
+	/**
+	 * Erzeugt eine Momentaufnahme aus einem mit {@link #toByteArray()} erzeugten
+	 * Array, etwa nach dem Lesen aus einer Datei.
+	 */
+	public static SA2_Snapshot fromByteArray(byte[] bytes) {
+		return new SA2_Snapshot(bytes.clone());
+	}
+
+	/**
+	 * @return Eine Kopie des gepackten Zustands einschließlich des
+	 *         Hintergrundspeichers.
+	 */
+	public byte[] toByteArray() {
+		if (storage == null)
+			return state.clone();
+		byte[] bytes = new byte[size()];
+		int storageSize = bytes.length - state.length;
+		System.arraycopy(state, 0, bytes, 0, storageOffset);
+		for (int page = 0; page < storage.pageCount(); ++page)
+			System.arraycopy(storage.page(page), 0, bytes, storageOffset + page * RandomAccessMemory.PAGE_SIZE,
+					RandomAccessMemory.PAGE_SIZE);
+		System.arraycopy(state, storageOffset, bytes, storageOffset + storageSize, state.length - storageOffset);
+		return bytes;
+	}
+
+	/**
+	 * @return Die Größe des gepackten Zustands in Bytes.
+	 */
+	public int size() {
+		return state.length + (storage == null ? 0 : storage.pageCount() * RandomAccessMemory.PAGE_SIZE);
+	}
+
+	/** Der gepackte Zustand ohne Hintergrundspeicher und ohne Kopie, nur zum Lesen. */
+	byte[] state() {
+		return state;
+	}
+
+	/** Der geteilte Hintergrundspeicher, nur zum Lesen, oder {@code null}. */
+	BankStorage storage() {
+		return storage;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof SA2_Snapshot))
+			return false;
+		SA2_Snapshot other = (SA2_Snapshot) obj;
+		if (storage == null && other.storage == null)
+			return Arrays.equals(state, other.state);
+		return Arrays.equals(toByteArray(), other.toByteArray());
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(storage == null ? state : toByteArray());
+	}
+}
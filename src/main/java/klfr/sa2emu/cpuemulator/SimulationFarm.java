@@ -0,0 +1,174 @@
+package klfr.sa2emu.cpuemulator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+import klfr.sa2emu.cpuemulator.exceptions.CPUException;
+
+/**
+ * Führt viele voneinander unabhängige SA2-Maschinen parallel aus. Jeder
+ * Auftrag bekommt seine eigene {@link SA2_CPU} mit eigenem Arbeitsspeicher und
+ * Ausgabebus und läuft mit {@link SA2_FastEngine}; die Aufträge teilen sich
+ * keinen veränderlichen Zustand und skalieren daher mit der Anzahl der Kerne.
+ *
+ * @author kleines Filmröllchen
+ */
+public class SimulationFarm implements AutoCloseable {
+
+	/**
+	 * Ein Auftrag: Programm, Anfangsinhalt des Arbeitsspeichers und Obergrenze der
+	 * Taktzyklen.
+	 */
+	public static class Job {
+		/** Maschinencode, der ab Adresse 0 über den Arbeitsspeicher gelegt wird. */
+		public final byte[] program;
+		/** Anfangsinhalt des Arbeitsspeichers; {@code null} für leeren Speicher. */
+		public final byte[] initialMemory;
+		/** Maximale Anzahl an Taktzyklen. */
+		public final long maxCycles;
+
+		public Job(byte[] program, byte[] initialMemory, long maxCycles) {
+			this.program = program;
+			this.initialMemory = initialMemory;
+			this.maxCycles = maxCycles;
+		}
+
+		public Job(byte[] program, long maxCycles) {
+			this(program, null, maxCycles);
+		}
+	}
+
+	/**
+	 * Ergebnis eines Auftrags.
+	 */
+	public static class Result {
+		/** Position des Auftrags in der übergebenen Liste. */
+		public final int index;
+		/** Ob die Maschine angehalten hat. */
+		public final boolean halted;
+		/** Ausgeführte Taktzyklen und Maschinenbefehle. */
+		public final long cycles, instructions;
+		/** Register am Ende der Ausführung. */
+		public final byte A, B, X, SP, PC, FR, OUT;
+		/** Arbeitsspeicher am Ende der Ausführung. */
+		public final byte[] memory;
+		/** Ausgabe des Ausgabebus, siehe {@link OutputBus#consolePaint()}. */
+		public final String output;
+		/** Fehler der CPU, falls die Ausführung abgebrochen wurde, sonst {@code null}. */
+		public final Exception error;
+
+		Result(int index, SA2_CPU cpu, long cycles, long instructions, Exception error) {
+			this.index = index;
+			this.halted = cpu.halted;
+			this.cycles = cycles;
+			this.instructions = instructions;
+			this.A = cpu.A.getValue();
+			this.B = cpu.B.getValue();
+			this.X = cpu.X.getValue();
+			this.SP = cpu.SP.getValue();
+			this.PC = cpu.PC.getValue();
+			this.FR = cpu.FR.getValue();
+			this.OUT = cpu.OUT.getValue();
+			this.memory = new byte[cpu.RAM.size()];
+			cpu.RAM.read(0, memory, 0, memory.length);
+			this.output = cpu.OB.consolePaint();
+			this.error = error;
+		}
+	}
+
+	private final ForkJoinPool pool;
+	/** Ob der Pool von dieser Farm erzeugt wurde und mit ihr beendet wird. */
+	private final boolean ownsPool;
+
+	/**
+	 * Erzeugt eine Farm, die alle verfügbaren Kerne benutzt.
+	 */
+	public SimulationFarm() {
+		this(new ForkJoinPool(Runtime.getRuntime().availableProcessors()), true);
+	}
+
+	/**
+	 * Erzeugt eine Farm, die den gegebenen Pool benutzt. Der Pool wird von
+	 * {@link #close()} nicht beendet.
+	 */
+	public SimulationFarm(ForkJoinPool pool) {
+		this(pool, false);
+	}
+
+	private SimulationFarm(ForkJoinPool pool, boolean ownsPool) {
+		this.pool = pool;
+		this.ownsPool = ownsPool;
+	}
+
+	/**
+	 * Führt alle Aufträge aus und übergibt jedes Ergebnis, sobald es fertig ist.
+	 * Der Empfänger wird nur im aufrufenden Thread aufgerufen; die Reihenfolge der
+	 * Ergebnisse ist die ihrer Fertigstellung.
+	 *
+	 * @throws InterruptedException falls der aufrufende Thread beim Warten
+	 *                              unterbrochen wird.
+	 */
+	public void run(List<Job> jobs, Consumer<Result> results) throws InterruptedException {
+		CompletionService<Result> completion = new ExecutorCompletionService<>(pool);
+		for (int i = 0; i < jobs.size(); ++i) {
+			final int index = i;
+			final Job job = jobs.get(i);
+			completion.submit(() -> execute(index, job));
+		}
+		for (int i = 0; i < jobs.size(); ++i) {
+			try {
+				results.accept(completion.take().get());
+			} catch (ExecutionException e) {
+				// execute() fängt alle Fehler der Simulation selbst ab
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Führt alle Aufträge aus.
+	 *
+	 * @return Die Ergebnisse in der Reihenfolge der Aufträge.
+	 */
+	public List<Result> runAll(List<Job> jobs) throws InterruptedException {
+		Result[] sorted = new Result[jobs.size()];
+		run(jobs, result -> sorted[result.index] = result);
+		return new ArrayList<>(Arrays.asList(sorted));
+	}
+
+	/**
+	 * Führt einen einzelnen Auftrag auf einer neuen CPU aus.
+	 */
+	static Result execute(int index, Job job) {
+		SA2_CPU cpu = new SA2_CPU();
+		byte[] memory = job.initialMemory == null ? new byte[cpu.RAM.size()]
+				: Arrays.copyOf(job.initialMemory, cpu.RAM.size());
+		if (job.program != null)
+			System.arraycopy(job.program, 0, memory, 0, Math.min(job.program.length, memory.length));
+		cpu.setMemory(memory);
+
+		SA2_FastEngine engine = new SA2_FastEngine(cpu);
+		Exception error = null;
+		try {
+			engine.run(job.maxCycles);
+		} catch (CPUException | RuntimeException e) {
+			error = e;
+		}
+		return new Result(index, cpu, engine.cycles(), engine.instructions(), error);
+	}
+
+	/**
+	 * Beendet den Pool, falls er von dieser Farm erzeugt wurde.
+	 */
+	@Override
+	public void close() {
+		if (ownsPool)
+			pool.shutdown();
+	}
+}
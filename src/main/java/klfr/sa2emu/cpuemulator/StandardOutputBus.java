@@ -4,8 +4,6 @@ import java.util.Arrays;
 import java.util.regex.Pattern;
 
 import javafx.scene.canvas.GraphicsContext;
-import javafx.scene.paint.Color;
-import javafx.scene.text.Font;
 import klfr.sa2emu.cpuemulator.exceptions.CPUException;
 import klfr.sa2emu.cpuemulator.exceptions.ReadForbiddenException;
 
@@ -48,9 +46,16 @@ public class StandardOutputBus implements OutputBus {
 	private int busaction = NONE;
 
 	private RegisterBus bus;
+	private final Register address;
 
 	public StandardOutputBus(RegisterBus bus) {
 		this.bus = bus;
+		this.address = new Register(true, bus, "OutputBusAddress");
+	}
+
+	@Override
+	public Register getAddressRegister() {
+		return address;
 	}
 
 	/**
@@ -114,38 +119,8 @@ public class StandardOutputBus implements OutputBus {
 
 	@Override
 	public void paint(GraphicsContext g) {
-		double width = g.getCanvas().getWidth(), height = g.getCanvas().getHeight(), startbw = 0,
-				startlcd = height - (height / 3);
-		// alles auf dem Panel löschen und Zeichnungseinstellungen
-		g.clearRect(0, 0, width, height);
-		g.setFont(Font.font("Courier New", height / 20));
-		g.setStroke(Color.BLACK);
-
-		// Errechnete Größe eines Pixels
-		double pixelSize = startlcd / 8;
-		if (bwscreenon) {
-			// Bildschirm zeichnen
-			for (int i = 0; i < 8; ++i) {
-				for (int j = 0; j < 8; ++j) {
-					if (bwscreen[i][j]) {
-						g.fillRect(j * pixelSize, i * pixelSize + startbw, pixelSize, pixelSize);
-					}
-				}
-			}
-		}
-		// Rand zeichnen
-		g.setStroke(Color.DARKGRAY);
-		g.rect(0, startbw, pixelSize * 8, pixelSize * 8);
-
-		// LCD
-		if (lcdon) {
-			g.setStroke(Color.BLACK);
-			g.fillText(lcd, 0, startlcd);
-		}
-
-		// Rand zeichnen
-		g.setStroke(Color.DARKGRAY);
-		g.rect(0, startlcd, pixelSize * 8, pixelSize * 8);
+		// in eigener Klasse, damit JavaFX nur beim Zeichnen geladen wird
+		StandardOutputBusPainter.paint(g, bwscreen, bwscreenon, lcd, lcdon);
 	}
 
 	@Override
@@ -162,6 +137,55 @@ public class StandardOutputBus implements OutputBus {
 		return (lcdon ? Pattern.compile(" ").matcher(lcd).replaceAll("_") : "") + bwscreen + System.lineSeparator();
 	}
 
+	/**
+	 * Adressregister, Schalter der Bildschirme, Pixelzeilen und Zeichen des
+	 * LCD-Bildschirms.
+	 */
+	@Override
+	public int stateSize() {
+		return 2 + bwscreen.length + lcd.length();
+	}
+
+	@Override
+	public void saveState(byte[] dst, int offset) {
+		dst[offset++] = address.getValue();
+		dst[offset++] = (byte) ((lcdon ? 0b01 : 0) | (bwscreenon ? 0b10 : 0));
+		for (boolean[] row : bwscreen) {
+			byte pixels = 0;
+			for (int i = 0; i < row.length; ++i)
+				if (row[i])
+					pixels |= 1 << i;
+			dst[offset++] = pixels;
+		}
+		for (int i = 0; i < lcd.length(); ++i)
+			dst[offset++] = (byte) lcd.charAt(i);
+	}
+
+	@Override
+	public void restoreState(byte[] src, int offset) {
+		address.setValue(src[offset++]);
+		lcdon = (src[offset] & 0b01) != 0;
+		bwscreenon = (src[offset++] & 0b10) != 0;
+		for (boolean[] row : bwscreen) {
+			for (int i = 0; i < row.length; ++i)
+				row[i] = (src[offset] >> i & 1) != 0;
+			++offset;
+		}
+		char[] chars = new char[lcd.length()];
+		for (int i = 0; i < chars.length; ++i)
+			chars[i] = (char) (src[offset++] & 0xff);
+		lcd = String.valueOf(chars);
+	}
+
+	@Override
+	public OutputBus fork(RegisterBus bus) {
+		byte[] state = new byte[stateSize()];
+		saveState(state, 0);
+		StandardOutputBus copy = new StandardOutputBus(bus);
+		copy.restoreState(state, 0);
+		return copy;
+	}
+
 	@Override
 	public void reset() {
 		address.setValue((byte) 0);
@@ -0,0 +1,55 @@
+package klfr.sa2emu.cpuemulator;
+
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+
+/**
+ * Zeichnet einen {@link StandardOutputBus} mit JavaFX. Liegt in einer eigenen
+ * Klasse, damit der Ausgabebus ohne JavaFX geladen und benutzt werden kann.
+ * 
+ * @author kleines Filmröllchen
+ */
+final class StandardOutputBusPainter {
+
+	private StandardOutputBusPainter() {
+	}
+
+	/**
+	 * @see StandardOutputBus#paint(GraphicsContext)
+	 */
+	static void paint(GraphicsContext g, boolean[][] bwscreen, boolean bwscreenon, String lcd, boolean lcdon) {
+		double width = g.getCanvas().getWidth(), height = g.getCanvas().getHeight(), startbw = 0,
+				startlcd = height - (height / 3);
+		// alles auf dem Panel löschen und Zeichnungseinstellungen
+		g.clearRect(0, 0, width, height);
+		g.setFont(Font.font("Courier New", height / 20));
+		g.setStroke(Color.BLACK);
+
+		// Errechnete Größe eines Pixels
+		double pixelSize = startlcd / 8;
+		if (bwscreenon) {
+			// Bildschirm zeichnen
+			for (int i = 0; i < 8; ++i) {
+				for (int j = 0; j < 8; ++j) {
+					if (bwscreen[i][j]) {
+						g.fillRect(j * pixelSize, i * pixelSize + startbw, pixelSize, pixelSize);
+					}
+				}
+			}
+		}
+		// Rand zeichnen
+		g.setStroke(Color.DARKGRAY);
+		g.rect(0, startbw, pixelSize * 8, pixelSize * 8);
+
+		// LCD
+		if (lcdon) {
+			g.setStroke(Color.BLACK);
+			g.fillText(lcd, 0, startlcd);
+		}
+
+		// Rand zeichnen
+		g.setStroke(Color.DARKGRAY);
+		g.rect(0, startlcd, pixelSize * 8, pixelSize * 8);
+	}
+}
@@ -0,0 +1,39 @@
+package klfr.sa2emu.cpuemulator;
+
+/**
+ * Ziel für die Ablaufverfolgung einer {@link SA2_CPU}. Die CPU prüft die
+ * eingestellte Stufe einmal pro Schritt und erzeugt nur dann Meldungen, wenn
+ * die Stufe es verlangt; bei {@link #OFF} entstehen keine Kosten.
+ * 
+ * @author kleines Filmröllchen
+ * @see SA2_CPU#setTrace(TraceSink, int)
+ */
+public interface TraceSink {
+	/**
+	 * Keine Ablaufverfolgung.
+	 */
+	public final static int OFF = 0;
+	/**
+	 * Eine Meldung pro Maschinenbefehl.
+	 */
+	public final static int INSTRUCTION = 1;
+	/**
+	 * Zusätzlich eine Meldung pro Mikrobefehl.
+	 */
+	public final static int MICRO_OP = 2;
+	/**
+	 * Zusätzlich eine Meldung pro Busübertragung.
+	 */
+	public final static int BUS = 3;
+
+	/**
+	 * Nimmt eine Meldung der Ablaufverfolgung entgegen.
+	 */
+	void trace(String message);
+
+	/**
+	 * Schreibt gepufferte Meldungen aus. Standardmäßig wird nichts getan.
+	 */
+	default void flush() {
+	}
+}
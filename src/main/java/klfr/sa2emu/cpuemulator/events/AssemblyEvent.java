@@ -0,0 +1,27 @@
+package klfr.sa2emu.cpuemulator.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Dauer eines Aufrufs des Assemblers.
+ *
+ * @author kleines Filmröllchen
+ */
+@Name("klfr.sa2emu.Assembly")
+@Label("Assembly")
+@Category("SA2 Emulator")
+@Description("An SA2 assembly source was translated into machine code.")
+public final class AssemblyEvent extends jdk.jfr.Event {
+
+	@Label("Machine Code Size")
+	@DataAmount
+	public int size;
+
+	@Label("Error")
+	@Description("Message of the assembly error, if the source could not be assembled.")
+	public String error;
+}
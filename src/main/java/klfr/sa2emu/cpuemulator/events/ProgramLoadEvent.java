@@ -0,0 +1,26 @@
+package klfr.sa2emu.cpuemulator.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Ein Programm wurde in den Arbeitsspeicher einer CPU geladen.
+ *
+ * @author kleines Filmröllchen
+ */
+@Name("klfr.sa2emu.ProgramLoad")
+@Label("Program Load")
+@Category("SA2 Emulator")
+@Description("Machine code was written into the memory of an SA2 CPU.")
+public final class ProgramLoadEvent extends jdk.jfr.Event {
+
+	@Label("Start Address")
+	public int address;
+
+	@Label("Size")
+	@DataAmount
+	public int size;
+}
@@ -0,0 +1,34 @@
+package klfr.sa2emu.cpuemulator.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Ein Aufruf von {@code run(long)} einer Ausführungsart, vom Start bis zum
+ * Halt, zum Treffer eines Haltepunkts oder zur Obergrenze an Taktzyklen.
+ *
+ * @author kleines Filmröllchen
+ */
+@Name("klfr.sa2emu.Run")
+@Label("Emulator Run")
+@Category("SA2 Emulator")
+@Description("An SA2 CPU executed until it halted, hit a breakpoint or reached its cycle limit.")
+@StackTrace(false)
+public final class RunEvent extends jdk.jfr.Event {
+
+	@Label("Engine")
+	@Description("micro, fast or jit")
+	public String engine;
+
+	@Label("Cycles")
+	public long cycles;
+
+	@Label("Instructions")
+	public long instructions;
+
+	@Label("Halted")
+	public boolean halted;
+}
@@ -0,0 +1,33 @@
+package klfr.sa2emu.cpuemulator.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Frequency;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Durchsatz einer laufenden Ausführung, gemessen über einen festen Abschnitt
+ * an Taktzyklen.
+ *
+ * @author kleines Filmröllchen
+ */
+@Name("klfr.sa2emu.Throughput")
+@Label("Emulator Throughput")
+@Category("SA2 Emulator")
+@Description("Simulated cycles per second over a fixed number of cycles of a running SA2 CPU.")
+@StackTrace(false)
+public final class ThroughputEvent extends jdk.jfr.Event {
+
+	@Label("Engine")
+	@Description("micro, fast or jit")
+	public String engine;
+
+	@Label("Cycles")
+	public long cycles;
+
+	@Label("Cycles per Second")
+	@Frequency
+	public double cyclesPerSecond;
+}
@@ -0,0 +1,10 @@
+/**
+ * Beinhaltet die Ereignisse, die der Emulator an den Java Flight Recorder
+ * meldet. Sie werden wie alle JFR-Ereignisse über die Einstellungen der
+ * Aufzeichnung ein- und ausgeschaltet und kosten ohne laufende Aufzeichnung
+ * nichts.
+ * 
+ * @author kleines Filmröllchen
+ * @version 1.0
+ */
+package klfr.sa2emu.cpuemulator.events;
@@ -2,7 +2,8 @@ package klfr.sa2emu.cpuemulator.exceptions;
 
 /**
  * Geworfen, falls ein Assembler einen Fehler in seiner Eingabe beim
- * Kompilieren/Assemblen findet.
+ * Kompilieren/Assemblen findet. Ist die fehlerhafte Zeile bekannt, steht sie in
+ * {@link #getLine()}.
  * 
  * @author kleines Filmröllchen
  */
@@ -10,23 +11,46 @@ public class AssemblyError extends Exception {
 
 	private static final long serialVersionUID = 1L;
 
+	/** Die fehlerhafte Zeile ab 1, oder 0 falls unbekannt. */
+	private final int line;
+
 	public AssemblyError() {
+		line = 0;
 	}
 
 	public AssemblyError(String arg0) {
 		super(arg0);
+		line = 0;
+	}
+
+	/**
+	 * @param line Die fehlerhafte Zeile im Quelltext ab 1.
+	 */
+	public AssemblyError(String arg0, int line) {
+		super(arg0);
+		this.line = line;
 	}
 
 	public AssemblyError(Throwable arg0) {
 		super(arg0);
+		line = 0;
 	}
 
 	public AssemblyError(String arg0, Throwable arg1) {
 		super(arg0, arg1);
+		line = 0;
 	}
 
 	public AssemblyError(String arg0, Throwable arg1, boolean arg2, boolean arg3) {
 		super(arg0, arg1, arg2, arg3);
+		line = 0;
+	}
+
+	/**
+	 * @return Die fehlerhafte Zeile im Quelltext ab 1, oder 0 falls unbekannt.
+	 */
+	public int getLine() {
+		return line;
 	}
 
 }
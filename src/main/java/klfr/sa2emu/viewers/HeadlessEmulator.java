@@ -0,0 +1,301 @@
+package klfr.sa2emu.viewers;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+
+import klfr.sa2emu.cpuemulator.*;
+import klfr.sa2emu.cpuemulator.exceptions.AssemblyError;
+import klfr.sa2emu.cpuemulator.exceptions.CPUException;
+
+/**
+ * Führt ein SA2-Programm ohne grafische Oberfläche aus. Das Programm wird als
+ * Assemblerquelltext oder als Speicherabbild gelesen, entweder als
+ * {@link SA2_Image} oder als Hexadezimalzahlen, wie von
+ * {@link RandomAccessMemory#printMemory(PrintStream)} ausgegeben, und
+ * läuft bis zum Halt oder bis zur Obergrenze an Taktzyklen. Danach werden
+ * Register, Arbeitsspeicher, Ausgabebus und die Laufzeit ausgegeben.<br>
+ * <br>
+ * Mit {@code -break} werden Halte- und Beobachtungspunkte im Format von
+ * {@link Breakpoints#parse(String)} gesetzt; die Ausführung endet dann beim
+ * ersten Treffer. Mit {@code -counters} werden die {@link PerformanceCounters}
+ * eingeschaltet und am Ende ausgegeben, mit {@code -heatmap} die
+ * meistbenutzten Befehlsadressen samt Zeilen im Quelltext aus der
+ * {@link Heatmap}. Mit {@code -profile} werden die Aufrufstapel vom
+ * {@link CallProfiler} abgetastet und gefaltet in die angegebene Datei
+ * geschrieben.<br>
+ * <br>
+ * Mit {@code -banks} bekommt der Arbeitsspeicher die angegebene Anzahl an
+ * Bänken, siehe {@link RandomAccessMemory#setBankCount(int)}. Mit
+ * {@code -data} wird eine Datei ab Bank 0 in den Hintergrundspeicher geladen,
+ * der dafür genug Bänke bekommt; mit {@code -dump} wird der
+ * Hintergrundspeicher nach der Ausführung in eine Datei geschrieben.<br>
+ * <br>
+ * Aufruf:
+ * {@code HeadlessEmulator [-image] [-engine micro|fast|jit] [-cycles N] [-break punkte] [-counters] [-heatmap] [-profile ausgabe] [-banks N] [-data datei] [-dump ausgabe] datei}
+ *
+ * @author kleines Filmröllchen
+ */
+public class HeadlessEmulator {
+
+	/** Standardmäßige Obergrenze der Taktzyklen. */
+	private static final long DEFAULT_MAX_CYCLES = 100_000_000L;
+	/** Anzahl der Adressen im Bericht der Heatmap. */
+	private static final int HEATMAP_REPORT_LENGTH = 16;
+
+	public static void main(String[] args) {
+		boolean image = false;
+		String engine = "fast";
+		long maxCycles = DEFAULT_MAX_CYCLES;
+		String breakpoints = null;
+		boolean counters = false, heatmap = false;
+		File profile = null, file = null;
+		int banks = 0;
+		File data = null, dump = null;
+
+		try {
+			for (int i = 0; i < args.length; ++i) {
+				switch (args[i]) {
+					case "-image":
+						image = true;
+						break;
+					case "-engine":
+						engine = args[++i];
+						break;
+					case "-cycles":
+						maxCycles = Long.parseLong(args[++i]);
+						break;
+					case "-break":
+						breakpoints = args[++i];
+						break;
+					case "-counters":
+						counters = true;
+						break;
+					case "-heatmap":
+						heatmap = true;
+						break;
+					case "-profile":
+						profile = new File(args[++i]);
+						break;
+					case "-banks":
+						banks = Integer.parseInt(args[++i]);
+						break;
+					case "-data":
+						data = new File(args[++i]);
+						break;
+					case "-dump":
+						dump = new File(args[++i]);
+						break;
+					default:
+						file = new File(args[i]);
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+			file = null;
+		}
+		if (file == null) {
+			System.err.println("Aufruf: HeadlessEmulator [-image] [-engine micro|fast|jit] [-cycles N] [-break punkte] [-counters] [-heatmap] [-profile ausgabe] [-banks N] [-data datei] [-dump ausgabe] datei");
+			System.exit(2);
+		}
+
+		SA2_CPU cpu = new SA2_CPU();
+		try {
+			cpu.RAM.setBankCount(banks);
+		} catch (IllegalArgumentException e) {
+			System.err.println("Ungültige Anzahl an Bänken: " + banks);
+			System.exit(2);
+		}
+		SA2_Assembler assembler = null;
+		try {
+			if (image && SA2_Image.isImage(file.toPath())) {
+				SA2_Image binary = SA2_Image.read(file.toPath());
+				cpu.loadImage(binary);
+				assembler = binary.toAssembler();
+			} else if (image) {
+				readImage(cpu, file);
+			} else {
+				assembler = new SA2_Assembler(file);
+				cpu.setMemory(Arrays.copyOf(assembler.getMachineCode(), cpu.RAM.size()));
+				cpu.setBankMemory(assembler.getBankCode());
+			}
+		} catch (FileNotFoundException e) {
+			System.err.println("Datei existiert nicht oder ist ein Verzeichnis.");
+			System.exit(1);
+		} catch (IOException e) {
+			System.err.println("Fehler in Eingabe/Ausgabe.");
+			System.exit(1);
+		} catch (AssemblyError e) {
+			System.err.println("Fehler beim Assemblieren: " + e.getMessage());
+			System.exit(1);
+		} catch (IllegalArgumentException e) {
+			System.err.println("Abbild passt nicht in den Arbeitsspeicher.");
+			System.exit(1);
+		}
+
+		if (data != null) {
+			try {
+				readData(cpu, data);
+			} catch (IOException e) {
+				System.err.println("Daten können nicht gelesen werden: " + data);
+				System.exit(1);
+			} catch (IllegalArgumentException e) {
+				System.err.println("Daten passen nicht in den Hintergrundspeicher.");
+				System.exit(1);
+			}
+		}
+
+		if (breakpoints != null) {
+			try {
+				cpu.breakpoints.parse(breakpoints);
+			} catch (IllegalArgumentException e) {
+				System.err.println("Ungültige Haltepunkte: " + e.getMessage());
+				System.exit(2);
+			}
+		}
+
+		cpu.counters.setEnabled(counters);
+		cpu.heatmap.setEnabled(heatmap);
+		CallProfiler profiler = profile == null ? null : new CallProfiler(cpu);
+
+		long cycles, instructions, start = System.nanoTime();
+		try {
+			switch (engine) {
+				case "micro":
+					cpu.run(maxCycles);
+					cycles = cpu.cycles();
+					instructions = cpu.instructions();
+					break;
+				case "jit":
+					SA2_BlockTranslator translator = new SA2_BlockTranslator(cpu);
+					translator.run(maxCycles);
+					cycles = translator.cycles();
+					instructions = translator.instructions();
+					break;
+				case "fast":
+					SA2_FastEngine fastEngine = new SA2_FastEngine(cpu);
+					fastEngine.run(maxCycles);
+					cycles = fastEngine.cycles();
+					instructions = fastEngine.instructions();
+					break;
+				default:
+					System.err.println("Unbekannte Ausführung: " + engine);
+					System.exit(2);
+					return;
+			}
+		} catch (CPUException | RuntimeException e) {
+			// etwa ein Zugriff des Programms außerhalb des Ausgabebus
+			System.err.println("Fehler in der CPU: " + e.getMessage());
+			printState(cpu, System.out);
+			System.exit(1);
+			return;
+		}
+		long nanos = System.nanoTime() - start;
+
+		printState(cpu, System.out);
+		if (cpu.breakpoints.hitKind() != Breakpoints.NONE)
+			System.out.println(describeHit(cpu.breakpoints));
+		else
+			System.out.println(cpu.halted ? "Angehalten." : "Obergrenze der Taktzyklen erreicht.");
+		System.out.printf("Taktzyklen: %d, Befehle: %d, Zeit: %.3f ms, simulierte Frequenz: %.3f MHz%n", cycles,
+				instructions, nanos / 1e6, nanos == 0 ? 0d : cycles * 1e3 / nanos);
+		if (counters)
+			cpu.counters.printReport(System.out);
+		if (heatmap) {
+			List<String> source = null;
+			try {
+				if (!image)
+					source = Files.readAllLines(file.toPath());
+			} catch (IOException e) {
+				// dann ohne Quelltext
+			}
+			cpu.heatmap.printReport(System.out, HEATMAP_REPORT_LENGTH, assembler, source);
+		}
+		if (profiler != null) {
+			profiler.close();
+			try (PrintStream out = new PrintStream(profile)) {
+				profiler.writeFolded(out, assembler);
+			} catch (FileNotFoundException e) {
+				System.err.println("Profil kann nicht geschrieben werden: " + profile);
+				System.exit(1);
+			}
+		}
+		if (dump != null) {
+			byte[] storage = new byte[cpu.RAM.storageSize()];
+			cpu.RAM.readStorage(0, storage, 0, storage.length);
+			try {
+				Files.write(dump.toPath(), storage);
+			} catch (IOException e) {
+				System.err.println("Hintergrundspeicher kann nicht geschrieben werden: " + dump);
+				System.exit(1);
+			}
+		}
+	}
+
+	/**
+	 * Lädt eine Datei ab Bank 0 in den Hintergrundspeicher; hat der
+	 * Arbeitsspeicher dafür zu wenige Bänke, bekommt er so viele wie nötig.
+	 * 
+	 * @throws IllegalArgumentException falls die Datei größer als der größte
+	 *                                  Hintergrundspeicher ist.
+	 */
+	static void readData(SA2_CPU cpu, File file) throws IOException {
+		byte[] data = Files.readAllBytes(file.toPath());
+		int needed = (data.length + RandomAccessMemory.BANK_SIZE - 1) / RandomAccessMemory.BANK_SIZE;
+		if (needed > RandomAccessMemory.MAX_BANKS)
+			throw new IllegalArgumentException("Data does not fit into the bank storage.");
+		if (needed > cpu.RAM.bankCount())
+			cpu.RAM.setBankCount(needed);
+		cpu.RAM.writeStorage(0, data, 0, data.length);
+	}
+
+	/**
+	 * Liest ein Speicherabbild aus Hexadezimalzahlen ab Adresse 0 ein.
+	 */
+	static void readImage(SA2_CPU cpu, File file) throws FileNotFoundException {
+		byte[] memory = new byte[cpu.RAM.size()];
+		int length = 0;
+		try (Scanner scan = new Scanner(file)) {
+			while (length < memory.length && scan.hasNextInt(16))
+				memory[length++] = (byte) scan.nextInt(16);
+		}
+		cpu.RAM.write(0, memory, 0, length);
+	}
+
+	/**
+	 * @return Eine Beschreibung des letzten Treffers der Haltepunkte.
+	 */
+	static String describeHit(Breakpoints breakpoints) {
+		switch (breakpoints.hitKind()) {
+			case Breakpoints.EXECUTE:
+				return String.format("Haltepunkt vor Befehl bei 0x%02x.", breakpoints.hitAddress());
+			case Breakpoints.READ:
+				return String.format("Lesezugriff auf 0x%02x.", breakpoints.hitAddress());
+			case Breakpoints.WRITE:
+				return String.format("Schreibzugriff auf 0x%02x.", breakpoints.hitAddress());
+			default:
+				return "Kein Haltepunkt erreicht.";
+		}
+	}
+
+	/**
+	 * Gibt Register, Arbeitsspeicher und Ausgabebus der CPU aus.
+	 */
+	static void printState(SA2_CPU cpu, PrintStream out) {
+		out.printf("A 0x%02x  B 0x%02x  X 0x%02x  SP 0x%02x  PC 0x%02x  IP 0x%02x  OP 0x%02x%n", cpu.A.getValue(),
+				cpu.B.getValue(), cpu.X.getValue(), cpu.SP.getValue(), cpu.PC.getValue(), cpu.IP.getValue(),
+				cpu.OP.getValue());
+		out.printf("FR 0x%02x  ALU 0x%02x  OUT 0x%02x  MAR 0x%02x%n", cpu.FR.getValue(), cpu.ALU.getValue(),
+				cpu.OUT.getValue(), cpu.RAM.AddressPointer.getValue());
+		if (cpu.RAM.bankCount() > 0)
+			out.printf("Bank %d von %d%n", cpu.RAM.bank(), cpu.RAM.bankCount());
+		out.println("Arbeitsspeicher:");
+		cpu.RAM.printMemory(out);
+		out.println("Ausgabebus:");
+		out.print(cpu.OB.consolePaint());
+	}
+}
@@ -3,10 +3,12 @@ package klfr.sa2emu.viewers;
 // Java Stdlib Utility
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 // JavaFX
 import javafx.application.Application;
 import javafx.application.Platform;
+import javafx.concurrent.Task;
 import javafx.scene.*;
 import javafx.scene.layout.*;
 import javafx.scene.paint.*;
@@ -142,11 +144,35 @@ public class JavaFX_SA2Emulator extends Application {
 
 	/// CPU und Assembler
 	private SA2_CPU cpu = new SA2_CPU();
-	@SuppressWarnings("unused")
+	/** Der Assembler des zuletzt kompilierten Programms, für die Quelltextzeilen. */
 	private SA2_Assembler assembler;
+	/** Übersetzt beim automatischen Kompilieren nur die geänderten Zeilen neu. */
+	private final SA2_IncrementalAssembler incrementalAssembler = new SA2_IncrementalAssembler();
+	/** Hintergrundthread für das automatische Kompilieren. */
+	private final ScheduledExecutorService autoCompiler = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "SA2 Auto-Kompilieren");
+		thread.setDaemon(true);
+		return thread;
+	});
+	/** Der ausstehende oder laufende automatische Kompiliervorgang. */
+	private Future<?> pendingCompile;
+	/** Zählt die Änderungen; nur das Ergebnis der letzten wird übernommen. */
+	private long compileGeneration = 0;
+	/** Wartezeit nach der letzten Eingabe bis zum automatischen Kompilieren. */
+	private static final long AUTO_COMPILE_DELAY_MS = 250;
 
 	/// Zeitkontrolle
 	private Timeline cpuRunTimeline = new Timeline();
+	/** Obergrenze der Taktzyklen beim Ausführen bis zum nächsten Haltepunkt. */
+	private static final long BREAKPOINT_RUN_CYCLES = 100_000_000L;
+	/** Taktzyklen, nach denen das Ausführen bis zum Haltepunkt auf Abbruch prüft. */
+	private static final long BREAKPOINT_RUN_SLICE = 1_000_000L;
+	/** Das laufende Ausführen bis zum Haltepunkt, oder {@code null}. */
+	private Task<Void> breakpointRun;
+	/** Der Thread, auf dem {@link #breakpointRun} läuft. */
+	private Thread breakpointThread;
+	/** Anzahl der Adressen im Bericht der Heatmap. */
+	private static final int HEATMAP_REPORT_LENGTH = 16;
 
 	/// Datei Eingabe/Ausgabe
 	private static FileChooser asmFileChooser;
@@ -178,6 +204,19 @@ public class JavaFX_SA2Emulator extends Application {
 	private Canvas bgCanvas = new Canvas();
 	private Canvas outC = new Canvas();
 	private Canvas outputBusC = new Canvas();
+	// Speicheransicht mit Heatmap, 16 mal 16 Zellen
+	private static final double MEMORY_CELL_WIDTH = 26, MEMORY_CELL_HEIGHT = 18;
+	private Canvas memoryC = new Canvas(17 * MEMORY_CELL_WIDTH, 17 * MEMORY_CELL_HEIGHT);
+	/** Inhalt des Arbeitsspeichers für die Speicheransicht, in einem Stück gelesen. */
+	private final byte[] memoryContent = new byte[cpu.RAM.size()];
+	private Stage memoryStage;
+	private Tooltip memoryTooltip = new Tooltip();
+	// Disassembly, folgt dem Programmzähler
+	private final SA2_Disassembler disassembler = new SA2_Disassembler(cpu.RAM);
+	private ListView<String> disassemblyLv = new ListView<>();
+	private Stage disassemblyStage;
+	/** Version des Disassemblers und Programmzähler der gezeigten Disassembly. */
+	private int shownDisassemblyVersion = -1, shownDisassemblyPC = -1;
 	private Label outputBusL = new Label();
 	private HBox lowerSectionHb = new HBox();
 	private VBox consSlidVb = new VBox();
@@ -209,9 +248,7 @@ public class JavaFX_SA2Emulator extends Application {
 			String assembly = assemblerTA.getText();
 			try {
 				SA2_Assembler assembler = new SA2_Assembler(assembly);
-				cpuRunTimeline.stop();
-				cpu.halted = false;
-				cpu.setMemory(assembler.getMachineCode(), (byte) 0);
+				loadProgram(assembler);
 				assembler.printMachineCode(System.out);
 			} catch (AssemblyError e) {
 				drawError(e.getMessage());
@@ -225,6 +262,14 @@ public class JavaFX_SA2Emulator extends Application {
 
 		});
 		CheckMenuItem autoCompile = new CheckMenuItem("Automatisch kompilieren");
+		autoCompile.setOnAction(action -> {
+			if (autoCompile.isSelected())
+				scheduleAutoCompile(assemblerTA.getText());
+		});
+		assemblerTA.textProperty().addListener((observable, oldText, newText) -> {
+			if (autoCompile.isSelected())
+				scheduleAutoCompile(newText);
+		});
 		assemblerMenu.getItems().addAll(autoCompile, compile);
 
 		MenuItem loadAsm = new MenuItem("Assemblerbefehle öffnen (Strg + O)");
@@ -263,7 +308,7 @@ public class JavaFX_SA2Emulator extends Application {
 
 		MenuItem oneStep = new MenuItem("Ein CPU-Schritt (Alt + 1)");
 		oneStep.setOnAction(action -> {
-			cpuRunTimeline.stop();
+			stopSimulation();
 
 			cpuRunTimeline = new Timeline(new KeyFrame(Duration.ZERO, a -> {
 				if (cpu.halted) {
@@ -295,7 +340,10 @@ public class JavaFX_SA2Emulator extends Application {
 			Duration dnf = calcAnimationDuration();
 			System.out.println(dnf.toString());
 
-			cpuRunTimeline.stop();
+			stopSimulation();
+			cpu.breakpoints.clearHit();
+			// der Haltepunkt an der Startadresse wird wie in run(long) übergangen
+			boolean[] started = { false };
 			cpuRunTimeline = new Timeline(new KeyFrame(dnf, a -> {
 				if (cpu.halted) {
 					try {
@@ -305,43 +353,90 @@ public class JavaFX_SA2Emulator extends Application {
 						e.printStackTrace();
 					}
 				}
+				if (started[0] && cpu.microInstructionCounter() == 0
+						&& cpu.breakpoints.checkExecute(cpu.PC.getValue() & 0xff)) {
+					stopAtBreakpoint();
+					return;
+				}
+				started[0] = true;
 				try {
 					executeStepPt1();
 				} catch (CPUException e) {
 					e.printStackTrace();
 				}
 			}), new KeyFrame(dnf.add(dnf), a -> {
+				if (cpuRunTimeline.getStatus() != Animation.Status.RUNNING)
+					return;
 				try {
 					executeStepPt2();
 				} catch (CPUException e) {
 					e.printStackTrace();
 				}
+				// Beobachtungspunkte treffen beim Speicherzugriff im zweiten Teil
+				if (cpu.breakpoints.hitKind() != Breakpoints.NONE)
+					stopAtBreakpoint();
 			}));
 
 			cpuRunTimeline.setCycleCount(Animation.INDEFINITE);
 			cpuRunTimeline.play();
 		});
+		MenuItem runToBreakpoint = new MenuItem("Bis zum Haltepunkt ausführen (Alt + 5)");
+		runToBreakpoint.setOnAction(action -> {
+			stopSimulation();
+			runToBreakpoint();
+		});
+		MenuItem editBreakpoints = new MenuItem("Haltepunkte festlegen...");
+		editBreakpoints.setOnAction(action -> {
+			TextInputDialog dialog = new TextInputDialog(cpu.breakpoints.toString());
+			dialog.setTitle("Haltepunkte");
+			dialog.setHeaderText("Adressen hexadezimal, r/w davor für Lese-/Schreibzugriffe, etwa \"10 r80 w81\"");
+			dialog.showAndWait().ifPresent(text -> {
+				// erst prüfen, damit ein Tippfehler die alten Punkte nicht löscht
+				try {
+					new Breakpoints(cpu.RAM.size()).parse(text);
+				} catch (IllegalArgumentException e) {
+					drawError(e.getMessage());
+					return;
+				}
+				cpu.breakpoints.clear();
+				cpu.breakpoints.parse(text);
+			});
+		});
 		MenuItem stop = new MenuItem("Simulation anhalten (Alt + 3)");
 		stop.setOnAction(action -> {
-			cpuRunTimeline.stop();
+			stopSimulation();
 		});
 		MenuItem reset = new MenuItem("Programmzähler zurücksetzen (Alt + 4)");
 		reset.setOnAction(action -> {
-			cpuRunTimeline.stop();
+			stopSimulation();
 			cpu.resetMemoryPointer();
 		});
-		simulationMenu.getItems().addAll(oneStep, play, stop, new SeparatorMenuItem(), reset);
+		CheckMenuItem traceBus = new CheckMenuItem("Busübertragungen ausgeben");
+		traceBus.setOnAction(action -> {
+			// jede Übertragung als Text auszugeben ist teuer, daher standardmäßig aus
+			cpu.setTrace(traceBus.isSelected() ? new PrintStreamTraceSink(System.out) : null, TraceSink.BUS);
+		});
+		simulationMenu.getItems().addAll(oneStep, play, stop, new SeparatorMenuItem(), runToBreakpoint,
+				editBreakpoints, new SeparatorMenuItem(), traceBus, new SeparatorMenuItem(), reset);
 
 		MenuItem loadRam = new MenuItem("Arbeitsspeicher laden (Strg + Alt + O)");
 		loadRam.setOnAction(action -> {
 			ramFileChooser.setTitle("Arbeitsspeicherabbild öffnen");
 			File selected = ramFileChooser.showOpenDialog(primaryStage);
 			try {
-				readMemory(new Scanner(selected));
+				if (SA2_Image.isImage(selected.toPath())) {
+					SA2_Image image = SA2_Image.read(selected.toPath());
+					stopSimulation();
+					cpu.loadImage(image);
+					cpu.heatmap.reset();
+					assembler = image.toAssembler();
+				} else {
+					readMemory(new Scanner(selected));
+				}
 				cpu.resetMemoryPointer();
 			} catch (FileNotFoundException e) {
 				drawError("Fehler: Datei wurde nicht gefunden oder kann nicht gelesen werden.");
-			} catch (NoSuchElementException e) {
+			} catch (NoSuchElementException | IOException | IllegalArgumentException e) {
 				drawError("Fehler beim Lesen des Speicherabbilds. Lade nur unmodifizierte Speicherabbilde.");
 			} catch (Exception e) {
 				drawError("Unbekannter Fehler beim Lesen des Speicherabbilds.");
@@ -352,18 +447,42 @@ public class JavaFX_SA2Emulator extends Application {
 			ramFileChooser.setTitle("Arbeitsspeicherabbild speichern");
 			File selected = ramFileChooser.showSaveDialog(primaryStage);
 			try {
-				cpu.RAM.printMemory(new PrintStream(selected));
-			} catch (FileNotFoundException e) {
+				if (selected.getName().endsWith(BatchAssembler.IMAGE_EXTENSION))
+					SA2_Image.of(cpu, assembler).write(selected.toPath());
+				else
+					cpu.RAM.printMemory(new PrintStream(selected));
+			} catch (IOException e) {
 				drawError("Fehler: Datei wurde nicht gefunden oder kann nicht gelesen werden.");
+			} catch (IllegalArgumentException e) {
+				drawError("Fehler: Speicher mit Bänken kann nicht als Programmabbild gespeichert werden.");
 			}
 		});
 		MenuItem resetRam = new MenuItem("Arbeitsspeicher zurücksetzen (Alt + Shift + 4)");
 		resetRam.setOnAction(action -> {
-			cpuRunTimeline.stop();
+			stopSimulation();
 			cpu.reset();
+			cpu.heatmap.reset();
 			cpu.resetMemoryPointer();
 		});
-		ramMenu.getItems().addAll(loadRam, storeRam, new SeparatorMenuItem(), resetRam);
+		MenuItem showMemory = new MenuItem("Speicheransicht mit Heatmap (Strg + M)");
+		showMemory.setOnAction(action -> {
+			memoryStage.show();
+			memoryStage.toFront();
+		});
+		MenuItem showDisassembly = new MenuItem("Disassembly (Strg + D)");
+		showDisassembly.setOnAction(action -> {
+			disassemblyStage.show();
+			disassemblyStage.toFront();
+		});
+		MenuItem heatmapReport = new MenuItem("Heatmap-Bericht ausgeben");
+		heatmapReport.setOnAction(action -> {
+			cpu.heatmap.printReport(System.out, HEATMAP_REPORT_LENGTH, assembler,
+					Arrays.asList(assemblerTA.getText().split("\\R", -1)));
+		});
+		MenuItem resetHeatmap = new MenuItem("Heatmap zurücksetzen");
+		resetHeatmap.setOnAction(action -> cpu.heatmap.reset());
+		ramMenu.getItems().addAll(loadRam, storeRam, new SeparatorMenuItem(), showMemory, showDisassembly,
+				heatmapReport, resetHeatmap, new SeparatorMenuItem(), resetRam);
 
 		// Tastenkombinationen
 		// String in der Form: "Modifier Modifier Taste"
@@ -379,10 +498,14 @@ public class JavaFX_SA2Emulator extends Application {
 		keyCombinations.put("ALT NUMPAD2", play);
 		keyCombinations.put("ALT NUMPAD3", stop);
 		keyCombinations.put("ALT NUMPAD4", reset);
+		keyCombinations.put("ALT DIGIT5", runToBreakpoint);
+		keyCombinations.put("ALT NUMPAD5", runToBreakpoint);
 		keyCombinations.put("CONTROL ALT O", loadRam);
 		keyCombinations.put("CONTROL ALT S", storeRam);
 		keyCombinations.put("SHIFT ALT DIGIT4", resetRam);
 		keyCombinations.put("SHIFT ALT NUMPAD4", resetRam);
+		keyCombinations.put("CONTROL M", showMemory);
+		keyCombinations.put("CONTROL D", showDisassembly);
 
 		EventHandler<KeyEvent> tfInputBlocker = action -> {
 			// Deaktivierung der Eingabe bei Escape
@@ -581,12 +704,48 @@ public class JavaFX_SA2Emulator extends Application {
 		primaryStage.setScene(scene);
 		primaryStage.show();
 
+		/// Speicheransicht
+		memoryStage = new Stage();
+		memoryStage.setTitle("Arbeitsspeicher");
+		memoryStage.getIcons().addAll(icons);
+		memoryStage.initOwner(primaryStage);
+		memoryStage.setScene(new Scene(new StackPane(memoryC)));
+		memoryStage.setResizable(false);
+		Tooltip.install(memoryC, memoryTooltip);
+		memoryC.setOnMouseMoved(action -> {
+			int column = (int) (action.getX() / MEMORY_CELL_WIDTH) - 1,
+					row = (int) (action.getY() / MEMORY_CELL_HEIGHT) - 1;
+			if (column < 0 || row < 0 || column > 15 || row > 15) {
+				memoryTooltip.setText("Taktzyklen je Befehlsadresse");
+				return;
+			}
+			int address = row * 16 + column;
+			int line = assembler == null ? 0 : assembler.sourceLine(address);
+			memoryTooltip.setText(String.format("0x%02x: %d Taktzyklen%s", address, cpu.heatmap.cycles(address),
+					line > 0 ? ", Zeile " + line : ""));
+		});
+
+		/// Disassembly
+		disassemblyStage = new Stage();
+		disassemblyStage.setTitle("Disassembly");
+		disassemblyStage.getIcons().addAll(icons);
+		disassemblyStage.initOwner(primaryStage);
+		disassemblyLv.setStyle("-fx-font-family: '" + monoFont.getFamily() + "';");
+		disassemblyLv.setPrefSize(280, 24 * MEMORY_CELL_HEIGHT);
+		disassemblyStage.setScene(new Scene(disassemblyLv));
+		// die GUI führt nur einzelne Schritte aus, das Zählen kostet hier nichts
+		cpu.heatmap.setEnabled(true);
+
 		// stellt sicher, dass die CPU in jedem Frame gezeichnet wird.
 		AnimationTimer sceneUpdater = new AnimationTimer() {
 			// public long last;
 
 			public void handle(long now) {
 				drawCPU();
+				if (memoryStage.isShowing())
+					drawMemory();
+				if (disassemblyStage.isShowing())
+					drawDisassembly();
 
 				// Dynamisches Layout hier
 				bgCanvas.setWidth(root.getWidth() - assemblerVb.localToScene(assemblerVb.getBoundsInLocal()).getMaxX());
@@ -608,12 +767,15 @@ public class JavaFX_SA2Emulator extends Application {
 		cpu.reset();
 	} // end of start
 
+	/**
+	 * Liest ein Speicherabbild aus Hexadezimalzahlen ab Adresse 0 ein.
+	 */
 	public void readMemory(Scanner scan) throws NoSuchElementException {
-		cpu.RAM.AddressPointer.setValue((byte) 0);
-		while (scan.hasNextInt(16)) {
-			cpu.RAM.AddressPointer.setValue((byte) (cpu.RAM.AddressPointer.getValue() + 1));
-			cpu.RAM.writeMemory((byte) scan.nextInt(16));
-		}
+		byte[] memory = new byte[cpu.RAM.size()];
+		int length = 0;
+		while (length < memory.length && scan.hasNextInt(16))
+			memory[length++] = (byte) scan.nextInt(16);
+		cpu.RAM.write(0, memory, 0, length);
 	}
 
 	/**
@@ -681,6 +843,68 @@ public class JavaFX_SA2Emulator extends Application {
 
 	}
 
+	/**
+	 * Zeichnet den Arbeitsspeicher als Tabelle mit 16 Bytes pro Zeile. Der
+	 * Hintergrund jeder Zelle zeigt den Anteil ihrer Taktzyklen an der
+	 * meistbenutzten Adresse der Heatmap, der Befehl am Programmzähler ist
+	 * umrandet.
+	 */
+	public void drawMemory() {
+		GraphicsContext g = memoryC.getGraphicsContext2D();
+		g.setFill(Color.WHITESMOKE);
+		g.fillRect(0, 0, memoryC.getWidth(), memoryC.getHeight());
+		g.setFont(monoFont);
+
+		long maximum = cpu.heatmap.maximum();
+		int pc = cpu.PC.getValue() & 0xff;
+		cpu.RAM.read(0, memoryContent, 0, memoryContent.length);
+		for (int i = 0; i < 16; ++i) {
+			g.setFill(Color.GRAY);
+			g.fillText(Integer.toHexString(i), (i + 1.3) * MEMORY_CELL_WIDTH, 0.7 * MEMORY_CELL_HEIGHT);
+			g.fillText(hex((byte) (i * 16)), 0.2 * MEMORY_CELL_WIDTH, (i + 1.7) * MEMORY_CELL_HEIGHT);
+		}
+		for (int address = 0; address < cpu.RAM.size(); ++address) {
+			double x = (address % 16 + 1) * MEMORY_CELL_WIDTH, y = (address / 16 + 1) * MEMORY_CELL_HEIGHT;
+			if (maximum > 0 && cpu.heatmap.cycles(address) > 0) {
+				g.setFill(Color.LIGHTYELLOW.interpolate(Color.RED, (double) cpu.heatmap.cycles(address) / maximum));
+				g.fillRect(x, y, MEMORY_CELL_WIDTH, MEMORY_CELL_HEIGHT);
+			}
+			if (address == pc) {
+				g.setStroke(Color.BLUE);
+				g.strokeRect(x + 1, y + 1, 2 * MEMORY_CELL_WIDTH - 2, MEMORY_CELL_HEIGHT - 2);
+			}
+			g.setFill(Color.BLACK);
+			g.fillText(hex(memoryContent[address]), x + 0.2 * MEMORY_CELL_WIDTH, y + 0.7 * MEMORY_CELL_HEIGHT);
+		}
+	}
+
+	/**
+	 * Zeigt die Disassembly ab der Ausrichtung des Programmzählers und wählt den
+	 * Befehl am Programmzähler aus. Die Liste wird nur neu aufgebaut, wenn sich
+	 * der Speicher oder die Ausrichtung geändert hat; die Texte der Befehle
+	 * kommen aus dem Zwischenspeicher des {@link SA2_Disassembler}.
+	 */
+	public void drawDisassembly() {
+		int pc = cpu.PC.getValue() & 0xff;
+		if (disassembler.version() != shownDisassemblyVersion || shownDisassemblyPC < 0
+				|| (pc & 1) != (shownDisassemblyPC & 1)) {
+			List<String> rows = new ArrayList<>(cpu.RAM.size() / 2);
+			for (int address = pc & 1; address < cpu.RAM.size(); address += 2) {
+				String label = assembler == null ? null : assembler.labelAt(address);
+				rows.add(String.format("%s  %s%s", hex((byte) address), label == null ? "" : ":" + label + ": ",
+						disassembler.instructionAt(address)));
+			}
+			disassemblyLv.getItems().setAll(rows);
+			shownDisassemblyVersion = disassembler.version();
+			shownDisassemblyPC = -1;
+		}
+		if (pc != shownDisassemblyPC) {
+			disassemblyLv.getSelectionModel().select(pc / 2);
+			disassemblyLv.scrollTo(Math.max(0, pc / 2 - 4));
+			shownDisassemblyPC = pc;
+		}
+	}
+
 	/**
 	 * Zeichnet die Buslinien auf die Grafikoberfläche, auch abhängig von
 	 * Ausgabe/Eingabe der Register.
@@ -710,17 +934,17 @@ public class JavaFX_SA2Emulator extends Application {
 				busX = g.getCanvas().sceneToLocal((leftRegisterEdge + rightRegisterEdge) / 2, 0).getX();
 
 		/// Zugang der Register auf den Bus
-		drawRegisterToBus(tfPC, g, cpu.PC.isActing(), busX, true);
-		drawRegisterToBus(tfMAR, g, cpu.RAM.AddressPointer.isActing(), busX, true);
-		drawRegisterToBus(tfRAM, g, cpu.RAM.isActing(), busX, true);
-		drawRegisterToBus(tfIP, g, cpu.IP.isActing(), busX, true);
-		drawRegisterToBus(tfOP, g, cpu.OP.isActing(), busX, true);
-		drawRegisterToBus(tfOUT, g, cpu.OUT.isActing(), busX, true);
-		drawRegisterToBus(tfA, g, cpu.A.isActing(), busX, false);
-		drawRegisterToBus(tfB, g, cpu.B.isActing(), busX, false);
-		drawRegisterToBus(tfX, g, cpu.X.isActing(), busX, false);
-		drawRegisterToBus(tfALU, g, cpu.ALU.isActing(), busX, false);
-		drawRegisterToBus(tfSP, g, cpu.SP.isActing(), busX, false);
+		drawRegisterToBus(tfPC, g, cpu.unitIsActing(SA2_CPU.UNIT_PC), busX, true);
+		drawRegisterToBus(tfMAR, g, cpu.unitIsActing(SA2_CPU.UNIT_MAR), busX, true);
+		drawRegisterToBus(tfRAM, g, cpu.unitIsActing(SA2_CPU.UNIT_RAM), busX, true);
+		drawRegisterToBus(tfIP, g, cpu.unitIsActing(SA2_CPU.UNIT_IP), busX, true);
+		drawRegisterToBus(tfOP, g, cpu.unitIsActing(SA2_CPU.UNIT_OP), busX, true);
+		drawRegisterToBus(tfOUT, g, cpu.unitIsActing(SA2_CPU.UNIT_OUT), busX, true);
+		drawRegisterToBus(tfA, g, cpu.unitIsActing(SA2_CPU.UNIT_A), busX, false);
+		drawRegisterToBus(tfB, g, cpu.unitIsActing(SA2_CPU.UNIT_B), busX, false);
+		drawRegisterToBus(tfX, g, cpu.unitIsActing(SA2_CPU.UNIT_X), busX, false);
+		drawRegisterToBus(tfALU, g, cpu.unitIsActing(SA2_CPU.UNIT_ALU), busX, false);
+		drawRegisterToBus(tfSP, g, cpu.unitIsActing(SA2_CPU.UNIT_SP), busX, false);
 
 		/// Bus selbst
 		g.setLineWidth(1);
@@ -768,16 +992,130 @@ public class JavaFX_SA2Emulator extends Application {
 		double xstart = fromRight ? (tfPos.getMinX() + tfPos.getWidth() - gx) : (tfPos.getMinX() - gx),
 				ystart = tfPos.getMinY() + (tfPos.getHeight() / 2) - gy;
 
-		if (isActive) {
-			System.out.println("Active Bus");
+		if (isActive)
 			g.setStroke(Color.CHARTREUSE);
-		}
 
 		g.strokeLine(xstart, ystart, busX, ystart);
 
 		g.restore();
 	}
 
+	/**
+	 * Hält die Zeitleiste und ein laufendes Ausführen bis zum Haltepunkt an. Auf
+	 * dessen Thread wird gewartet, bis er den aktuellen Abschnitt beendet hat,
+	 * damit danach nur noch dieser Thread die CPU verändert.
+	 */
+	private void stopSimulation() {
+		cpuRunTimeline.stop();
+		if (breakpointRun == null)
+			return;
+		breakpointRun.cancel();
+		try {
+			breakpointThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		breakpointRun = null;
+	}
+
+	/**
+	 * Hält die Zeitleiste an einem getroffenen Halte- oder Beobachtungspunkt an
+	 * und zeigt den Treffer an.
+	 */
+	private void stopAtBreakpoint() {
+		cpuRunTimeline.stop();
+		drawMsg(HeadlessEmulator.describeHit(cpu.breakpoints));
+	}
+
+	/**
+	 * Führt das Programm auf einem Hintergrundthread mit {@link SA2_FastEngine}
+	 * aus, bis ein Haltepunkt getroffen wird, die CPU anhält oder
+	 * {@link #BREAKPOINT_RUN_CYCLES} erreicht sind. Das Ergebnis wird danach auf
+	 * dem JavaFX-Thread angezeigt.
+	 */
+	private void runToBreakpoint() {
+		Task<Void> run = new Task<>() {
+			@Override
+			protected Void call() throws CPUException {
+				SA2_FastEngine engine = new SA2_FastEngine(cpu);
+				long executed = 0;
+				while (!isCancelled() && !cpu.halted && executed < BREAKPOINT_RUN_CYCLES) {
+					// run() übergeht den Haltepunkt an seiner Startadresse, zwischen zwei
+					// Abschnitten ist er aber ein Treffer
+					if (executed > 0 && cpu.microInstructionCounter() == 0
+							&& cpu.breakpoints.checkExecute(cpu.PC.getValue() & 0xff))
+						break;
+					executed += engine.run(Math.min(BREAKPOINT_RUN_SLICE, BREAKPOINT_RUN_CYCLES - executed));
+					if (cpu.breakpoints.hitKind() != Breakpoints.NONE)
+						break;
+				}
+				return null;
+			}
+		};
+		run.setOnSucceeded(event -> {
+			if (breakpointRun != run)
+				return;
+			breakpointRun = null;
+			drawMsg(cpu.breakpoints.hitKind() != Breakpoints.NONE ? HeadlessEmulator.describeHit(cpu.breakpoints)
+					: cpu.halted ? "Angehalten." : "Kein Haltepunkt erreicht.");
+		});
+		run.setOnFailed(event -> {
+			if (breakpointRun != run)
+				return;
+			breakpointRun = null;
+			drawError("Fehler in der CPU: " + run.getException().getMessage());
+		});
+		breakpointRun = run;
+		breakpointThread = new Thread(run, "SA2 Bis zum Haltepunkt");
+		breakpointThread.setDaemon(true);
+		breakpointThread.start();
+		drawMsg("Ausführung bis zum Haltepunkt läuft...");
+	}
+
+	/**
+	 * Lädt ein übersetztes Programm samt dem Code seiner Bänke in den
+	 * Arbeitsspeicher; die Simulation wird angehalten.
+	 */
+	private void loadProgram(SA2_Assembler assembler) {
+		stopSimulation();
+		cpu.halted = false;
+		cpu.setMemory(assembler.getMachineCode(), (byte) 0);
+		cpu.setBankMemory(assembler.getBankCode());
+		cpu.heatmap.reset();
+		this.assembler = assembler;
+	}
+
+	/**
+	 * Kompiliert den Quelltext nach einer kurzen Pause auf dem Hintergrundthread.
+	 * Ein noch ausstehender oder laufender Vorgang für einen älteren Stand wird
+	 * abgebrochen; Ergebnisse werden nur übernommen, wenn seitdem nichts mehr
+	 * geändert wurde.
+	 */
+	private void scheduleAutoCompile(String assembly) {
+		if (pendingCompile != null)
+			pendingCompile.cancel(true);
+		long generation = ++compileGeneration;
+		pendingCompile = autoCompiler.schedule(() -> {
+			try {
+				SA2_Assembler assembler = incrementalAssembler.update(assembly);
+				Platform.runLater(() -> {
+					if (generation != compileGeneration)
+						return;
+					loadProgram(assembler);
+					cpu.resetMemoryPointer();
+					drawMsg("Assembly erfolgreich!");
+				});
+			} catch (AssemblyError e) {
+				Platform.runLater(() -> {
+					if (generation == compileGeneration)
+						drawError(e.getMessage());
+				});
+			} catch (CancellationException e) {
+				// ein neuerer Stand wird schon kompiliert
+			}
+		}, AUTO_COMPILE_DELAY_MS, TimeUnit.MILLISECONDS);
+	}
+
 	/**
 	 * Zeichnet einen Fehler in das Fehlerfeld.
 	 */
@@ -861,6 +1199,7 @@ public class JavaFX_SA2Emulator extends Application {
 
 		List<ExtensionFilter> ramFileExtensions = new ArrayList<>();
 		ramFileExtensions.add(new ExtensionFilter("Arbeitsspeicher", "*.ram", "*.mem", "*.memory"));
+		ramFileExtensions.add(new ExtensionFilter("Programmabbild", "*" + BatchAssembler.IMAGE_EXTENSION));
 		ramFileExtensions.add(new ExtensionFilter("Textdatei", "*.txt", "*.text", "*.dat"));
 		ramFileExtensions.add(new ExtensionFilter("Alle Dateien", "*.*"));
 
@@ -3,15 +3,23 @@ package klfr.sa2emu.viewers;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Scanner;
 
+import klfr.sa2emu.cpuemulator.BatchAssembler;
 import klfr.sa2emu.cpuemulator.SA2_Assembler;
 import klfr.sa2emu.cpuemulator.exceptions.AssemblyError;
 
 /**
  * Einfacher Assembler, der eine gegebene Datei einliest und diese einem
  * SA2-Assembler übergibt.
- * Dabei werden der fertige Maschinencode sowie evtl. Fehler ausgegeben.
+ * Dabei werden der fertige Maschinencode sowie evtl. Fehler ausgegeben.<br>
+ * <br>
+ * Mit Argumenten werden stattdessen alle Quelltexte eines Verzeichnisbaums
+ * vom {@link BatchAssembler} parallel assembliert; am Ende steht eine Liste der
+ * fehlgeschlagenen Dateien mit Zeile.<br>
+ * <br>
+ * Aufruf: {@code SimpleAssembler [quellverzeichnis [zielverzeichnis]]}
  * 
  * @author kleines Filmröllchen
  *
@@ -19,6 +27,11 @@ import klfr.sa2emu.cpuemulator.exceptions.AssemblyError;
 public class SimpleAssembler {
 
 	public static void main(String[] args) {
+		if (args.length > 0) {
+			assembleBatch(Path.of(args[0]), Path.of(args.length > 1 ? args[1] : args[0]));
+			return;
+		}
+
 		Scanner input = new Scanner(System.in);
 		System.out.print("Bitte geben Sie einen Dateinamen an: ");
 		File f = new File(input.next());
@@ -36,4 +49,27 @@ public class SimpleAssembler {
 		input.close();
 	}
 
+	/**
+	 * Assembliert alle Quelltexte im Quellverzeichnis in das Zielverzeichnis.
+	 */
+	private static void assembleBatch(Path sourceRoot, Path targetRoot) {
+		BatchAssembler.Result result;
+		long start = System.nanoTime();
+		try (BatchAssembler batch = new BatchAssembler()) {
+			result = batch.assemble(sourceRoot, targetRoot);
+		} catch (IOException e) {
+			System.err.println("Quellverzeichnis kann nicht gelesen werden: " + e.getMessage());
+			System.exit(1);
+			return;
+		}
+		long nanos = System.nanoTime() - start;
+
+		for (BatchAssembler.Failure failure : result.failures)
+			System.err.println(failure);
+		System.out.printf("%d von %d Dateien assembliert, %d fehlerhaft, Zeit: %.3f ms%n", result.assembled(),
+				result.sources, result.failures.size(), nanos / 1e6);
+		if (!result.failures.isEmpty())
+			System.exit(1);
+	}
+
 }
@@ -5,9 +5,11 @@
 module sa2emu {
 	exports klfr.sa2emu.viewers;
 	exports klfr.sa2emu.cpuemulator;
+	exports klfr.sa2emu.cpuemulator.events;
 
 	requires transitive javafx.base;
 	requires transitive javafx.controls;
 	requires java.base;
 	requires java.logging;
+	requires jdk.jfr;
 }